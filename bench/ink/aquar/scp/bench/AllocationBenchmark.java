@@ -0,0 +1,82 @@
+package ink.aquar.scp.bench;
+
+import java.lang.management.ManagementFactory;
+
+import ink.aquar.scp.util.ByteWrapper;
+import ink.aquar.scp.util.ChecksumStrategy;
+import ink.aquar.scp.v1.SecureDelivery.LetterWrapper;
+import ink.aquar.scp.v1.SecureDelivery.Packet;
+
+/**
+ * Bytes allocated per operation by the packet codec, measured by the allocation counter of 
+ * the current thread of HotSpot, after a warm-up round.<br>
+ * <br>
+ * Run it with the classes of src on the class path, for example:<br>
+ * javac -d out $(find src bench -name '*.java') && java -cp out ink.aquar.scp.bench.AllocationBenchmark<br>
+ * Without the putLong case, it also runs on the tree before the primitive codec of ByteWrapper, 
+ * to compare with.<br>
+ * 
+ * @author Aquarink Studio
+ * @author Kevin Iry
+ * 
+ */
+public final class AllocationBenchmark {
+	
+	private final static int ITERATIONS = 2000000;
+	
+	private final static com.sun.management.ThreadMXBean THREADS = 
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	
+	private static long sink;
+	
+	public static void main(String[] args) throws Exception {
+		byte[] data = new byte[64];
+		byte[] letter = new byte[LetterWrapper.DATA_START + data.length];
+		byte[] bytes = new byte[16];
+		Packet.Head head = new Packet.Head(0x1234567890L, (byte) 10, 77);
+		
+		for(int round=0;round<2;round++) {
+			boolean isWarm = round > 0;
+			
+			long allocated = allocated();
+			for(int i=0;i<ITERATIONS;i++) {
+				sink += head.toBytes()[3];
+			}
+			report(isWarm, "Head.toBytes", allocated);
+			
+			allocated = allocated();
+			for(int i=0;i<ITERATIONS;i++) {
+				LetterWrapper.wrap(data, ChecksumStrategy.CRC32C, letter, 0);
+				sink += LetterWrapper.resolve(letter, 0, letter.length, ChecksumStrategy.CRC32C).length;
+			}
+			report(isWarm, "LetterWrapper wrap + resolve", allocated);
+			
+			allocated = allocated();
+			for(int i=0;i<ITERATIONS;i++) {
+				ByteWrapper.toBytes((long) i, bytes, 0);
+				sink += ByteWrapper.fromBytes(bytes, 0, ByteWrapper.OutputType.LONG);
+			}
+			report(isWarm, "toBytes(Object) + fromBytes", allocated);
+			
+			allocated = allocated();
+			for(int i=0;i<ITERATIONS;i++) {
+				ByteWrapper.putLong(i, bytes, 0);
+				sink += ByteWrapper.getLong(bytes, 0);
+			}
+			report(isWarm, "putLong + getLong", allocated);
+		}
+		if(sink == 42) System.out.println();
+	}
+	
+	private static long allocated() {
+		return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+	
+	private static void report(boolean isWarm, String name, long allocated) {
+		if(!isWarm) return;
+		System.out.printf("%-32s %6.1f B/op%n", name, (allocated() - allocated) / (double) ITERATIONS);
+	}
+	
+	private AllocationBenchmark() {}
+	
+}
@@ -1,11 +1,13 @@
 package ink.aquar.scp;
 
+import java.nio.ByteBuffer;
+
 /**
  * A communicator for library user to implement, you can connect it to Socket, Bukkit PluginMessage, etc.<br>
  * You also need to implement BasicReceptor to receive messages.<br>
  * 
- * You can try some erasure codings to avoid data damage!<br>
- * <h1>Reed Solomon Erasure Coding is recommended: </h1><link>https://github.com/Backblaze/JavaReedSolomon</link><br>
+ * SecureDelivery can add Reed Solomon parity to data packets, so that packets that are lost or damaged 
+ * can be rebuilt, see DeliveryProfile.fecDataShards and DeliveryProfile.fecParityShards.<br>
  * <br>
  * 
  * @see BasicReceptor
@@ -23,6 +25,21 @@ public interface BasicMessenger {
 	 */
 	public void send(byte[] data);
 	
+	/**
+	 * Send a message from position to limit of the buffer.<br>
+	 * <br>
+	 * The buffer may be borrowed from a pool and reused as soon as this method returns, 
+	 * so the content should be written out or copied before that. The default implementation 
+	 * copies it into an array for send(byte[]).<br>
+	 * 
+	 * @param data The content of the message
+	 */
+	public default void send(ByteBuffer data) {
+		byte[] bytes = new byte[data.remaining()];
+		data.get(bytes);
+		send(bytes);
+	}
+	
 	/**
 	 * To register a receptor with a unique channel name.<br>
 	 * 
@@ -1,5 +1,6 @@
 package ink.aquar.scp.crypto;
 
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import javax.crypto.BadPaddingException;
@@ -8,6 +9,7 @@ import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.KeyGenerator;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 
 /**
@@ -24,17 +26,20 @@ public class AESCrypto implements SymmetricCrypto {
 	
 	private final static String KEY_ALGORITHM = "AES";
 	private final static String CIPHER_ALGORITHM = "AES/ECB/PKCS5Padding";
+	private final static int BLOCK_SIZE = 16;
 	
-	private final static KeyGenerator KEY_GENERATOR;
-	static {
-		KeyGenerator keyGenerator = null;
-		try {
-			keyGenerator = KeyGenerator.getInstance(KEY_ALGORITHM);
-		} catch (NoSuchAlgorithmException ex) {
-			ex.printStackTrace();
+	private final static class GeneratorHolder { // Set up on first key generation.
+		private final static KeyGenerator KEY_GENERATOR;
+		static {
+			KeyGenerator keyGenerator = null;
+			try {
+				keyGenerator = KeyGenerator.getInstance(KEY_ALGORITHM);
+			} catch (NoSuchAlgorithmException ex) {
+				ex.printStackTrace();
+			}
+			keyGenerator.init(128);
+			KEY_GENERATOR = keyGenerator;
 		}
-		keyGenerator.init(128);
-		KEY_GENERATOR = keyGenerator;
 	}
 
 	@Override
@@ -63,13 +68,173 @@ public class AESCrypto implements SymmetricCrypto {
 		return null;
 	}
 	
+	@Override
+	public int encrypt(byte[] data, int offset, int length, byte[] key, byte[] output, int outputOffset) 
+			throws BadPaddingException, InvalidKeyException {
+		return doFinal(initCipher(Cipher.ENCRYPT_MODE, toKey(key)), data, offset, length, output, outputOffset);
+	}
+	
+	@Override
+	public int decrypt(byte[] data, int offset, int length, byte[] key, byte[] output, int outputOffset) 
+			throws BadPaddingException, InvalidKeyException {
+		return doFinal(initCipher(Cipher.DECRYPT_MODE, toKey(key)), data, offset, length, output, outputOffset);
+	}
+	
+	@Override
+	public int encrypt(ByteBuffer data, byte[] key, ByteBuffer output) throws BadPaddingException, InvalidKeyException {
+		return doFinal(initCipher(Cipher.ENCRYPT_MODE, toKey(key)), data, output);
+	}
+	
+	@Override
+	public int decrypt(ByteBuffer data, byte[] key, ByteBuffer output) throws BadPaddingException, InvalidKeyException {
+		return doFinal(initCipher(Cipher.DECRYPT_MODE, toKey(key)), data, output);
+	}
+	
+	@Override
+	public int getEncryptedSize(int dataLength, byte[] key) {
+		return getEncryptedSize(dataLength);
+	}
+	
+	private static int getEncryptedSize(int dataLength) {
+		return (dataLength / BLOCK_SIZE + 1) * BLOCK_SIZE; // PKCS5 always pads.
+	}
+	
+	private static int doFinal(Cipher cipher, byte[] data, int offset, int length, byte[] output, int outputOffset) 
+			throws BadPaddingException {
+		try {
+			return cipher.doFinal(data, offset, length, output, outputOffset);
+		} catch (IllegalBlockSizeException | ShortBufferException ex) {
+			throw new BadPaddingException(ex.getMessage());
+		}
+	}
+	
+	private static int doFinal(Cipher cipher, ByteBuffer data, ByteBuffer output) throws BadPaddingException {
+		try {
+			return cipher.doFinal(data, output);
+		} catch (IllegalBlockSizeException | ShortBufferException ex) {
+			throw new BadPaddingException(ex.getMessage());
+		}
+	}
+	
 	private static SecretKey toKey(byte[] key) {
 		return new SecretKeySpec(key, KEY_ALGORITHM);
 	}
+	
+	@Override
+	public Session createSession(byte[] key) throws InvalidKeyException {
+		return new AESSession(toKey(key));
+	}
+	
+	/**
+	 * Session that keeps an initialized cipher for each direction, ECB cipher resets itself
+	 * to the initialized state after every doFinal.<br>
+	 */
+	private final static class AESSession implements Session {
+		
+		private final SecretKey secretKey;
+		private final Cipher encryptCipher;
+		private final Cipher decryptCipher;
+		
+		public AESSession(SecretKey secretKey) throws InvalidKeyException {
+			this.secretKey = secretKey;
+			encryptCipher = initCipher(Cipher.ENCRYPT_MODE, secretKey);
+			decryptCipher = initCipher(Cipher.DECRYPT_MODE, secretKey);
+		}
+		
+		@Override
+		public byte[] encrypt(byte[] data) throws BadPaddingException, InvalidKeyException {
+			synchronized (encryptCipher) {
+				try {
+					return encryptCipher.doFinal(data);
+				} catch (IllegalBlockSizeException ex) {
+					encryptCipher.init(Cipher.ENCRYPT_MODE, secretKey);
+					throw new BadPaddingException(ex.getMessage());
+				}
+			}
+		}
+		
+		@Override
+		public byte[] decrypt(byte[] data) throws BadPaddingException, InvalidKeyException {
+			synchronized (decryptCipher) {
+				try {
+					return decryptCipher.doFinal(data);
+				} catch (IllegalBlockSizeException | BadPaddingException ex) {
+					decryptCipher.init(Cipher.DECRYPT_MODE, secretKey);
+					throw new BadPaddingException(ex.getMessage());
+				}
+			}
+		}
+		
+		@Override
+		public int encrypt(byte[] data, int offset, int length, byte[] output, int outputOffset) 
+				throws BadPaddingException, InvalidKeyException {
+			synchronized (encryptCipher) {
+				try {
+					return doFinal(encryptCipher, data, offset, length, output, outputOffset);
+				} catch (BadPaddingException ex) {
+					encryptCipher.init(Cipher.ENCRYPT_MODE, secretKey);
+					throw ex;
+				}
+			}
+		}
+		
+		@Override
+		public int decrypt(byte[] data, int offset, int length, byte[] output, int outputOffset) 
+				throws BadPaddingException, InvalidKeyException {
+			synchronized (decryptCipher) {
+				try {
+					return doFinal(decryptCipher, data, offset, length, output, outputOffset);
+				} catch (BadPaddingException ex) {
+					decryptCipher.init(Cipher.DECRYPT_MODE, secretKey);
+					throw ex;
+				}
+			}
+		}
+		
+		@Override
+		public int encrypt(ByteBuffer data, ByteBuffer output) throws BadPaddingException, InvalidKeyException {
+			synchronized (encryptCipher) {
+				try {
+					return doFinal(encryptCipher, data, output);
+				} catch (BadPaddingException ex) {
+					encryptCipher.init(Cipher.ENCRYPT_MODE, secretKey);
+					throw ex;
+				}
+			}
+		}
+		
+		@Override
+		public int decrypt(ByteBuffer data, ByteBuffer output) throws BadPaddingException, InvalidKeyException {
+			synchronized (decryptCipher) {
+				try {
+					return doFinal(decryptCipher, data, output);
+				} catch (BadPaddingException ex) {
+					decryptCipher.init(Cipher.DECRYPT_MODE, secretKey);
+					throw ex;
+				}
+			}
+		}
+		
+		@Override
+		public int getEncryptedSize(int dataLength) {
+			return AESCrypto.getEncryptedSize(dataLength);
+		}
+		
+	}
+	
+	private static Cipher initCipher(int mode, SecretKey secretKey) throws InvalidKeyException {
+		try {
+			Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
+			cipher.init(mode, secretKey);
+			return cipher;
+		} catch (NoSuchAlgorithmException | NoSuchPaddingException ex) {
+			throw new InvalidKeyException(ex.getMessage());
+		}
+	}
 
 	@Override
 	public byte[] generateKey() {
-		return KEY_GENERATOR.generateKey().getEncoded();
+		return GeneratorHolder.KEY_GENERATOR.generateKey().getEncoded();
 	}
 
 }
@@ -0,0 +1,51 @@
+package ink.aquar.scp.crypto;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.AlgorithmParameterSpec;
+import javax.crypto.KeyGenerator;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * An implementation of AES 128 GCM AuthenticatedCrypto by using java provided security implementations.<br>
+ * 
+ * @see AbstractAuthenticatedCrypto
+ * @see AuthenticatedCrypto
+ * 
+ * @author Aquarink Studio
+ * @author Kevin Iry
+ * 
+ */
+public class AESGCMCrypto extends AbstractAuthenticatedCrypto {
+	
+	private final static String KEY_ALGORITHM = "AES";
+	private final static String CIPHER_ALGORITHM = "AES/GCM/NoPadding";
+	
+	private final static class GeneratorHolder { // Set up on first key generation.
+		private final static KeyGenerator KEY_GENERATOR;
+		static {
+			KeyGenerator keyGenerator = null;
+			try {
+				keyGenerator = KeyGenerator.getInstance(KEY_ALGORITHM);
+			} catch (NoSuchAlgorithmException ex) {
+				ex.printStackTrace();
+			}
+			keyGenerator.init(128);
+			KEY_GENERATOR = keyGenerator;
+		}
+	}
+	
+	public AESGCMCrypto() {
+		super(KEY_ALGORITHM, CIPHER_ALGORITHM);
+	}
+	
+	@Override
+	protected AlgorithmParameterSpec toParameter(byte[] nonce, int offset) {
+		return new GCMParameterSpec(TAG_LENGTH * 8, nonce, offset, NONCE_LENGTH);
+	}
+	
+	@Override
+	public byte[] generateKey() {
+		return GeneratorHolder.KEY_GENERATOR.generateKey().getEncoded();
+	}
+	
+}
@@ -0,0 +1,348 @@
+package ink.aquar.scp.crypto;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A skeleton of AuthenticatedCrypto for ciphers that take a 12 bytes nonce and append a 
+ * 16 bytes tag, by using java provided security implementations.<br>
+ * <br>
+ * Encrypted data is formed as | NONCE | CIPHERTEXT | TAG |, which costs OVERHEAD (28) bytes more than the data.<br>
+ * <br>
+ * Sessions count their nonce up from a random start, while encryption without a session 
+ * picks a random nonce every time.<br>
+ * 
+ * @see AuthenticatedCrypto
+ * @see AESGCMCrypto
+ * @see ChaCha20Poly1305Crypto
+ * 
+ * @author Aquarink Studio
+ * @author Kevin Iry
+ * 
+ */
+public abstract class AbstractAuthenticatedCrypto implements AuthenticatedCrypto {
+	
+	public final static int NONCE_LENGTH = 12;
+	public final static int TAG_LENGTH = 16;
+	public final static int OVERHEAD = NONCE_LENGTH + TAG_LENGTH;
+	
+	private final static byte[] EMPTY_BYTE_ARRAY = {};
+	
+	protected final static SecureRandom RANDOM = new SecureRandom();
+	
+	private final String keyAlgorithm;
+	private final String cipherAlgorithm;
+	
+	protected AbstractAuthenticatedCrypto(String keyAlgorithm, String cipherAlgorithm) {
+		this.keyAlgorithm = keyAlgorithm;
+		this.cipherAlgorithm = cipherAlgorithm;
+	}
+	
+	/**
+	 * To create the parameter of the cipher from a nonce.<br>
+	 * 
+	 * @param nonce The array that contains the nonce
+	 * @param offset The index that the nonce of NONCE_LENGTH bytes starts from
+	 * @return The parameter
+	 */
+	protected abstract AlgorithmParameterSpec toParameter(byte[] nonce, int offset);
+	
+	@Override
+	public byte[] encrypt(byte[] data, byte[] key) throws BadPaddingException, InvalidKeyException {
+		return encrypt(data, key, EMPTY_BYTE_ARRAY);
+	}
+	
+	@Override
+	public byte[] decrypt(byte[] data, byte[] key) throws BadPaddingException, InvalidKeyException {
+		return decrypt(data, key, EMPTY_BYTE_ARRAY);
+	}
+	
+	@Override
+	public byte[] encrypt(byte[] data, byte[] key, byte[] associatedData) 
+			throws BadPaddingException, InvalidKeyException {
+		byte[] nonce = new byte[NONCE_LENGTH];
+		RANDOM.nextBytes(nonce);
+		return seal(newCipher(), toKey(key), nonce, data, associatedData);
+	}
+	
+	@Override
+	public byte[] decrypt(byte[] data, byte[] key, byte[] associatedData) 
+			throws BadPaddingException, InvalidKeyException {
+		return open(newCipher(), toKey(key), data, associatedData);
+	}
+	
+	@Override
+	public int encrypt(byte[] data, int offset, int length, byte[] key, byte[] output, int outputOffset) 
+			throws BadPaddingException, InvalidKeyException {
+		byte[] nonce = new byte[NONCE_LENGTH];
+		RANDOM.nextBytes(nonce);
+		return seal(newCipher(), toKey(key), nonce, data, offset, length, EMPTY_BYTE_ARRAY, 0, 0, output, outputOffset);
+	}
+	
+	@Override
+	public int decrypt(byte[] data, int offset, int length, byte[] key, byte[] output, int outputOffset) 
+			throws BadPaddingException, InvalidKeyException {
+		return open(newCipher(), toKey(key), data, offset, length, EMPTY_BYTE_ARRAY, 0, 0, output, outputOffset);
+	}
+	
+	@Override
+	public int encrypt(ByteBuffer data, byte[] key, ByteBuffer output) throws BadPaddingException, InvalidKeyException {
+		byte[] nonce = new byte[NONCE_LENGTH];
+		RANDOM.nextBytes(nonce);
+		return seal(newCipher(), toKey(key), nonce, data, output);
+	}
+	
+	@Override
+	public int decrypt(ByteBuffer data, byte[] key, ByteBuffer output) throws BadPaddingException, InvalidKeyException {
+		return open(newCipher(), toKey(key), data, output);
+	}
+	
+	@Override
+	public int getEncryptedSize(int dataLength, byte[] key) {
+		return dataLength + OVERHEAD;
+	}
+	
+	@Override
+	public int getDecryptedSize(int encryptedLength, byte[] key) {
+		return Math.max(encryptedLength - OVERHEAD, 0);
+	}
+	
+	@Override
+	public AuthenticatedSession createSession(byte[] key) throws InvalidKeyException {
+		return new NonceSession(toKey(key));
+	}
+	
+	private SecretKey toKey(byte[] key) {
+		return new SecretKeySpec(key, keyAlgorithm);
+	}
+	
+	private Cipher newCipher() throws InvalidKeyException {
+		try {
+			return Cipher.getInstance(cipherAlgorithm);
+		} catch (NoSuchAlgorithmException | NoSuchPaddingException ex) {
+			throw new InvalidKeyException(ex.getMessage());
+		}
+	}
+	
+	private byte[] seal(Cipher cipher, SecretKey key, byte[] nonce, byte[] data, byte[] associatedData) 
+			throws BadPaddingException, InvalidKeyException {
+		byte[] sealed = new byte[data.length + OVERHEAD];
+		seal(cipher, key, nonce, data, 0, data.length, associatedData, 0, associatedData.length, sealed, 0);
+		return sealed;
+	}
+	
+	private int seal(
+			Cipher cipher, SecretKey key, byte[] nonce, 
+			byte[] data, int offset, int length, 
+			byte[] associatedData, int adOffset, int adLength, 
+			byte[] output, int outputOffset) throws BadPaddingException, InvalidKeyException {
+		if(outputOffset < 0 || output.length - outputOffset < length + OVERHEAD) {
+			throw new BadPaddingException("Output is too short");
+		}
+		try {
+			cipher.init(Cipher.ENCRYPT_MODE, key, toParameter(nonce, 0));
+			cipher.updateAAD(associatedData, adOffset, adLength);
+			System.arraycopy(nonce, 0, output, outputOffset, NONCE_LENGTH);
+			return NONCE_LENGTH + cipher.doFinal(data, offset, length, output, outputOffset + NONCE_LENGTH);
+		} catch (InvalidAlgorithmParameterException ex) {
+			throw new InvalidKeyException(ex.getMessage());
+		} catch (IllegalBlockSizeException | ShortBufferException ex) {
+			throw new BadPaddingException(ex.getMessage());
+		}
+	}
+	
+	private int seal(Cipher cipher, SecretKey key, byte[] nonce, ByteBuffer data, ByteBuffer output) 
+			throws BadPaddingException, InvalidKeyException {
+		if(output.remaining() < data.remaining() + OVERHEAD) {
+			throw new BadPaddingException("Output is too short");
+		}
+		try {
+			cipher.init(Cipher.ENCRYPT_MODE, key, toParameter(nonce, 0));
+			output.put(nonce);
+			return NONCE_LENGTH + cipher.doFinal(data, output);
+		} catch (InvalidAlgorithmParameterException ex) {
+			throw new InvalidKeyException(ex.getMessage());
+		} catch (IllegalBlockSizeException | ShortBufferException ex) {
+			throw new BadPaddingException(ex.getMessage());
+		}
+	}
+	
+	private byte[] open(Cipher cipher, SecretKey key, byte[] data, byte[] associatedData) 
+			throws BadPaddingException, InvalidKeyException {
+		if(data.length < OVERHEAD) {
+			throw new BadPaddingException();
+		}
+		byte[] opened = new byte[data.length - OVERHEAD];
+		open(cipher, key, data, 0, data.length, associatedData, 0, associatedData.length, opened, 0);
+		return opened;
+	}
+	
+	private int open(
+			Cipher cipher, SecretKey key, 
+			byte[] data, int offset, int length, 
+			byte[] associatedData, int adOffset, int adLength, 
+			byte[] output, int outputOffset) throws BadPaddingException, InvalidKeyException {
+		if(length < OVERHEAD) {
+			throw new BadPaddingException();
+		}
+		try {
+			cipher.init(Cipher.DECRYPT_MODE, key, toParameter(data, offset));
+			cipher.updateAAD(associatedData, adOffset, adLength);
+			return cipher.doFinal(data, offset + NONCE_LENGTH, length - NONCE_LENGTH, output, outputOffset);
+		} catch (InvalidAlgorithmParameterException ex) {
+			throw new InvalidKeyException(ex.getMessage());
+		} catch (IllegalBlockSizeException | ShortBufferException ex) {
+			throw new BadPaddingException(ex.getMessage());
+		}
+	}
+	
+	private int open(Cipher cipher, SecretKey key, ByteBuffer data, ByteBuffer output) 
+			throws BadPaddingException, InvalidKeyException {
+		if(data.remaining() < OVERHEAD) {
+			throw new BadPaddingException();
+		}
+		byte[] nonce = new byte[NONCE_LENGTH];
+		data.get(nonce);
+		try {
+			cipher.init(Cipher.DECRYPT_MODE, key, toParameter(nonce, 0));
+			return cipher.doFinal(data, output);
+		} catch (InvalidAlgorithmParameterException ex) {
+			throw new InvalidKeyException(ex.getMessage());
+		} catch (IllegalBlockSizeException | ShortBufferException ex) {
+			throw new BadPaddingException(ex.getMessage());
+		}
+	}
+	
+	/**
+	 * Session that keeps a cipher for each direction, the nonce is counted up on every encryption.<br>
+	 */
+	private final class NonceSession implements AuthenticatedSession {
+		
+		private final SecretKey secretKey;
+		private final Cipher encryptCipher;
+		private final Cipher decryptCipher;
+		
+		private final byte[] nonce = new byte[NONCE_LENGTH];
+		
+		public NonceSession(SecretKey secretKey) throws InvalidKeyException {
+			this.secretKey = secretKey;
+			encryptCipher = newCipher();
+			decryptCipher = newCipher();
+			RANDOM.nextBytes(nonce);
+		}
+		
+		@Override
+		public byte[] encrypt(byte[] data) throws BadPaddingException, InvalidKeyException {
+			return encrypt(data, EMPTY_BYTE_ARRAY);
+		}
+		
+		@Override
+		public byte[] decrypt(byte[] data) throws BadPaddingException, InvalidKeyException {
+			return decrypt(data, EMPTY_BYTE_ARRAY);
+		}
+		
+		@Override
+		public byte[] encrypt(byte[] data, byte[] associatedData) 
+				throws BadPaddingException, InvalidKeyException {
+			synchronized (encryptCipher) {
+				countNonce();
+				return seal(encryptCipher, secretKey, nonce, data, associatedData);
+			}
+		}
+		
+		@Override
+		public int encrypt(byte[] data, int offset, int length, byte[] output, int outputOffset) 
+				throws BadPaddingException, InvalidKeyException {
+			return encrypt(data, offset, length, EMPTY_BYTE_ARRAY, 0, 0, output, outputOffset);
+		}
+		
+		@Override
+		public int decrypt(byte[] data, int offset, int length, byte[] output, int outputOffset) 
+				throws BadPaddingException, InvalidKeyException {
+			return decrypt(data, offset, length, EMPTY_BYTE_ARRAY, 0, 0, output, outputOffset);
+		}
+		
+		@Override
+		public int encrypt(
+				byte[] data, int offset, int length, 
+				byte[] associatedData, int adOffset, int adLength, 
+				byte[] output, int outputOffset) throws BadPaddingException, InvalidKeyException {
+			synchronized (encryptCipher) {
+				countNonce();
+				return seal(
+						encryptCipher, secretKey, nonce, 
+						data, offset, length, 
+						associatedData, adOffset, adLength, 
+						output, outputOffset
+						);
+			}
+		}
+		
+		@Override
+		public int decrypt(
+				byte[] data, int offset, int length, 
+				byte[] associatedData, int adOffset, int adLength, 
+				byte[] output, int outputOffset) throws BadPaddingException, InvalidKeyException {
+			synchronized (decryptCipher) {
+				return open(
+						decryptCipher, secretKey, 
+						data, offset, length, 
+						associatedData, adOffset, adLength, 
+						output, outputOffset
+						);
+			}
+		}
+		
+		@Override
+		public int encrypt(ByteBuffer data, ByteBuffer output) throws BadPaddingException, InvalidKeyException {
+			synchronized (encryptCipher) {
+				countNonce();
+				return seal(encryptCipher, secretKey, nonce, data, output);
+			}
+		}
+		
+		@Override
+		public int decrypt(ByteBuffer data, ByteBuffer output) throws BadPaddingException, InvalidKeyException {
+			synchronized (decryptCipher) {
+				return open(decryptCipher, secretKey, data, output);
+			}
+		}
+		
+		@Override
+		public int getEncryptedSize(int dataLength) {
+			return dataLength + OVERHEAD;
+		}
+		
+		@Override
+		public int getDecryptedSize(int encryptedLength) {
+			return Math.max(encryptedLength - OVERHEAD, 0);
+		}
+		
+		private void countNonce() {
+			for(int i=NONCE_LENGTH-1;i>=0;i--) {
+				if(++nonce[i] != 0) break;
+			}
+		}
+		
+		@Override
+		public byte[] decrypt(byte[] data, byte[] associatedData) 
+				throws BadPaddingException, InvalidKeyException {
+			synchronized (decryptCipher) {
+				return open(decryptCipher, secretKey, data, associatedData);
+			}
+		}
+		
+	}
+	
+}
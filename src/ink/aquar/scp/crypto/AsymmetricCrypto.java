@@ -1,5 +1,9 @@
 package ink.aquar.scp.crypto;
 
+import java.security.InvalidKeyException;
+
+import javax.crypto.BadPaddingException;
+
 /**
  * Asymmetric crypto, which is using different key to encrypt and decrypt, generates 
  * a pair of asymmetric key for corresponding crypto.<br>
@@ -25,6 +29,45 @@ public interface AsymmetricCrypto extends Crypto {
 	
 	public ByteKeyPair generateKeyPair();
 	
+	/**
+	 * To create a decryptor that is bound to the private key, so that the key would not be 
+	 * restored on every decryption.<br>
+	 * <br>
+	 * The default implementation simply passes the key to decrypt(byte[], byte[]) on every call. 
+	 * If the key can not be restored, the decryptor throws InvalidKeyException on decryption.<br>
+	 * 
+	 * @param privateKey The private key
+	 * @return The decryptor
+	 */
+	public default Decryptor createDecryptor(byte[] privateKey) {
+		AsymmetricCrypto crypto = this;
+		byte[] key = privateKey.clone();
+		return new Decryptor() {
+			
+			@Override
+			public byte[] decrypt(byte[] data) throws BadPaddingException, InvalidKeyException {
+				return crypto.decrypt(data, key);
+			}
+			
+		};
+	}
+	
+	/**
+	 * An asymmetric crypto which is bound to a private key.<br>
+	 * 
+	 * @see AsymmetricCrypto#createDecryptor(byte[])
+	 */
+	public static interface Decryptor {
+		
+		/**
+		 * Decrypt data by the bound private key.<br>
+		 * 
+		 * @param data The encrypted data that you want to decrypt
+		 */
+		public byte[] decrypt(byte[] data) throws BadPaddingException, InvalidKeyException;
+		
+	}
+	
 	public final static class ByteKeyPair {
 		public final byte[] publicKey;
 		public final byte[] privateKey;
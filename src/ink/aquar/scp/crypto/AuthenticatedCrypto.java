@@ -0,0 +1,109 @@
+package ink.aquar.scp.crypto;
+
+import java.security.InvalidKeyException;
+
+import javax.crypto.BadPaddingException;
+
+/**
+ * Authenticated symmetric crypto, which verifies the integrity of the data while decrypting, 
+ * so that damaged or forged data would be rejected by throwing BadPaddingException.<br>
+ * <br>
+ * Associated data are authenticated together with the data but not encrypted, they are 
+ * not contained in the encrypted data, and have to be offered again while decrypting.<br>
+ * 
+ * @see SymmetricCrypto
+ * @see Crypto
+ * 
+ * @author Aquarink Studio
+ * @author Kevin Iry
+ * 
+ */
+public interface AuthenticatedCrypto extends SymmetricCrypto {
+	
+	/**
+	 * Encrypt data by the key, and authenticate the associated data.<br>
+	 * 
+	 * @param data The data that you want to encrypt
+	 * @param key The key
+	 * @param associatedData The data that you want to authenticate but not encrypt
+	 */
+	public byte[] encrypt(byte[] data, byte[] key, byte[] associatedData) 
+			throws BadPaddingException, InvalidKeyException;
+	
+	/**
+	 * Decrypt data by the key, and verify the associated data.<br>
+	 * 
+	 * @param data The encrypted data that you want to decrypt
+	 * @param key The key
+	 * @param associatedData The data that were authenticated while encrypting
+	 */
+	public byte[] decrypt(byte[] data, byte[] key, byte[] associatedData) 
+			throws BadPaddingException, InvalidKeyException;
+	
+	@Override
+	public AuthenticatedSession createSession(byte[] key) throws InvalidKeyException;
+	
+	/**
+	 * An authenticated crypto which is bound to a key.<br>
+	 * 
+	 * @see AuthenticatedCrypto#createSession(byte[])
+	 */
+	public static interface AuthenticatedSession extends Session {
+		
+		/**
+		 * Encrypt data by the bound key, and authenticate the associated data.<br>
+		 * 
+		 * @param data The data that you want to encrypt
+		 * @param associatedData The data that you want to authenticate but not encrypt
+		 */
+		public byte[] encrypt(byte[] data, byte[] associatedData) 
+				throws BadPaddingException, InvalidKeyException;
+		
+		/**
+		 * Decrypt data by the bound key, and verify the associated data.<br>
+		 * 
+		 * @param data The encrypted data that you want to decrypt
+		 * @param associatedData The data that were authenticated while encrypting
+		 */
+		public byte[] decrypt(byte[] data, byte[] associatedData) 
+				throws BadPaddingException, InvalidKeyException;
+		
+		/**
+		 * Encrypt data[offset] to data[offset + length - 1] by the bound key into output, and 
+		 * authenticate associatedData[adOffset] to associatedData[adOffset + adLength - 1].<br>
+		 * 
+		 * @return How many bytes are written
+		 * @throws BadPaddingException If the output is too short
+		 */
+		public default int encrypt(
+				byte[] data, int offset, int length, 
+				byte[] associatedData, int adOffset, int adLength, 
+				byte[] output, int outputOffset) throws BadPaddingException, InvalidKeyException {
+			byte[] encrypted = encrypt(
+					CryptoBuffers.copyOf(data, offset, length), 
+					CryptoBuffers.copyOf(associatedData, adOffset, adLength)
+					);
+			return CryptoBuffers.copyOut(encrypted, output, outputOffset);
+		}
+		
+		/**
+		 * Decrypt data[offset] to data[offset + length - 1] by the bound key into output, and 
+		 * verify associatedData[adOffset] to associatedData[adOffset + adLength - 1].<br>
+		 * 
+		 * @return How many bytes are written
+		 * @throws BadPaddingException If the data is broken, or the output is too short
+		 */
+		public default int decrypt(
+				byte[] data, int offset, int length, 
+				byte[] associatedData, int adOffset, int adLength, 
+				byte[] output, int outputOffset) throws BadPaddingException, InvalidKeyException {
+			byte[] decrypted = decrypt(
+					CryptoBuffers.copyOf(data, offset, length), 
+					CryptoBuffers.copyOf(associatedData, adOffset, adLength)
+					);
+			return CryptoBuffers.copyOut(decrypted, output, outputOffset);
+		}
+		
+	}
+	
+}
@@ -0,0 +1,43 @@
+package ink.aquar.scp.crypto;
+
+import java.security.spec.AlgorithmParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+
+/**
+ * An implementation of ChaCha20-Poly1305 AuthenticatedCrypto by using java provided security 
+ * implementations, which are provided since java 11.<br>
+ * <br>
+ * It does not rely on AES instructions of the processor, thus it usually runs faster than 
+ * AES GCM on hosts that lack of them.<br>
+ * 
+ * @see AbstractAuthenticatedCrypto
+ * @see AuthenticatedCrypto
+ * 
+ * @author Aquarink Studio
+ * @author Kevin Iry
+ * 
+ */
+public class ChaCha20Poly1305Crypto extends AbstractAuthenticatedCrypto {
+	
+	private final static String KEY_ALGORITHM = "ChaCha20";
+	private final static String CIPHER_ALGORITHM = "ChaCha20-Poly1305";
+	
+	public final static int KEY_LENGTH = 32;
+	
+	public ChaCha20Poly1305Crypto() {
+		super(KEY_ALGORITHM, CIPHER_ALGORITHM);
+	}
+	
+	@Override
+	protected AlgorithmParameterSpec toParameter(byte[] nonce, int offset) {
+		return new IvParameterSpec(nonce, offset, NONCE_LENGTH);
+	}
+	
+	@Override
+	public byte[] generateKey() {
+		byte[] key = new byte[KEY_LENGTH];
+		RANDOM.nextBytes(key);
+		return key;
+	}
+	
+}
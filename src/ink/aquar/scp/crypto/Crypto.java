@@ -1,5 +1,6 @@
 package ink.aquar.scp.crypto;
 
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 
 import javax.crypto.BadPaddingException;
@@ -10,6 +11,10 @@ import javax.crypto.BadPaddingException;
  * <br>
  * <h1>P.S. You should use algorithms that are proved safe, do NOT create your own crypto 
  * algorithm unless you are a cryptography professor.</h1><br>
+ * <br>
+ * Besides whole arrays, data can be encrypted and decrypted from a range of an array or a 
+ * ByteBuffer into another, so that no intermediate array is needed to form a packet. Default 
+ * implementations of them copy the data, crypto implementations should override them.<br>
  * 
  * @author Aquarink Studio
  * @author Kevin Iry
@@ -32,5 +37,95 @@ public interface Crypto {
 	 * @param key The key
 	 */
 	public byte[] decrypt(byte[] data, byte[] key) throws BadPaddingException, InvalidKeyException;
+	
+	/**
+	 * Encrypt data[offset] to data[offset + length - 1] by the key into output.<br>
+	 * 
+	 * @param data The array that contains the data that you want to encrypt
+	 * @param offset The index that the data starts from
+	 * @param length The length of the data
+	 * @param key The key
+	 * @param output The array that the encrypted data is written into, from outputOffset 
+	 * there should be getEncryptedSize(length, key) bytes
+	 * @param outputOffset The index that the encrypted data is written from
+	 * @return How many bytes are written
+	 * @throws BadPaddingException If the output is too short
+	 */
+	public default int encrypt(byte[] data, int offset, int length, byte[] key, byte[] output, int outputOffset) 
+			throws BadPaddingException, InvalidKeyException {
+		return CryptoBuffers.copyOut(encrypt(CryptoBuffers.copyOf(data, offset, length), key), output, outputOffset);
+	}
+	
+	/**
+	 * Decrypt data[offset] to data[offset + length - 1] by the key into output.<br>
+	 * 
+	 * @param data The array that contains the encrypted data that you want to decrypt
+	 * @param offset The index that the encrypted data starts from
+	 * @param length The length of the encrypted data
+	 * @param key The key
+	 * @param output The array that the data is written into, from outputOffset there 
+	 * should be getDecryptedSize(length, key) bytes
+	 * @param outputOffset The index that the data is written from
+	 * @return How many bytes are written
+	 * @throws BadPaddingException If the output is too short
+	 */
+	public default int decrypt(byte[] data, int offset, int length, byte[] key, byte[] output, int outputOffset) 
+			throws BadPaddingException, InvalidKeyException {
+		return CryptoBuffers.copyOut(decrypt(CryptoBuffers.copyOf(data, offset, length), key), output, outputOffset);
+	}
+	
+	/**
+	 * Encrypt remaining bytes of data by the key into output, which can be heap or direct buffers. 
+	 * Position of data is moved to its limit, and position of output is moved over the written bytes.<br>
+	 * 
+	 * @param data The data that you want to encrypt
+	 * @param key The key
+	 * @param output The buffer that the encrypted data is written into
+	 * @return How many bytes are written
+	 * @throws BadPaddingException If the output is too short
+	 */
+	public default int encrypt(ByteBuffer data, byte[] key, ByteBuffer output) 
+			throws BadPaddingException, InvalidKeyException {
+		return CryptoBuffers.putOut(encrypt(CryptoBuffers.peek(data), key), data, output);
+	}
+	
+	/**
+	 * Decrypt remaining bytes of data by the key into output, which can be heap or direct buffers. 
+	 * Position of data is moved to its limit, and position of output is moved over the written bytes.<br>
+	 * 
+	 * @param data The encrypted data that you want to decrypt
+	 * @param key The key
+	 * @param output The buffer that the data is written into
+	 * @return How many bytes are written
+	 * @throws BadPaddingException If the output is too short
+	 */
+	public default int decrypt(ByteBuffer data, byte[] key, ByteBuffer output) 
+			throws BadPaddingException, InvalidKeyException {
+		return CryptoBuffers.putOut(decrypt(CryptoBuffers.peek(data), key), data, output);
+	}
+	
+	/**
+	 * Length of the encrypted data of dataLength bytes by the key.<br>
+	 * <br>
+	 * The default implementation encrypts as many zeros to see.<br>
+	 * 
+	 * @param dataLength Length of the data
+	 * @param key The key
+	 */
+	public default int getEncryptedSize(int dataLength, byte[] key) throws BadPaddingException, InvalidKeyException {
+		return encrypt(new byte[dataLength], key).length;
+	}
+	
+	/**
+	 * The most length of the data that is decrypted from encryptedLength bytes by the key.<br>
+	 * <br>
+	 * The default implementation assumes that data is not longer than the encrypted data.<br>
+	 * 
+	 * @param encryptedLength Length of the encrypted data
+	 * @param key The key
+	 */
+	public default int getDecryptedSize(int encryptedLength, byte[] key) throws InvalidKeyException {
+		return encryptedLength;
+	}
 
 }
@@ -0,0 +1,54 @@
+package ink.aquar.scp.crypto;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.crypto.BadPaddingException;
+
+/**
+ * Copies between whole arrays and ranges or buffers, for default implementations of 
+ * range and buffer methods of Crypto.<br>
+ * 
+ * @author Aquarink Studio
+ * @author Kevin Iry
+ * 
+ */
+final class CryptoBuffers {
+	
+	private CryptoBuffers() {}
+	
+	static byte[] copyOf(byte[] data, int offset, int length) {
+		if(offset == 0 && length == data.length) return data;
+		return Arrays.copyOfRange(data, offset, offset + length);
+	}
+	
+	static int copyOut(byte[] result, byte[] output, int outputOffset) throws BadPaddingException {
+		if(outputOffset < 0 || output.length - outputOffset < result.length) {
+			throw new BadPaddingException("Output is too short");
+		}
+		System.arraycopy(result, 0, output, outputOffset, result.length);
+		return result.length;
+	}
+	
+	/**
+	 * Read remaining bytes of data without moving its position.<br>
+	 */
+	static byte[] peek(ByteBuffer data) {
+		byte[] bytes = new byte[data.remaining()];
+		data.duplicate().get(bytes);
+		return bytes;
+	}
+	
+	/**
+	 * Put result into output, and consume data, as Cipher does.<br>
+	 */
+	static int putOut(byte[] result, ByteBuffer data, ByteBuffer output) throws BadPaddingException {
+		if(output.remaining() < result.length) {
+			throw new BadPaddingException("Output is too short");
+		}
+		output.put(result);
+		data.position(data.limit());
+		return result.length;
+	}
+	
+}
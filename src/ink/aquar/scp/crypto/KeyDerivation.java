@@ -0,0 +1,81 @@
+package ink.aquar.scp.crypto;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * HMAC-SHA256 and HKDF-SHA256 (RFC 5869), which derive keys from a secret, for example 
+ * content keys of key agreement, or session keys of a resumed session.<br>
+ * 
+ * @author Aquarink Studio
+ * @author Kevin Iry
+ *
+ */
+public final class KeyDerivation {
+	
+	private final static String MAC_ALGORITHM = "HmacSHA256";
+	
+	public final static int HASH_LENGTH = 32;
+	
+	private final static byte[] EMPTY_SALT = new byte[HASH_LENGTH];
+	
+	private KeyDerivation() {}
+	
+	/**
+	 * HMAC-SHA256 of the concatenation of data.<br>
+	 * 
+	 * @param key The key of HMAC
+	 * @param data The data to authenticate
+	 * @return 32 bytes HMAC
+	 */
+	public static byte[] hmac(byte[] key, byte[]... data) throws InvalidKeyException {
+		Mac mac = createMac(key.length == 0 ? EMPTY_SALT : key);
+		for(byte[] part : data) {
+			mac.update(part);
+		}
+		return mac.doFinal();
+	}
+	
+	/**
+	 * HKDF-SHA256, extract a pseudo random key from the secret and salt, then expand it to length.<br>
+	 * 
+	 * @param secret The input key material
+	 * @param salt The salt, empty or null for no salt
+	 * @param info The context of the derived key
+	 * @param length Length of the derived key, no more than 8160
+	 * @return The derived key
+	 */
+	public static byte[] derive(byte[] secret, byte[] salt, byte[] info, int length) throws InvalidKeyException {
+		if(length <= 0 || length > 255 * HASH_LENGTH) throw new IllegalArgumentException("Bad length of derived key: " + length);
+		
+		byte[] pseudoRandomKey = hmac(salt == null ? EMPTY_SALT : salt, secret);
+		
+		Mac mac = createMac(pseudoRandomKey);
+		byte[] key = new byte[length];
+		byte[] block = {};
+		for(int offset = 0, counter = 1; offset < length; counter++) {
+			mac.update(block);
+			mac.update(info);
+			mac.update((byte) counter);
+			block = mac.doFinal();
+			int blockLength = Math.min(HASH_LENGTH, length - offset);
+			System.arraycopy(block, 0, key, offset, blockLength);
+			offset += blockLength;
+		}
+		return key;
+	}
+	
+	private static Mac createMac(byte[] key) throws InvalidKeyException {
+		try {
+			Mac mac = Mac.getInstance(MAC_ALGORITHM);
+			mac.init(new SecretKeySpec(key, MAC_ALGORITHM));
+			return mac;
+		} catch (NoSuchAlgorithmException | IllegalArgumentException ex) {
+			throw new InvalidKeyException(ex.getMessage());
+		}
+	}
+
+}
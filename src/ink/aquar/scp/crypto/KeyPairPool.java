@@ -0,0 +1,105 @@
+package ink.aquar.scp.crypto;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import ink.aquar.scp.crypto.AsymmetricCrypto.ByteKeyPair;
+
+/**
+ * A KeyPairProvider that provides a different key pair every time, which are pre-generated 
+ * on a background thread, for deployments that rotate keys, for example one key pair per listener.<br>
+ * <br>
+ * The pool refills itself up to its size after every take. If it is drained, the key pair is 
+ * generated on the caller's thread.<br>
+ * 
+ * @see KeyPairProvider
+ * 
+ * @author Aquarink Studio
+ * @author Kevin Iry
+ * 
+ */
+public class KeyPairPool implements KeyPairProvider {
+	
+	private final AsymmetricCrypto crypto;
+	private final BlockingQueue<ByteKeyPair> pool;
+	
+	private final Lock runningLock = new ReentrantLock();
+	private boolean isRunning;
+	
+	/**
+	 * Create a KeyPairPool, which starts generating key pairs in background immediately.<br>
+	 * 
+	 * @param crypto The crypto that generates key pairs
+	 * @param size How many key pairs to keep ready, at least 1
+	 */
+	public KeyPairPool(AsymmetricCrypto crypto, int size) {
+		if(size < 1) throw new IllegalArgumentException("Size of pool should be at least 1");
+		this.crypto = crypto;
+		pool = new ArrayBlockingQueue<>(size);
+		refill();
+	}
+	
+	@Override
+	public ByteKeyPair get() {
+		ByteKeyPair keyPair = pool.poll();
+		refill();
+		return keyPair != null ? keyPair : crypto.generateKeyPair();
+	}
+	
+	/**
+	 * @return How many key pairs are ready
+	 */
+	public int available() {
+		return pool.size();
+	}
+	
+	private void refill() {
+		runningLock.lock();
+		if(isRunning || pool.remainingCapacity() == 0) {
+			runningLock.unlock();
+			return;
+		} else {
+			isRunning = true;
+			runningLock.unlock();
+		}
+		
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for(;;) {
+					runningLock.lock();
+					if(pool.remainingCapacity() == 0) {
+						isRunning = false;
+						runningLock.unlock();
+						return;
+					} else {
+						runningLock.unlock();
+					}
+					
+					ByteKeyPair keyPair;
+					try {
+						keyPair = crypto.generateKeyPair();
+					} catch (RuntimeException ex) {
+						System.err.println(
+								"Unhandled exception occured on key pair generation"
+								);
+						ex.printStackTrace();
+						keyPair = null;
+					}
+					if(keyPair == null) { // Crypto is not available, get() falls back to the caller's thread.
+						runningLock.lock();
+						isRunning = false;
+						runningLock.unlock();
+						return;
+					}
+					pool.offer(keyPair);
+				}
+			}
+		}, "KeyPairPool");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+}
@@ -0,0 +1,25 @@
+package ink.aquar.scp.crypto;
+
+import ink.aquar.scp.crypto.AsymmetricCrypto.ByteKeyPair;
+
+/**
+ * Provider of asymmetric key pairs, so that a key pair can be generated, loaded or taken 
+ * from a pool only when it is needed.<br>
+ * 
+ * @see LazyKeyPair
+ * @see KeyPairPool
+ * 
+ * @author Aquarink Studio
+ * @author Kevin Iry
+ * 
+ */
+public interface KeyPairProvider {
+	
+	/**
+	 * To get a key pair.<br>
+	 * 
+	 * @return The key pair
+	 */
+	public ByteKeyPair get();
+	
+}
@@ -0,0 +1,137 @@
+package ink.aquar.scp.crypto;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import ink.aquar.scp.crypto.AsymmetricCrypto.ByteKeyPair;
+
+/**
+ * A KeyPairProvider that provides the same key pair every time, which is generated on first use, 
+ * or loaded from a key file.<br>
+ * <br>
+ * If a key file is set but does not exist, the generated key pair is saved into it, thus the 
+ * process would not generate key pair again on next start. The file is readable only by its owner, 
+ * if the file system supports.<br>
+ * 
+ * @see KeyPairProvider
+ * 
+ * @author Aquarink Studio
+ * @author Kevin Iry
+ * 
+ */
+public class LazyKeyPair implements KeyPairProvider {
+	
+	private final AsymmetricCrypto crypto;
+	private final File keyFile;
+	
+	private ByteKeyPair keyPair;
+	
+	/**
+	 * Create a LazyKeyPair that generates the key pair on first use.<br>
+	 * 
+	 * @param crypto The crypto that generates the key pair
+	 */
+	public LazyKeyPair(AsymmetricCrypto crypto) {
+		this(crypto, null);
+	}
+	
+	/**
+	 * Create a LazyKeyPair that loads the key pair from a key file on first use.<br>
+	 * 
+	 * @param crypto The crypto that generates the key pair if the file does not exist
+	 * @param keyFile The key file, or null to generate on first use only
+	 */
+	public LazyKeyPair(AsymmetricCrypto crypto, File keyFile) {
+		this.crypto = crypto;
+		this.keyFile = keyFile;
+	}
+	
+	@Override
+	public synchronized ByteKeyPair get() {
+		if(keyPair != null) return keyPair;
+		
+		if(keyFile != null && keyFile.exists()) {
+			try {
+				keyPair = load(keyFile);
+				return keyPair;
+			} catch (IOException ex) {
+				System.err.println("Unable to load key pair from \"" + keyFile + "\", generating a temporary one");
+				ex.printStackTrace();
+				keyPair = crypto.generateKeyPair();
+				return keyPair;
+			}
+		}
+		
+		keyPair = crypto.generateKeyPair();
+		if(keyFile != null) {
+			try {
+				save(keyFile, keyPair);
+			} catch (IOException ex) {
+				System.err.println("Unable to save key pair into \"" + keyFile + "\"");
+				ex.printStackTrace();
+			}
+		}
+		return keyPair;
+	}
+	
+	/*
+	 * Form
+	 * | PUBLIC KEY LENGTH | PUBLIC KEY | PRIVATE KEY LENGTH | PRIVATE KEY |
+	 *          4B                                4B
+	 */
+	
+	/**
+	 * Load a key pair from a key file.<br>
+	 * 
+	 * @param keyFile The key file
+	 * @return The key pair
+	 */
+	public static ByteKeyPair load(File keyFile) throws IOException {
+		try (DataInputStream input = new DataInputStream(new FileInputStream(keyFile))) {
+			byte[] publicKey = readKey(input);
+			byte[] privateKey = readKey(input);
+			return new ByteKeyPair(publicKey, privateKey);
+		}
+	}
+	
+	/**
+	 * Save a key pair into a key file, which is readable only by its owner.<br>
+	 * 
+	 * @param keyFile The key file
+	 * @param keyPair The key pair
+	 */
+	public static void save(File keyFile, ByteKeyPair keyPair) throws IOException {
+		Path directory = keyFile.getAbsoluteFile().getParentFile().toPath();
+		Path temporaryFile = Files.createTempFile(directory, "scp-key", ".tmp"); // Owner only on POSIX.
+		try {
+			try (DataOutputStream output = new DataOutputStream(Files.newOutputStream(temporaryFile))) {
+				output.writeInt(keyPair.publicKey.length);
+				output.write(keyPair.publicKey);
+				output.writeInt(keyPair.privateKey.length);
+				output.write(keyPair.privateKey);
+			}
+			Files.move(temporaryFile, keyFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporaryFile);
+		}
+	}
+	
+	private final static int MAX_KEY_LENGTH = 65536;
+	
+	private static byte[] readKey(DataInputStream input) throws IOException {
+		int length = input.readInt();
+		if(length <= 0 || length > MAX_KEY_LENGTH) {
+			throw new IOException("Bad key length " + length);
+		}
+		byte[] key = new byte[length];
+		input.readFully(key);
+		return key;
+	}
+	
+}
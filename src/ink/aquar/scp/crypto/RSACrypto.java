@@ -1,26 +1,45 @@
 package ink.aquar.scp.crypto;
 
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
+import java.security.Key;
 import java.security.KeyFactory;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.security.interfaces.RSAKey;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
 
 /**
  * An implementation of RSA AsymmetricCrypto by using java provided security implementations.<br>
+ * <br>
+ * Restored keys are kept in a bounded cache of least recently used keys, so that a key that is 
+ * used again and again, like the private key of an acceptor, is only restored once.<br>
+ * <br>
+ * Data is cut into blocks of (key size - 11) bytes, and every block is encrypted into key size 
+ * bytes, straight from and into the given arrays or buffers.<br>
+ * <br>
+ * In hybrid mode, data that does not fit in a block is sealed by AES-GCM with a random content 
+ * key instead, and only the content key is encrypted by RSA, so that one RSA operation is done 
+ * for data of any size.<br>
+ * | RSA ENCRYPTED CONTENT KEY | AES-GCM SEALED DATA |<br>
+ *          key size                  data + 28<br>
+ * Either form is decrypted whatever the mode is. Content key of 16 bytes can not be confused 
+ * with a first block of split data, which is (key size - 11) bytes unless it is the only block.<br>
  * 
  * @see AsymmetricCrypto
  * @see Cryptos
@@ -34,133 +53,441 @@ public class RSACrypto implements AsymmetricCrypto {
 	private final static String KEY_ALGORITHM = "RSA";
 	private final static String CIPHER_ALGORITHM = "RSA/ECB/PKCS1Padding";
 	
-	private final static byte[][] EMPTY_2D_BYTE_ARRAY = new byte[0][];
-	
 	private final static int PUBLIC_KEY_LIMIT_DASH = 11;
 	
-	private final static KeyPairGenerator KEY_PAIR_GENERATOR;
-	static {
-		KeyPairGenerator keyPairGenerator = null;
-		try {
-			keyPairGenerator = KeyPairGenerator.getInstance(KEY_ALGORITHM);
-		} catch (NoSuchAlgorithmException ex) {
-			ex.printStackTrace();
+	private final static int DEFAULT_KEY_CACHE_SIZE = 16;
+	
+	private final static AESGCMCrypto CONTENT_CRYPTO = new AESGCMCrypto();
+	private final static int CONTENT_KEY_LENGTH = 16;
+	
+	private final static class GeneratorHolder { // Set up on first key pair generation, not on class load.
+		private final static KeyPairGenerator KEY_PAIR_GENERATOR;
+		static {
+			KeyPairGenerator keyPairGenerator = null;
+			try {
+				keyPairGenerator = KeyPairGenerator.getInstance(KEY_ALGORITHM);
+			} catch (NoSuchAlgorithmException ex) {
+				ex.printStackTrace();
+			}
+			keyPairGenerator.initialize(2048);
+			KEY_PAIR_GENERATOR = keyPairGenerator;
 		}
-		keyPairGenerator.initialize(2048);
-		KEY_PAIR_GENERATOR = keyPairGenerator;
+	}
+	
+	private final Map<KeyBytes, RSAPublicKey> publicKeyCache;
+	private final Map<KeyBytes, RSAPrivateKey> privateKeyCache;
+	
+	private final boolean hybrid;
+	
+	/**
+	 * Create a RSACrypto that caches 16 restored keys of each type, and splits data into blocks.<br>
+	 */
+	public RSACrypto() {
+		this(DEFAULT_KEY_CACHE_SIZE);
+	}
+	
+	/**
+	 * Create a RSACrypto with a restored key cache, which splits data into blocks.<br>
+	 * 
+	 * @param keyCacheSize How many restored keys of each type to keep, 0 to disable the cache
+	 */
+	public RSACrypto(int keyCacheSize) {
+		this(keyCacheSize, false);
+	}
+	
+	/**
+	 * Create a RSACrypto with a restored key cache.<br>
+	 * 
+	 * @param keyCacheSize How many restored keys of each type to keep, 0 to disable the cache
+	 * @param hybrid Whether data that does not fit in a block is sealed by a content key, 
+	 * the peer should be able to decrypt the hybrid form
+	 */
+	public RSACrypto(int keyCacheSize, boolean hybrid) {
+		publicKeyCache = new KeyCache<>(keyCacheSize);
+		privateKeyCache = new KeyCache<>(keyCacheSize);
+		this.hybrid = hybrid;
+	}
+	
+	/**
+	 * Whether data that does not fit in a block is sealed by a content key.<br>
+	 */
+	public boolean isHybrid() {
+		return hybrid;
 	}
 
 	@Override
 	public byte[] encrypt(byte[] data, byte[] key) throws BadPaddingException, InvalidKeyException { //Public key
-		RSAPublicKey publicKey;
+		return encrypt(data, restorePublicKey(key));
+	}
+	
+	@Override
+	public int encrypt(byte[] data, int offset, int length, byte[] key, byte[] output, int outputOffset) 
+			throws BadPaddingException, InvalidKeyException {
+		return encrypt(data, offset, length, restorePublicKey(key), output, outputOffset);
+	}
+	
+	@Override
+	public int encrypt(ByteBuffer data, byte[] key, ByteBuffer output) throws BadPaddingException, InvalidKeyException {
+		return encrypt(data, restorePublicKey(key), output);
+	}
+	
+	@Override
+	public int getEncryptedSize(int dataLength, byte[] key) throws InvalidKeyException {
+		return getEncryptedSize(dataLength, toPublicKey(restorePublicKey(key)));
+	}
+	
+	/**
+	 * Encrypt data by a restored public key.<br>
+	 * 
+	 * @param data The data that you want to encrypt
+	 * @param key The public key
+	 */
+	public byte[] encrypt(byte[] data, PublicKey key) throws BadPaddingException, InvalidKeyException {
+		byte[] encrypted = new byte[getEncryptedSize(data.length, toPublicKey(key))];
+		encrypt(data, 0, data.length, key, encrypted, 0);
+		return encrypted;
+	}
+	
+	/**
+	 * Encrypt data[offset] to data[offset + length - 1] by a restored public key into output.<br>
+	 * 
+	 * @see Crypto#encrypt(byte[], int, int, byte[], byte[], int)
+	 */
+	public int encrypt(byte[] data, int offset, int length, PublicKey key, byte[] output, int outputOffset) 
+			throws BadPaddingException, InvalidKeyException {
+		RSAPublicKey publicKey = toPublicKey(key);
+		int blockLength = blockLength(publicKey) - PUBLIC_KEY_LIMIT_DASH;
+		Cipher cipher = initCipher(Cipher.ENCRYPT_MODE, publicKey);
+		int pointer = 0;
+		int written = 0;
 		try {
-			publicKey = (RSAPublicKey) restorePublicKey(key);
-		} catch (InvalidKeySpecException ex) {
-			throw new InvalidKeyException(ex.getMessage());
+			if(hybrid && length > blockLength) {
+				byte[] contentKey = CONTENT_CRYPTO.generateKey();
+				written = cipher.doFinal(contentKey, 0, contentKey.length, output, outputOffset);
+				return written + CONTENT_CRYPTO.encrypt(data, offset, length, contentKey, output, outputOffset + written);
+			}
+			do {
+				int len = Math.min(blockLength, length - pointer);
+				written += cipher.doFinal(data, offset + pointer, len, output, outputOffset + written);
+				pointer += len;
+			} while(pointer < length);
+		} catch (IllegalBlockSizeException | ShortBufferException ex) {
+			throw new BadPaddingException(ex.getMessage());
 		}
-		int keyLen = publicKey.getModulus().bitLength();
-		byte[][] marshalling = split(data, keyLen / 8 - PUBLIC_KEY_LIMIT_DASH);
+		return written;
+	}
+	
+	/**
+	 * Encrypt remaining bytes of data by a restored public key into output.<br>
+	 * 
+	 * @see Crypto#encrypt(ByteBuffer, byte[], ByteBuffer)
+	 */
+	public int encrypt(ByteBuffer data, PublicKey key, ByteBuffer output) throws BadPaddingException, InvalidKeyException {
+		RSAPublicKey publicKey = toPublicKey(key);
+		int blockLength = blockLength(publicKey) - PUBLIC_KEY_LIMIT_DASH;
+		Cipher cipher = initCipher(Cipher.ENCRYPT_MODE, publicKey);
+		int written = 0;
 		try {
-			Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
-			cipher.init(Cipher.ENCRYPT_MODE, publicKey);
-			for(int i=0;i<marshalling.length;i++){
-				marshalling[i] = cipher.doFinal(marshalling[i]);
+			if(hybrid && data.remaining() > blockLength) {
+				byte[] contentKey = CONTENT_CRYPTO.generateKey();
+				written = cipher.doFinal(ByteBuffer.wrap(contentKey), output);
+				return written + CONTENT_CRYPTO.encrypt(data, contentKey, output);
 			}
-			return organize(marshalling);
-		} catch (NoSuchAlgorithmException | NoSuchPaddingException | IllegalBlockSizeException ex) {
-			ex.printStackTrace();
+			do {
+				ByteBuffer block = data.duplicate();
+				block.limit(block.position() + Math.min(blockLength, block.remaining()));
+				written += cipher.doFinal(block, output);
+				data.position(block.position());
+			} while(data.hasRemaining());
+		} catch (IllegalBlockSizeException | ShortBufferException ex) {
+			throw new BadPaddingException(ex.getMessage());
 		}
-		return null;
+		return written;
 	}
 
 	@Override
 	public byte[] decrypt(byte[] data, byte[] key) throws InvalidKeyException, BadPaddingException {
-		RSAPrivateKey privateKey;
+		return decrypt(data, restorePrivateKey(key));
+	}
+	
+	@Override
+	public int decrypt(byte[] data, int offset, int length, byte[] key, byte[] output, int outputOffset) 
+			throws BadPaddingException, InvalidKeyException {
+		return decrypt(data, offset, length, restorePrivateKey(key), output, outputOffset);
+	}
+	
+	@Override
+	public int decrypt(ByteBuffer data, byte[] key, ByteBuffer output) throws BadPaddingException, InvalidKeyException {
+		return decrypt(data, restorePrivateKey(key), output);
+	}
+	
+	@Override
+	public int getDecryptedSize(int encryptedLength, byte[] key) throws InvalidKeyException {
+		return getDecryptedSize(encryptedLength, toPrivateKey(restorePrivateKey(key)));
+	}
+	
+	/**
+	 * Decrypt data by a restored private key.<br>
+	 * 
+	 * @param data The encrypted data that you want to decrypt
+	 * @param key The private key
+	 */
+	public byte[] decrypt(byte[] data, PrivateKey key) throws InvalidKeyException, BadPaddingException {
+		byte[] decrypted = new byte[getDecryptedSize(data.length, toPrivateKey(key))];
+		int length = decrypt(data, 0, data.length, key, decrypted, 0);
+		return length == decrypted.length ? decrypted : Arrays.copyOf(decrypted, length);
+	}
+	
+	/**
+	 * Decrypt data[offset] to data[offset + length - 1] by a restored private key into output.<br>
+	 * 
+	 * @see Crypto#decrypt(byte[], int, int, byte[], byte[], int)
+	 */
+	public int decrypt(byte[] data, int offset, int length, PrivateKey key, byte[] output, int outputOffset) 
+			throws BadPaddingException, InvalidKeyException {
+		RSAPrivateKey privateKey = toPrivateKey(key);
+		int blockLength = blockLength(privateKey);
+		Cipher cipher = initCipher(Cipher.DECRYPT_MODE, privateKey);
+		int pointer = 0;
+		int written = 0;
 		try {
-			privateKey = (RSAPrivateKey) restorePrivateKey(key);
-		} catch (InvalidKeySpecException ex) {
-			throw new InvalidKeyException(ex.getMessage());
+			byte[] first = cipher.doFinal(data, offset, Math.min(blockLength, length));
+			if(isContentKey(first, length, blockLength)) {
+				return CONTENT_CRYPTO.decrypt(data, offset + blockLength, length - blockLength, first, output, outputOffset);
+			}
+			written = copyOut(first, output, outputOffset);
+			pointer = Math.min(blockLength, length);
+			while(pointer < length) {
+				int len = Math.min(blockLength, length - pointer);
+				// Cipher wants room for a whole block even the padding is stripped, so each block is copied out.
+				written += copyOut(cipher.doFinal(data, offset + pointer, len), output, outputOffset + written);
+				pointer += len;
+			}
+		} catch (IllegalBlockSizeException ex) {
+			throw new BadPaddingException(ex.getMessage());
 		}
-		int keyLen = privateKey.getModulus().bitLength();
-		byte[][] marshalling = split(data, keyLen / 8);
+		return written;
+	}
+	
+	/**
+	 * Decrypt remaining bytes of data by a restored private key into output.<br>
+	 * 
+	 * @see Crypto#decrypt(ByteBuffer, byte[], ByteBuffer)
+	 */
+	public int decrypt(ByteBuffer data, PrivateKey key, ByteBuffer output) throws BadPaddingException, InvalidKeyException {
+		RSAPrivateKey privateKey = toPrivateKey(key);
+		int blockLength = blockLength(privateKey);
+		Cipher cipher = initCipher(Cipher.DECRYPT_MODE, privateKey);
+		byte[] block = new byte[blockLength];
+		int length = data.remaining();
+		int written = 0;
+		try {
+			do {
+				int len = Math.min(blockLength, data.remaining());
+				data.get(block, 0, len);
+				byte[] decrypted = cipher.doFinal(block, 0, len);
+				if(data.remaining() + len == length && isContentKey(decrypted, length, blockLength)) {
+					return CONTENT_CRYPTO.decrypt(data, decrypted, output);
+				}
+				if(output.remaining() < decrypted.length) {
+					throw new BadPaddingException("Output is too short");
+				}
+				output.put(decrypted);
+				written += decrypted.length;
+			} while(data.hasRemaining());
+		} catch (IllegalBlockSizeException ex) {
+			throw new BadPaddingException(ex.getMessage());
+		}
+		return written;
+	}
+	
+	private int getEncryptedSize(int dataLength, RSAPublicKey publicKey) {
+		int blockLength = blockLength(publicKey);
+		if(hybrid && dataLength > blockLength - PUBLIC_KEY_LIMIT_DASH) {
+			return blockLength + CONTENT_CRYPTO.getEncryptedSize(dataLength, null);
+		}
+		return blockCount(dataLength, blockLength - PUBLIC_KEY_LIMIT_DASH) * blockLength;
+	}
+	
+	private static int getDecryptedSize(int encryptedLength, RSAPrivateKey privateKey) {
+		int blockLength = blockLength(privateKey);
+		return Math.max( // Either form.
+				blockCount(encryptedLength, blockLength) * (blockLength - PUBLIC_KEY_LIMIT_DASH), 
+				CONTENT_CRYPTO.getDecryptedSize(encryptedLength - blockLength, null)
+				);
+	}
+	
+	/**
+	 * Whether the first decrypted block is a content key of the hybrid form.<br>
+	 */
+	private static boolean isContentKey(byte[] first, int encryptedLength, int blockLength) {
+		return first.length == CONTENT_KEY_LENGTH && encryptedLength > blockLength;
+	}
+	
+	private static int blockCount(int length, int blockLength) {
+		return length <= blockLength ? 1 : (length + blockLength - 1) / blockLength; // Empty data is still a block.
+	}
+	
+	private static int blockLength(RSAKey key) {
+		return key.getModulus().bitLength() / 8;
+	}
+	
+	private static int copyOut(byte[] block, byte[] output, int outputOffset) throws BadPaddingException {
+		if(output.length - outputOffset < block.length) {
+			throw new BadPaddingException("Output is too short");
+		}
+		System.arraycopy(block, 0, output, outputOffset, block.length);
+		return block.length;
+	}
+	
+	private static RSAPublicKey toPublicKey(PublicKey key) throws InvalidKeyException {
+		if(!(key instanceof RSAPublicKey)) {
+			throw new InvalidKeyException("Not a RSA public key");
+		}
+		return (RSAPublicKey) key;
+	}
+	
+	private static RSAPrivateKey toPrivateKey(PrivateKey key) throws InvalidKeyException {
+		if(!(key instanceof RSAPrivateKey)) {
+			throw new InvalidKeyException("Not a RSA private key");
+		}
+		return (RSAPrivateKey) key;
+	}
+	
+	private static Cipher initCipher(int mode, Key key) throws InvalidKeyException {
 		try {
 			Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
-			cipher.init(Cipher.DECRYPT_MODE, privateKey);
-			for(int i=0;i<marshalling.length;i++){
-				marshalling[i] = cipher.doFinal(marshalling[i]);
-			}
-			return organize(marshalling);
-		} catch (NoSuchAlgorithmException | NoSuchPaddingException | IllegalBlockSizeException ex) {
-			ex.printStackTrace();
+			cipher.init(mode, key);
+			return cipher;
+		} catch (NoSuchAlgorithmException | NoSuchPaddingException ex) {
+			throw new InvalidKeyException(ex.getMessage());
 		}
-		return null;
 	}
 	
-	private static PublicKey restorePublicKey(byte[] keyBytes) throws InvalidKeySpecException {
-		X509EncodedKeySpec x509EncodedKeySpec = new X509EncodedKeySpec(keyBytes);
+	@Override
+	public Decryptor createDecryptor(byte[] privateKey) {
+		RSAPrivateKey key;
+		try {
+			key = restorePrivateKey(privateKey);
+		} catch (InvalidKeyException ex) {
+			return AsymmetricCrypto.super.createDecryptor(privateKey);
+		}
+		return new Decryptor() {
+			
+			@Override
+			public byte[] decrypt(byte[] data) throws BadPaddingException, InvalidKeyException {
+				return RSACrypto.this.decrypt(data, key);
+			}
+			
+		};
+	}
+	
+	/**
+	 * Restore a X509 encoded public key, or get it from the cache.<br>
+	 * 
+	 * @param keyBytes The encoded key
+	 * @return The public key
+	 */
+	public RSAPublicKey restorePublicKey(byte[] keyBytes) throws InvalidKeyException {
+		KeyBytes cacheKey = new KeyBytes(keyBytes);
+		RSAPublicKey publicKey;
+		synchronized (publicKeyCache) {
+			publicKey = publicKeyCache.get(cacheKey);
+		}
+		if(publicKey != null) return publicKey;
 		
+		X509EncodedKeySpec x509EncodedKeySpec = new X509EncodedKeySpec(keyBytes);
 		try {
 			KeyFactory factory = KeyFactory.getInstance(KEY_ALGORITHM);
-			PublicKey publicKey = factory.generatePublic(x509EncodedKeySpec);
-			return publicKey;
-		} catch (NoSuchAlgorithmException ex) {
-			ex.printStackTrace();
+			publicKey = (RSAPublicKey) factory.generatePublic(x509EncodedKeySpec);
+		} catch (NoSuchAlgorithmException | InvalidKeySpecException | ClassCastException ex) {
+			throw new InvalidKeyException(ex.getMessage());
+		}
+		
+		synchronized (publicKeyCache) {
+			publicKeyCache.put(cacheKey.copy(), publicKey);
 		}
-		return null;
+		return publicKey;
 	}
 	
-	private static PrivateKey restorePrivateKey(byte[] keyBytes) throws InvalidKeySpecException {
+	/**
+	 * Restore a PKCS8 encoded private key, or get it from the cache.<br>
+	 * 
+	 * @param keyBytes The encoded key
+	 * @return The private key
+	 */
+	public RSAPrivateKey restorePrivateKey(byte[] keyBytes) throws InvalidKeyException {
+		KeyBytes cacheKey = new KeyBytes(keyBytes);
+		RSAPrivateKey privateKey;
+		synchronized (privateKeyCache) {
+			privateKey = privateKeyCache.get(cacheKey);
+		}
+		if(privateKey != null) return privateKey;
+		
 		PKCS8EncodedKeySpec pkcs8EncodedKeySpec = new PKCS8EncodedKeySpec(keyBytes);
 		try {
 			KeyFactory factory = KeyFactory.getInstance(KEY_ALGORITHM);
-			PrivateKey privateKey = factory.generatePrivate(pkcs8EncodedKeySpec);
-			return privateKey;
-		} catch (NoSuchAlgorithmException e) {
-			e.printStackTrace();
+			privateKey = (RSAPrivateKey) factory.generatePrivate(pkcs8EncodedKeySpec);
+		} catch (NoSuchAlgorithmException | InvalidKeySpecException | ClassCastException ex) {
+			throw new InvalidKeyException(ex.getMessage());
 		}
-		return null;
+		
+		synchronized (privateKeyCache) {
+			privateKeyCache.put(cacheKey.copy(), privateKey);
+		}
+		return privateKey;
 	}
 	
-	private static byte[] organize(byte[][] list) {
-		int totalLen = 0;
-		for (byte[] bytes : list) {
-			totalLen += bytes.length;
+	private final static class KeyCache<V> extends LinkedHashMap<KeyBytes, V> {
+		
+		private static final long serialVersionUID = -2316271931571402170L;
+		
+		private final int size;
+		
+		public KeyCache(int size) {
+			super(16, 0.75f, true);
+			this.size = size;
 		}
-		byte[] result = new byte[totalLen];
-		int pointer = 0;
-		for(int i=0;i<list.length;i++) {
-			byte[] bytes = list[i];
-			System.arraycopy(bytes, 0, result, pointer, bytes.length);
-			pointer += bytes.length;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<KeyBytes, V> eldest) {
+			return size() > size;
 		}
-		return result;
+		
 	}
 	
-	private static byte[][] split(byte[] data, int len) {
-		List<byte[]> marshalling = new LinkedList<>();
-		int pointer = 0;
-		while(true) {
-			int dest = pointer + len;
-			byte[] bytes;
-			if(dest < data.length) {
-				bytes = new byte[dest - pointer];
-				System.arraycopy(data, pointer, bytes, 0, bytes.length);
-				marshalling.add(bytes);
-				pointer = dest;
-			} else {
-				dest = data.length;
-				bytes = new byte[dest - pointer];
-				System.arraycopy(data, pointer, bytes, 0, bytes.length);
-				marshalling.add(bytes);
-				break;
-			}
+	/**
+	 * Encoded key as a map key, compared by content.<br>
+	 */
+	private final static class KeyBytes {
+		
+		private final byte[] bytes;
+		private final int hash;
+		
+		public KeyBytes(byte[] bytes) {
+			this.bytes = bytes;
+			hash = Arrays.hashCode(bytes);
+		}
+		
+		public KeyBytes copy() {
+			return new KeyBytes(bytes.clone());
 		}
-		return marshalling.toArray(EMPTY_2D_BYTE_ARRAY);
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof KeyBytes && Arrays.equals(bytes, ((KeyBytes) obj).bytes);
+		}
+		
 	}
-
+	
 	@Override
 	public ByteKeyPair generateKeyPair() {
-		KeyPair keyPair = KEY_PAIR_GENERATOR.generateKeyPair();
+		KeyPair keyPair = GeneratorHolder.KEY_PAIR_GENERATOR.generateKeyPair();
 		return new ByteKeyPair(keyPair.getPublic().getEncoded(), keyPair.getPrivate().getEncoded());
 	}
 
@@ -1,8 +1,16 @@
 package ink.aquar.scp.crypto;
 
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+
+import javax.crypto.BadPaddingException;
+
 /**
  * Symmetric crypto, which is using the same key to encrypt and decrypt, generates 
  * symmetric key for corresponding crypto.<br>
+ * <br>
+ * A key that is used for many times, for example a session key, should be bound into
+ * a Session once, so that the cipher would not be looked up and initialized on every call.<br>
  * 
  * @see Crypto
  * 
@@ -18,5 +26,152 @@ public interface SymmetricCrypto extends Crypto {
 	 * @return The key
 	 */
 	public byte[] generateKey();
+	
+	/**
+	 * To create a session that is bound to the key.<br>
+	 * <br>
+	 * The default implementation simply passes the key to encrypt(byte[], byte[]) and
+	 * decrypt(byte[], byte[]) on every call, implementations should override it to keep
+	 * their initialized cipher state in the session.<br>
+	 * 
+	 * @param key The key
+	 * @return The session
+	 */
+	public default Session createSession(byte[] key) throws InvalidKeyException {
+		SymmetricCrypto crypto = this;
+		byte[] sessionKey = key.clone();
+		return new Session() {
+			
+			@Override
+			public byte[] encrypt(byte[] data) throws BadPaddingException, InvalidKeyException {
+				return crypto.encrypt(data, sessionKey);
+			}
+			
+			@Override
+			public byte[] decrypt(byte[] data) throws BadPaddingException, InvalidKeyException {
+				return crypto.decrypt(data, sessionKey);
+			}
+			
+			@Override
+			public int encrypt(byte[] data, int offset, int length, byte[] output, int outputOffset) 
+					throws BadPaddingException, InvalidKeyException {
+				return crypto.encrypt(data, offset, length, sessionKey, output, outputOffset);
+			}
+			
+			@Override
+			public int decrypt(byte[] data, int offset, int length, byte[] output, int outputOffset) 
+					throws BadPaddingException, InvalidKeyException {
+				return crypto.decrypt(data, offset, length, sessionKey, output, outputOffset);
+			}
+			
+			@Override
+			public int encrypt(ByteBuffer data, ByteBuffer output) throws BadPaddingException, InvalidKeyException {
+				return crypto.encrypt(data, sessionKey, output);
+			}
+			
+			@Override
+			public int decrypt(ByteBuffer data, ByteBuffer output) throws BadPaddingException, InvalidKeyException {
+				return crypto.decrypt(data, sessionKey, output);
+			}
+			
+			@Override
+			public int getEncryptedSize(int dataLength) throws BadPaddingException, InvalidKeyException {
+				return crypto.getEncryptedSize(dataLength, sessionKey);
+			}
+			
+			@Override
+			public int getDecryptedSize(int encryptedLength) {
+				try {
+					return crypto.getDecryptedSize(encryptedLength, sessionKey);
+				} catch (InvalidKeyException ex) {
+					return encryptedLength;
+				}
+			}
+			
+		};
+	}
+	
+	/**
+	 * A symmetric crypto which is bound to a key.<br>
+	 * 
+	 * @see SymmetricCrypto#createSession(byte[])
+	 */
+	public static interface Session {
+		
+		/**
+		 * Encrypt data by the bound key.<br>
+		 * 
+		 * @param data The data that you want to encrypt
+		 */
+		public byte[] encrypt(byte[] data) throws BadPaddingException, InvalidKeyException;
+		
+		/**
+		 * Decrypt data by the bound key.<br>
+		 * 
+		 * @param data The encrypted data that you want to decrypt
+		 */
+		public byte[] decrypt(byte[] data) throws BadPaddingException, InvalidKeyException;
+		
+		/**
+		 * Encrypt data[offset] to data[offset + length - 1] by the bound key into output, 
+		 * see Crypto#encrypt(byte[], int, int, byte[], byte[], int).<br>
+		 * 
+		 * @return How many bytes are written
+		 */
+		public default int encrypt(byte[] data, int offset, int length, byte[] output, int outputOffset) 
+				throws BadPaddingException, InvalidKeyException {
+			return CryptoBuffers.copyOut(encrypt(CryptoBuffers.copyOf(data, offset, length)), output, outputOffset);
+		}
+		
+		/**
+		 * Decrypt data[offset] to data[offset + length - 1] by the bound key into output, 
+		 * see Crypto#decrypt(byte[], int, int, byte[], byte[], int).<br>
+		 * 
+		 * @return How many bytes are written
+		 */
+		public default int decrypt(byte[] data, int offset, int length, byte[] output, int outputOffset) 
+				throws BadPaddingException, InvalidKeyException {
+			return CryptoBuffers.copyOut(decrypt(CryptoBuffers.copyOf(data, offset, length)), output, outputOffset);
+		}
+		
+		/**
+		 * Encrypt remaining bytes of data by the bound key into output, 
+		 * see Crypto#encrypt(ByteBuffer, byte[], ByteBuffer).<br>
+		 * 
+		 * @return How many bytes are written
+		 */
+		public default int encrypt(ByteBuffer data, ByteBuffer output) throws BadPaddingException, InvalidKeyException {
+			return CryptoBuffers.putOut(encrypt(CryptoBuffers.peek(data)), data, output);
+		}
+		
+		/**
+		 * Decrypt remaining bytes of data by the bound key into output, 
+		 * see Crypto#decrypt(ByteBuffer, byte[], ByteBuffer).<br>
+		 * 
+		 * @return How many bytes are written
+		 */
+		public default int decrypt(ByteBuffer data, ByteBuffer output) throws BadPaddingException, InvalidKeyException {
+			return CryptoBuffers.putOut(decrypt(CryptoBuffers.peek(data)), data, output);
+		}
+		
+		/**
+		 * Length of the encrypted data of dataLength bytes.<br>
+		 * <br>
+		 * The default implementation encrypts as many zeros to see.<br>
+		 */
+		public default int getEncryptedSize(int dataLength) throws BadPaddingException, InvalidKeyException {
+			return encrypt(new byte[dataLength]).length;
+		}
+		
+		/**
+		 * The most length of the data that is decrypted from encryptedLength bytes.<br>
+		 * <br>
+		 * The default implementation assumes that data is not longer than the encrypted data.<br>
+		 */
+		public default int getDecryptedSize(int encryptedLength) {
+			return encryptedLength;
+		}
+		
+	}
 
 }
@@ -0,0 +1,276 @@
+package ink.aquar.scp.crypto;
+
+import java.security.InvalidKeyException;
+import javax.crypto.BadPaddingException;
+
+/**
+ * The selector that picks the default authenticated symmetric crypto of this host.<br>
+ * <br>
+ * It runs a short calibration on a background thread, which encrypts the same data by every 
+ * available suite for a while, and picks the one with the highest throughput, because 
+ * AES GCM is much slower than ChaCha20-Poly1305 on hosts that lack of AES instructions, 
+ * and much faster on hosts that have them. SecureDelivery starts it when it is constructed, 
+ * and the first available suite in order of getSuites() is the default until it is done.<br>
+ * <br>
+ * Operators can log the choice by getReport(), and override it by setDefault(Suite), or by 
+ * setting system property "ink.aquar.scp.crypto.suite" to the name of a suite before first use.<br>
+ * 
+ * @see AESGCMCrypto
+ * @see ChaCha20Poly1305Crypto
+ * 
+ * @author Aquarink Studio
+ * @author Kevin Iry
+ * 
+ */
+public final class SymmetricCryptoSelector {
+	
+	public final static String SUITE_PROPERTY = "ink.aquar.scp.crypto.suite";
+	
+	private final static int CALIBRATION_DATA_LENGTH = 1024;
+	private final static long CALIBRATION_WARM_UP = 30000000L; // In nanosecond
+	private final static long CALIBRATION_DURATION = 50000000L; // In nanosecond
+	
+	public final static Suite AES_GCM = new Suite(1, "AES-GCM", new AESGCMCrypto());
+	public final static Suite CHACHA20_POLY1305 = new Suite(2, "ChaCha20-Poly1305", new ChaCha20Poly1305Crypto());
+	
+	private final static Suite[] SUITES = {AES_GCM, CHACHA20_POLY1305};
+	
+	private static Suite choice;
+	private static String report;
+	private static Thread calibration;
+	
+	/**
+	 * To get the default suite, which does not wait for the calibration. The calibration 
+	 * starts if there is no choice yet, and the first available suite is returned until it is done.<br>
+	 * 
+	 * @return The default suite
+	 */
+	public static synchronized Suite getDefault() {
+		startCalibration();
+		if(choice != null) return choice;
+		for (Suite suite : SUITES) {
+			if(suite.isAvailable()) return suite;
+		}
+		return AES_GCM;
+	}
+	
+	/**
+	 * To start the calibration on a background thread, if there is no choice yet and it is 
+	 * not started, or to take the suite of system property "ink.aquar.scp.crypto.suite" if it is set.<br>
+	 */
+	public static synchronized void startCalibration() {
+		if(choice != null || calibration != null) return;
+		String name = System.getProperty(SUITE_PROPERTY);
+		Suite suite = name == null ? null : forName(name);
+		if(suite != null && suite.isAvailable()) {
+			choice = suite;
+			report = suite.name + " (set by " + SUITE_PROPERTY + ")";
+			return;
+		}
+		calibration = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				calibrate(false);
+			}
+		}, "SCP crypto calibration");
+		calibration.setDaemon(true);
+		calibration.start();
+	}
+	
+	/**
+	 * To override the default suite.<br>
+	 * 
+	 * @param suite The suite, which should be available on this host
+	 */
+	public static synchronized void setDefault(Suite suite) {
+		choice = suite;
+		report = suite.name + " (overridden)";
+	}
+	
+	/**
+	 * To get a readable description of the default suite and how it is picked, for logging.<br>
+	 * 
+	 * @return The description
+	 */
+	public static synchronized String getReport() {
+		Suite suite = getDefault();
+		return choice != null ? report : suite.name + " (calibrating)";
+	}
+	
+	/**
+	 * To measure the throughput of every available suite on the caller's thread, and pick 
+	 * the fastest one as default.<br>
+	 * 
+	 * @return The chosen suite
+	 */
+	public static Suite calibrate() {
+		return calibrate(true);
+	}
+	
+	// The choice that is set meanwhile is kept if it is not overriding.
+	private static Suite calibrate(boolean isOverriding) {
+		double[] throughputs = new double[SUITES.length];
+		for(int i=0;i<SUITES.length;i++) {
+			throughputs[i] = SUITES[i].isAvailable() ? measure(SUITES[i].crypto) : 0;
+		}
+		
+		synchronized (SymmetricCryptoSelector.class) {
+			for(int i=0;i<SUITES.length;i++) {
+				SUITES[i].throughput = throughputs[i];
+			}
+			if(!isOverriding && choice != null) return choice;
+			return pickFastest();
+		}
+	}
+	
+	private static Suite pickFastest() {
+		StringBuilder builder = new StringBuilder();
+		Suite fastest = null;
+		for (Suite suite : SUITES) {
+			if(builder.length() > 0) builder.append(", ");
+			builder.append(suite.name).append(' ');
+			if(suite.throughput > 0) {
+				builder.append(String.format("%.1f MB/s", suite.throughput / 1048576));
+			} else {
+				builder.append("unavailable");
+			}
+			if(suite.throughput > 0 && (fastest == null || suite.throughput > fastest.throughput)) {
+				fastest = suite;
+			}
+		}
+		if(fastest == null) fastest = AES_GCM;
+		choice = fastest;
+		report = fastest.name + " (calibrated: " + builder + ")";
+		return fastest;
+	}
+	
+	private static double measure(SymmetricCrypto crypto) {
+		byte[] data = new byte[CALIBRATION_DATA_LENGTH];
+		try {
+			SymmetricCrypto.Session session = crypto.createSession(crypto.generateKey());
+			long start = System.nanoTime();
+			while(System.nanoTime() - start < CALIBRATION_WARM_UP) {
+				session.encrypt(data);
+			}
+			long bytes = 0;
+			start = System.nanoTime();
+			long elapsed;
+			do {
+				session.encrypt(data);
+				bytes += data.length;
+				elapsed = System.nanoTime() - start;
+			} while(elapsed < CALIBRATION_DURATION);
+			return bytes * 1000000000D / elapsed;
+		} catch (InvalidKeyException | BadPaddingException ex) {
+			return 0;
+		}
+	}
+	
+	/**
+	 * To get all suites known by the selector, whether they are available on this host or not.<br>
+	 * 
+	 * @return The suites
+	 */
+	public static Suite[] getSuites() {
+		return SUITES.clone();
+	}
+	
+	/**
+	 * @param id The id of the suite
+	 * @return The suite, or null if there is no such suite
+	 */
+	public static Suite forId(int id) {
+		for (Suite suite : SUITES) {
+			if(suite.id == id) return suite;
+		}
+		return null;
+	}
+	
+	/**
+	 * @param name The name of the suite, case insensitive
+	 * @return The suite, or null if there is no such suite
+	 */
+	public static Suite forName(String name) {
+		for (Suite suite : SUITES) {
+			if(suite.name.equalsIgnoreCase(name)) return suite;
+		}
+		return null;
+	}
+	
+	/**
+	 * To get the suites that are available on this host as a mask, which has bit (1 << id) set 
+	 * for every available suite.<br>
+	 * 
+	 * @return The mask
+	 */
+	public static int getAvailableMask() {
+		int mask = 0;
+		for (Suite suite : SUITES) {
+			if(suite.isAvailable()) mask |= 1 << suite.id;
+		}
+		return mask;
+	}
+	
+	/**
+	 * To choose a suite from those offered by another host, the default suite is preferred, 
+	 * otherwise the fastest measured one.<br>
+	 * 
+	 * @param offeredMask The mask of suites offered, in form of getAvailableMask()
+	 * @return The suite, or null if none of the offered suites is available on this host
+	 */
+	public static synchronized Suite choose(int offeredMask) {
+		Suite preferred = getDefault();
+		if((offeredMask & (1 << preferred.id)) != 0) return preferred;
+		Suite chosen = null;
+		for (Suite suite : SUITES) {
+			if((offeredMask & (1 << suite.id)) == 0 || !suite.isAvailable()) continue;
+			if(chosen == null || suite.throughput > chosen.throughput) {
+				chosen = suite;
+			}
+		}
+		return chosen;
+	}
+	
+	/**
+	 * An authenticated symmetric crypto with a stable id, which is used on negotiation.<br>
+	 */
+	public final static class Suite {
+		
+		public final int id;
+		public final String name;
+		public final SymmetricCrypto crypto;
+		
+		private Boolean isAvailable;
+		private double throughput; // In byte per second, 0 if not measured.
+		
+		private Suite(int id, String name, SymmetricCrypto crypto) {
+			this.id = id;
+			this.name = name;
+			this.crypto = crypto;
+		}
+		
+		/**
+		 * @return Whether the crypto can run on this host
+		 */
+		public synchronized boolean isAvailable() {
+			if(isAvailable == null) {
+				try {
+					crypto.createSession(crypto.generateKey()).encrypt(new byte[1]);
+					isAvailable = true;
+				} catch (InvalidKeyException | BadPaddingException | RuntimeException ex) {
+					isAvailable = false;
+				}
+			}
+			return isAvailable;
+		}
+		
+		@Override
+		public String toString() {
+			return name;
+		}
+		
+	}
+	
+	private SymmetricCryptoSelector() {}
+	
+}
@@ -0,0 +1,195 @@
+package ink.aquar.scp.crypto;
+
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * An implementation of X25519 key agreement AsymmetricCrypto by using java provided security 
+ * implementations, which are provided since java 11.<br>
+ * <br>
+ * Every encryption generates an ephemeral key pair, agrees a secret with the public key, and 
+ * seals the data by AES 128 GCM under a key derived from the secret by HKDF-SHA256. The 
+ * decryption agrees the same secret from the private key and the ephemeral public key.<br>
+ * <br>
+ * Encrypted data is formed as | EPHEMERAL PUBLIC KEY | CIPHERTEXT | TAG |, which costs 48 bytes 
+ * more than the data, while public key is 44 bytes. Comparing to RSA 2048, which are 256 and 294 
+ * bytes, handshake packets are much smaller, and decryption costs far less CPU.<br>
+ * <br>
+ * Keys are encoded as X509 for public key and PKCS8 for private key, as RSACrypto does. Both 
+ * SecureDelivery have to use this crypto to connect with each other.<br>
+ * 
+ * @see AsymmetricCrypto
+ * @see RSACrypto
+ * 
+ * @author Aquarink Studio
+ * @author Kevin Iry
+ * 
+ */
+public class X25519Crypto implements AsymmetricCrypto {
+	
+	private final static String KEY_ALGORITHM = "X25519";
+	private final static String CIPHER_ALGORITHM = "AES/GCM/NoPadding";
+	
+	/*
+	 * X509 encoding of X25519 public key is this prefix followed by the 32 bytes key.
+	 */
+	private final static byte[] X509_PREFIX = {
+			0x30, 0x2A, 0x30, 0x05, 0x06, 0x03, 0x2B, 0x65, 0x6E, 0x03, 0x21, 0x00
+	};
+	
+	public final static int RAW_KEY_LENGTH = 32;
+	
+	private final static int TAG_LENGTH = 16;
+	private final static int CONTENT_KEY_LENGTH = 16;
+	private final static byte[] ZERO_NONCE = new byte[12]; // Every content key is used only once.
+	private final static byte[] HKDF_INFO = "SCP X25519 content key".getBytes();
+	
+	@Override
+	public byte[] encrypt(byte[] data, byte[] key) throws BadPaddingException, InvalidKeyException { //Public key
+		PublicKey publicKey = restorePublicKey(key);
+		
+		KeyPair ephemeral;
+		try {
+			ephemeral = KeyPairGenerator.getInstance(KEY_ALGORITHM).generateKeyPair();
+		} catch (NoSuchAlgorithmException ex) {
+			throw new InvalidKeyException(ex.getMessage());
+		}
+		byte[] ephemeralPublicKey = toRawKey(ephemeral.getPublic().getEncoded());
+		byte[] contentKey = deriveContentKey(ephemeral.getPrivate(), publicKey, ephemeralPublicKey);
+		
+		try {
+			Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
+			cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(contentKey, "AES"), 
+					new GCMParameterSpec(TAG_LENGTH * 8, ZERO_NONCE));
+			cipher.updateAAD(ephemeralPublicKey);
+			byte[] sealed = new byte[RAW_KEY_LENGTH + cipher.getOutputSize(data.length)];
+			System.arraycopy(ephemeralPublicKey, 0, sealed, 0, RAW_KEY_LENGTH);
+			cipher.doFinal(data, 0, data.length, sealed, RAW_KEY_LENGTH);
+			return sealed;
+		} catch (GeneralSecurityException ex) {
+			throw new InvalidKeyException(ex.getMessage());
+		}
+	}
+	
+	@Override
+	public byte[] decrypt(byte[] data, byte[] key) throws BadPaddingException, InvalidKeyException {
+		return decrypt(data, restorePrivateKey(key));
+	}
+	
+	/**
+	 * Decrypt data by a restored private key.<br>
+	 * 
+	 * @param data The encrypted data that you want to decrypt
+	 * @param privateKey The private key
+	 */
+	public byte[] decrypt(byte[] data, PrivateKey privateKey) throws BadPaddingException, InvalidKeyException {
+		if(data.length < RAW_KEY_LENGTH + TAG_LENGTH) {
+			throw new BadPaddingException();
+		}
+		byte[] ephemeralPublicKey = new byte[RAW_KEY_LENGTH];
+		System.arraycopy(data, 0, ephemeralPublicKey, 0, RAW_KEY_LENGTH);
+		byte[] contentKey = deriveContentKey(privateKey, restorePublicKey(toX509Key(ephemeralPublicKey)), ephemeralPublicKey);
+		
+		try {
+			Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
+			cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(contentKey, "AES"), 
+					new GCMParameterSpec(TAG_LENGTH * 8, ZERO_NONCE));
+			cipher.updateAAD(ephemeralPublicKey);
+			return cipher.doFinal(data, RAW_KEY_LENGTH, data.length - RAW_KEY_LENGTH);
+		} catch (AEADBadTagException ex) {
+			throw ex;
+		} catch (GeneralSecurityException ex) {
+			throw new BadPaddingException(ex.getMessage());
+		}
+	}
+	
+	@Override
+	public Decryptor createDecryptor(byte[] privateKey) {
+		PrivateKey key;
+		try {
+			key = restorePrivateKey(privateKey);
+		} catch (InvalidKeyException ex) {
+			return AsymmetricCrypto.super.createDecryptor(privateKey);
+		}
+		return new Decryptor() {
+			
+			@Override
+			public byte[] decrypt(byte[] data) throws BadPaddingException, InvalidKeyException {
+				return X25519Crypto.this.decrypt(data, key);
+			}
+			
+		};
+	}
+	
+	@Override
+	public ByteKeyPair generateKeyPair() {
+		try {
+			KeyPair keyPair = KeyPairGenerator.getInstance(KEY_ALGORITHM).generateKeyPair();
+			return new ByteKeyPair(keyPair.getPublic().getEncoded(), keyPair.getPrivate().getEncoded());
+		} catch (NoSuchAlgorithmException ex) {
+			ex.printStackTrace();
+		}
+		return null;
+	}
+	
+	private static byte[] deriveContentKey(PrivateKey privateKey, PublicKey publicKey, byte[] salt) 
+			throws InvalidKeyException {
+		try {
+			KeyAgreement keyAgreement = KeyAgreement.getInstance(KEY_ALGORITHM);
+			keyAgreement.init(privateKey);
+			keyAgreement.doPhase(publicKey, true);
+			byte[] secret = keyAgreement.generateSecret();
+			return KeyDerivation.derive(secret, salt, HKDF_INFO, CONTENT_KEY_LENGTH);
+		} catch (NoSuchAlgorithmException | IllegalStateException ex) {
+			throw new InvalidKeyException(ex.getMessage());
+		}
+	}
+	
+	private static PublicKey restorePublicKey(byte[] keyBytes) throws InvalidKeyException {
+		try {
+			return KeyFactory.getInstance(KEY_ALGORITHM).generatePublic(new X509EncodedKeySpec(keyBytes));
+		} catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
+			throw new InvalidKeyException(ex.getMessage());
+		}
+	}
+	
+	private static PrivateKey restorePrivateKey(byte[] keyBytes) throws InvalidKeyException {
+		try {
+			return KeyFactory.getInstance(KEY_ALGORITHM).generatePrivate(new PKCS8EncodedKeySpec(keyBytes));
+		} catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
+			throw new InvalidKeyException(ex.getMessage());
+		}
+	}
+	
+	private static byte[] toRawKey(byte[] x509Key) throws InvalidKeyException {
+		if(x509Key.length != X509_PREFIX.length + RAW_KEY_LENGTH) {
+			throw new InvalidKeyException("Unexpected X25519 public key encoding");
+		}
+		byte[] rawKey = new byte[RAW_KEY_LENGTH];
+		System.arraycopy(x509Key, X509_PREFIX.length, rawKey, 0, RAW_KEY_LENGTH);
+		return rawKey;
+	}
+	
+	private static byte[] toX509Key(byte[] rawKey) {
+		byte[] x509Key = new byte[X509_PREFIX.length + RAW_KEY_LENGTH];
+		System.arraycopy(X509_PREFIX, 0, x509Key, 0, X509_PREFIX.length);
+		System.arraycopy(rawKey, 0, x509Key, X509_PREFIX.length, RAW_KEY_LENGTH);
+		return x509Key;
+	}
+	
+}
@@ -0,0 +1,97 @@
+package ink.aquar.scp.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A pool of heap ByteBuffers, which are kept in classes of power of two capacities, 
+ * so that packets are encoded into reused buffers instead of new arrays.<br>
+ * <br>
+ * Buffers are backed by arrays from index 0, thus they can be checksummed and encrypted 
+ * by array ranges. Buffers larger than the max capacity are allocated and not pooled.<br>
+ * 
+ * @author Aquarink Studio
+ * @author Kevin Iry
+ * 
+ */
+public class ByteBufferPool {
+	
+	public final static int MIN_CAPACITY = 64;
+	private final static int MIN_CAPACITY_SHIFT = 6;
+	
+	private final int maxCapacity;
+	private final int buffersPerClass;
+	
+	private final ArrayDeque<ByteBuffer>[] classes;
+	
+	/**
+	 * Create a pool that keeps 64 buffers of each capacity up to 65536 bytes.<br>
+	 */
+	public ByteBufferPool() {
+		this(65536, 64);
+	}
+	
+	/**
+	 * Create a pool.<br>
+	 * 
+	 * @param maxCapacity The max capacity of pooled buffers, rounded up to a power of two
+	 * @param buffersPerClass How many free buffers of each capacity to keep
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public ByteBufferPool(int maxCapacity, int buffersPerClass) {
+		if(maxCapacity < MIN_CAPACITY || buffersPerClass < 0) throw new IllegalArgumentException();
+		int classCount = classOf(maxCapacity) + 1;
+		this.maxCapacity = MIN_CAPACITY << (classCount - 1);
+		this.buffersPerClass = buffersPerClass;
+		classes = new ArrayDeque[classCount];
+		for(int i=0;i<classCount;i++) {
+			classes[i] = new ArrayDeque<>();
+		}
+	}
+	
+	/**
+	 * Borrow a buffer of at least length bytes, which has position 0 and limit length. 
+	 * Content of the buffer is not cleared.<br>
+	 * 
+	 * @param length The length that is going to be written
+	 * @return The buffer, which should be recycled once it is not used
+	 */
+	public ByteBuffer obtain(int length) {
+		if(length > maxCapacity) return ByteBuffer.allocate(length);
+		
+		int index = classOf(length);
+		ByteBuffer buffer;
+		ArrayDeque<ByteBuffer> pool = classes[index];
+		synchronized (pool) {
+			buffer = pool.pollLast();
+		}
+		if(buffer == null) {
+			buffer = ByteBuffer.allocate(MIN_CAPACITY << index);
+		}
+		buffer.clear();
+		buffer.limit(length);
+		return buffer;
+	}
+	
+	/**
+	 * Return a buffer that is borrowed by obtain(int), the buffer should not be used after.<br>
+	 * 
+	 * @param buffer The buffer
+	 */
+	public void recycle(ByteBuffer buffer) {
+		int capacity = buffer.capacity();
+		if(capacity > maxCapacity || capacity < MIN_CAPACITY || Integer.bitCount(capacity) != 1) return;
+		if(!buffer.hasArray() || buffer.arrayOffset() != 0) return; // Not from a pool.
+		
+		ArrayDeque<ByteBuffer> pool = classes[classOf(capacity)];
+		synchronized (pool) {
+			if(pool.size() < buffersPerClass) pool.addLast(buffer);
+		}
+	}
+	
+	private static int classOf(int length) {
+		if(length <= MIN_CAPACITY) return 0;
+		return 32 - Integer.numberOfLeadingZeros(length - 1) - MIN_CAPACITY_SHIFT;
+	}
+	
+}
@@ -0,0 +1,159 @@
+package ink.aquar.scp.util;
+
+import java.nio.BufferUnderflowException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A cursor over a array of bytes, which reads what ByteWriter writes.<br>
+ * <br>
+ * Reading beyond the end throws BufferUnderflowException and leaves the cursor where it was, 
+ * a malformed varint or length throws IllegalArgumentException.<br>
+ * 
+ * @see ByteWriter
+ * 
+ * @author Aquarink Studio
+ * @author Kevin Iry
+ * 
+ */
+public class ByteReader {
+	
+	private final byte[] bytes;
+	private final int end;
+	private int position;
+	
+	public ByteReader(byte[] bytes) {
+		this(bytes, 0, bytes.length);
+	}
+	
+	/**
+	 * Read bytes[offset] to bytes[offset + length - 1].<br>
+	 */
+	public ByteReader(byte[] bytes, int offset, int length) {
+		if(offset < 0 || length < 0 || offset > bytes.length - length) throw new IndexOutOfBoundsException();
+		this.bytes = bytes;
+		position = offset;
+		end = offset + length;
+	}
+	
+	public boolean getBoolean() {
+		return getByte() != 0;
+	}
+	
+	public byte getByte() {
+		require(1);
+		return bytes[position++];
+	}
+	
+	public short getShort() {
+		require(ByteWrapper.SHORT_LENGTH);
+		short value = ByteWrapper.getShort(bytes, position);
+		position += ByteWrapper.SHORT_LENGTH;
+		return value;
+	}
+	
+	public int getInt() {
+		require(ByteWrapper.INT_LENGTH);
+		int value = ByteWrapper.getInt(bytes, position);
+		position += ByteWrapper.INT_LENGTH;
+		return value;
+	}
+	
+	public long getLong() {
+		require(ByteWrapper.LONG_LENGTH);
+		long value = ByteWrapper.getLong(bytes, position);
+		position += ByteWrapper.LONG_LENGTH;
+		return value;
+	}
+	
+	public float getFloat() {
+		return Float.intBitsToFloat(getInt());
+	}
+	
+	public double getDouble() {
+		return Double.longBitsToDouble(getLong());
+	}
+	
+	public long getVarLong() {
+		int length = ByteWrapper.varLongLength(bytes, position, end);
+		if(length < 0) {
+			if(end - position < ByteWrapper.MAX_VAR_LONG_LENGTH) throw new BufferUnderflowException();
+			throw new IllegalArgumentException("Varint is too long");
+		}
+		long value = ByteWrapper.getVarLong(bytes, position);
+		position += length;
+		return value;
+	}
+	
+	/**
+	 * Get a string in UTF-8 that is prefixed by its length.<br>
+	 */
+	public String getString() {
+		int length = getLength();
+		String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+		position += length;
+		return value;
+	}
+	
+	/**
+	 * Get a blob that is prefixed by its length.<br>
+	 */
+	public byte[] getBytes() {
+		int length = getLength();
+		byte[] value = Arrays.copyOfRange(bytes, position, position + length);
+		position += length;
+		return value;
+	}
+	
+	/**
+	 * Get length bytes as they are.<br>
+	 */
+	public byte[] getRaw(int length) {
+		if(length < 0) throw new IllegalArgumentException("Negative length");
+		require(length);
+		byte[] value = Arrays.copyOfRange(bytes, position, position + length);
+		position += length;
+		return value;
+	}
+	
+	public ByteReader skip(int length) {
+		if(length < 0) throw new IllegalArgumentException("Negative length");
+		require(length);
+		position += length;
+		return this;
+	}
+	
+	/**
+	 * Index in the array that is read next.<br>
+	 */
+	public int position() {
+		return position;
+	}
+	
+	public int remaining() {
+		return end - position;
+	}
+	
+	public boolean hasRemaining() {
+		return position < end;
+	}
+	
+	// Reads the length prefix, the cursor is moved back if the content is not enough.
+	private int getLength() {
+		int start = position;
+		long length = getVarLong();
+		if(length < 0 || length > Integer.MAX_VALUE) {
+			position = start;
+			throw new IllegalArgumentException("Length is too large");
+		} else if(length > end - position) {
+			position = start;
+			throw new BufferUnderflowException();
+		}
+		return (int) length;
+	}
+	
+	private void require(int length) {
+		if(length > end - position) throw new BufferUnderflowException();
+	}
+	
+}
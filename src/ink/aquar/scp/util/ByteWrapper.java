@@ -28,29 +28,29 @@ public class ByteWrapper {
 					(byte) object
 			};
 		} else if (object instanceof Short) {
-			ByteBuffer buffer = ByteBuffer.allocate(2);
-			buffer.putShort((short) object);
-			return buffer.array();
+			byte[] bytes = new byte[SHORT_LENGTH];
+			putShort((short) object, bytes, 0);
+			return bytes;
 		} else if (object instanceof Integer) {
-			ByteBuffer buffer = ByteBuffer.allocate(4);
-			buffer.putInt((int) object);
-			return buffer.array();
+			byte[] bytes = new byte[INT_LENGTH];
+			putInt((int) object, bytes, 0);
+			return bytes;
 		} else if (object instanceof Long) {
-			ByteBuffer buffer = ByteBuffer.allocate(8);
-			buffer.putLong((long) object);
-			return buffer.array();
+			byte[] bytes = new byte[LONG_LENGTH];
+			putLong((long) object, bytes, 0);
+			return bytes;
 		} else if (object instanceof Character) {
-			ByteBuffer buffer = ByteBuffer.allocate(4);
-			buffer.putInt((char) object);
-			return buffer.array();
+			byte[] bytes = new byte[INT_LENGTH];
+			putInt((char) object, bytes, 0);
+			return bytes;
 		} else if (object instanceof Float) {
-			ByteBuffer buffer = ByteBuffer.allocate(4);
-			buffer.putFloat((float) object);
-			return buffer.array();
+			byte[] bytes = new byte[INT_LENGTH];
+			putFloat((float) object, bytes, 0);
+			return bytes;
 		} else if (object instanceof Double) {
-			ByteBuffer buffer = ByteBuffer.allocate(8);
-			buffer.putDouble((double) object);
-			return buffer.array();
+			byte[] bytes = new byte[LONG_LENGTH];
+			putDouble((double) object, bytes, 0);
+			return bytes;
 		} else if (object instanceof String) {
 			byte[] charset = ((String) object).getBytes();
 			ByteBuffer buffer = ByteBuffer.allocate(4+charset.length);
@@ -153,18 +153,7 @@ public class ByteWrapper {
 
 			@Override
 			public Short fromBytes(byte[] bytes, int start) {
-				ByteBuffer buffer = ByteBuffer.allocate(LENGTH);
-				
-				int foreshift = (start >= 0 ? 0 : 0 - start);
-				int lastshift = start + LENGTH - bytes.length;
-				lastshift = lastshift > 0 ? lastshift : 0;
-				
-				buffer.put(new byte[foreshift + lastshift]);
-				for(int i=start+foreshift, d=start + LENGTH - lastshift;i<d;i++) {
-					buffer.put(bytes[i]);
-				}
-				
-				return buffer.getShort(0);
+				return (short) getPadded(bytes, start, LENGTH);
 			}
 			
 		};
@@ -175,18 +164,7 @@ public class ByteWrapper {
 
 			@Override
 			public Integer fromBytes(byte[] bytes, int start) {
-				ByteBuffer buffer = ByteBuffer.allocate(LENGTH);
-				
-				int foreshift = (start >= 0 ? 0 : 0 - start);
-				int lastshift = start + LENGTH - bytes.length;
-				lastshift = lastshift > 0 ? lastshift : 0;
-				
-				buffer.put(new byte[foreshift + lastshift]);
-				for(int i=start+foreshift, d=start + LENGTH - lastshift;i<d;i++) {
-					buffer.put(bytes[i]);
-				}
-				
-				return buffer.getInt(0);
+				return (int) getPadded(bytes, start, LENGTH);
 			}
 			
 		};
@@ -197,18 +175,7 @@ public class ByteWrapper {
 
 			@Override
 			public Long fromBytes(byte[] bytes, int start) {
-				ByteBuffer buffer = ByteBuffer.allocate(LENGTH);
-				
-				int foreshift = (start >= 0 ? 0 : 0 - start);
-				int lastshift = start + LENGTH - bytes.length;
-				lastshift = lastshift > 0 ? lastshift : 0;
-				
-				buffer.put(new byte[foreshift + lastshift]);
-				for(int i=start+foreshift, d=start + LENGTH - lastshift;i<d;i++) {
-					buffer.put(bytes[i]);
-				}
-				
-				return buffer.getLong(0);
+				return getPadded(bytes, start, LENGTH);
 			}
 			
 		};
@@ -219,18 +186,7 @@ public class ByteWrapper {
 
 			@Override
 			public Character fromBytes(byte[] bytes, int start) {
-				ByteBuffer buffer = ByteBuffer.allocate(LENGTH);
-				
-				int foreshift = (start >= 0 ? 0 : 0 - start);
-				int lastshift = start + LENGTH - bytes.length;
-				lastshift = lastshift > 0 ? lastshift : 0;
-				
-				buffer.put(new byte[foreshift + lastshift]);
-				for(int i=start+foreshift, d=start + LENGTH - lastshift;i<d;i++) {
-					buffer.put(bytes[i]);
-				}
-				
-				return (char) buffer.getInt(0);
+				return (char) getPadded(bytes, start, LENGTH);
 			}
 			
 		};
@@ -241,18 +197,7 @@ public class ByteWrapper {
 
 			@Override
 			public Float fromBytes(byte[] bytes, int start) {
-				ByteBuffer buffer = ByteBuffer.allocate(LENGTH);
-				
-				int foreshift = (start >= 0 ? 0 : 0 - start);
-				int lastshift = start + LENGTH - bytes.length;
-				lastshift = lastshift > 0 ? lastshift : 0;
-				
-				buffer.put(new byte[foreshift + lastshift]);
-				for(int i=start+foreshift, d=start + LENGTH - lastshift;i<d;i++) {
-					buffer.put(bytes[i]);
-				}
-				
-				return buffer.getFloat(0);
+				return Float.intBitsToFloat((int) getPadded(bytes, start, LENGTH));
 			}
 			
 		};
@@ -263,18 +208,7 @@ public class ByteWrapper {
 
 			@Override
 			public Double fromBytes(byte[] bytes, int start) {
-				ByteBuffer buffer = ByteBuffer.allocate(LENGTH);
-				
-				int foreshift = (start >= 0 ? 0 : 0 - start);
-				int lastshift = start + LENGTH - bytes.length;
-				lastshift = lastshift > 0 ? lastshift : 0;
-				
-				buffer.put(new byte[foreshift + lastshift]);
-				for(int i=start+foreshift, d=start + LENGTH - lastshift;i<d;i++) {
-					buffer.put(bytes[i]);
-				}
-				
-				return buffer.getDouble(0);
+				return Double.longBitsToDouble(getPadded(bytes, start, LENGTH));
 			}
 			
 		};
@@ -302,6 +236,240 @@ public class ByteWrapper {
 		
 	}
 	
+	public final static int SHORT_LENGTH = 2;
+	public final static int INT_LENGTH = 4;
+	public final static int LONG_LENGTH = 8;
+	
+	/*
+	 * Primitives in big endian, which are put into or got from a array or a buffer in place, 
+	 * without boxing or allocation.
+	 * Unlike toBytes(Object, byte[], int) and fromBytes, which cut and pad the bytes out of 
+	 * the array, these throw IndexOutOfBoundsException before anything is written if the 
+	 * primitive does not fit from start.
+	 * Buffers are accessed by absolute index regardless of their order, position and limit 
+	 * are not moved.
+	 */
+	
+	/**
+	 * Put a short into a existing byte array.<br>
+	 * 
+	 * @return How many bytes are written
+	 */
+	public static int putShort(short value, byte[] bytes, int start) {
+		checkBounds(bytes.length, start, SHORT_LENGTH);
+		bytes[start] = (byte) (value >>> 8);
+		bytes[start + 1] = (byte) value;
+		return SHORT_LENGTH;
+	}
+	
+	/**
+	 * Put a int into a existing byte array.<br>
+	 * 
+	 * @return How many bytes are written
+	 */
+	public static int putInt(int value, byte[] bytes, int start) {
+		checkBounds(bytes.length, start, INT_LENGTH);
+		for(int i=INT_LENGTH-1;i>=0;i--) {
+			bytes[start + i] = (byte) value;
+			value >>>= 8;
+		}
+		return INT_LENGTH;
+	}
+	
+	/**
+	 * Put a long into a existing byte array.<br>
+	 * 
+	 * @return How many bytes are written
+	 */
+	public static int putLong(long value, byte[] bytes, int start) {
+		checkBounds(bytes.length, start, LONG_LENGTH);
+		for(int i=LONG_LENGTH-1;i>=0;i--) {
+			bytes[start + i] = (byte) value;
+			value >>>= 8;
+		}
+		return LONG_LENGTH;
+	}
+	
+	public static int putFloat(float value, byte[] bytes, int start) {
+		return putInt(Float.floatToIntBits(value), bytes, start);
+	}
+	
+	public static int putDouble(double value, byte[] bytes, int start) {
+		return putLong(Double.doubleToLongBits(value), bytes, start);
+	}
+	
+	public static short getShort(byte[] bytes, int start) {
+		checkBounds(bytes.length, start, SHORT_LENGTH);
+		return (short) (((bytes[start] & 0xFF) << 8) | (bytes[start + 1] & 0xFF));
+	}
+	
+	public static int getInt(byte[] bytes, int start) {
+		checkBounds(bytes.length, start, INT_LENGTH);
+		int value = 0;
+		for(int i=0;i<INT_LENGTH;i++) {
+			value = (value << 8) | (bytes[start + i] & 0xFF);
+		}
+		return value;
+	}
+	
+	public static long getLong(byte[] bytes, int start) {
+		checkBounds(bytes.length, start, LONG_LENGTH);
+		long value = 0;
+		for(int i=0;i<LONG_LENGTH;i++) {
+			value = (value << 8) | (bytes[start + i] & 0xFF);
+		}
+		return value;
+	}
+	
+	public static float getFloat(byte[] bytes, int start) {
+		return Float.intBitsToFloat(getInt(bytes, start));
+	}
+	
+	public static double getDouble(byte[] bytes, int start) {
+		return Double.longBitsToDouble(getLong(bytes, start));
+	}
+	
+	/**
+	 * Put a short into a buffer at index, which should be before limit.<br>
+	 * 
+	 * @return How many bytes are written
+	 */
+	public static int putShort(short value, ByteBuffer buffer, int index) {
+		checkBounds(buffer.limit(), index, SHORT_LENGTH);
+		buffer.put(index, (byte) (value >>> 8));
+		buffer.put(index + 1, (byte) value);
+		return SHORT_LENGTH;
+	}
+	
+	/**
+	 * Put a int into a buffer at index, which should be before limit.<br>
+	 * 
+	 * @return How many bytes are written
+	 */
+	public static int putInt(int value, ByteBuffer buffer, int index) {
+		checkBounds(buffer.limit(), index, INT_LENGTH);
+		for(int i=INT_LENGTH-1;i>=0;i--) {
+			buffer.put(index + i, (byte) value);
+			value >>>= 8;
+		}
+		return INT_LENGTH;
+	}
+	
+	/**
+	 * Put a long into a buffer at index, which should be before limit.<br>
+	 * 
+	 * @return How many bytes are written
+	 */
+	public static int putLong(long value, ByteBuffer buffer, int index) {
+		checkBounds(buffer.limit(), index, LONG_LENGTH);
+		for(int i=LONG_LENGTH-1;i>=0;i--) {
+			buffer.put(index + i, (byte) value);
+			value >>>= 8;
+		}
+		return LONG_LENGTH;
+	}
+	
+	public static short getShort(ByteBuffer buffer, int index) {
+		checkBounds(buffer.limit(), index, SHORT_LENGTH);
+		return (short) (((buffer.get(index) & 0xFF) << 8) | (buffer.get(index + 1) & 0xFF));
+	}
+	
+	public static int getInt(ByteBuffer buffer, int index) {
+		checkBounds(buffer.limit(), index, INT_LENGTH);
+		int value = 0;
+		for(int i=0;i<INT_LENGTH;i++) {
+			value = (value << 8) | (buffer.get(index + i) & 0xFF);
+		}
+		return value;
+	}
+	
+	public static long getLong(ByteBuffer buffer, int index) {
+		checkBounds(buffer.limit(), index, LONG_LENGTH);
+		long value = 0;
+		for(int i=0;i<LONG_LENGTH;i++) {
+			value = (value << 8) | (buffer.get(index + i) & 0xFF);
+		}
+		return value;
+	}
+	
+	// Bytes out of the array are taken as leading zeros, as fromBytes does.
+	private static long getPadded(byte[] bytes, int start, int length) {
+		long value = 0;
+		for(int i=Math.max(start, 0), d=Math.min(start + length, bytes.length);i<d;i++) {
+			value = (value << 8) | (bytes[i] & 0xFF);
+		}
+		return value;
+	}
+	
+	private static void checkBounds(int capacity, int start, int length) {
+		if(start < 0 || start > capacity - length) {
+			throw new IndexOutOfBoundsException(
+					"Need " + length + " bytes from " + start + " but there are " + capacity
+					);
+		}
+	}
+	
+	public final static int MAX_VAR_LONG_LENGTH = 10;
+	
+	/**
+	 * Length of a long as unsigned varint, which takes 7 bits in each byte from the lowest, 
+	 * with the highest bit set on every byte but the last.<br>
+	 * 
+	 * @param value The value
+	 * @return Length from 1 to MAX_VAR_LONG_LENGTH
+	 */
+	public static int varLongLength(long value) {
+		return value == 0 ? 1 : (70 - Long.numberOfLeadingZeros(value)) / 7;
+	}
+	
+	/**
+	 * Put a long as unsigned varint into a existing byte array.<br>
+	 * 
+	 * @param value The value
+	 * @param bytes The array, which should have varLongLength(value) bytes from start
+	 * @param start The index that the varint starts from
+	 * @return How many bytes are written
+	 */
+	public static int putVarLong(long value, byte[] bytes, int start) {
+		int index = start;
+		while((value & ~0x7FL) != 0) {
+			bytes[index++] = (byte) (value | 0x80);
+			value >>>= 7;
+		}
+		bytes[index++] = (byte) value;
+		return index - start;
+	}
+	
+	/**
+	 * Length of the unsigned varint at bytes[start], which should end before bytes[end].<br>
+	 * 
+	 * @return Length of the varint, or -1 if it is not ended or longer than MAX_VAR_LONG_LENGTH
+	 */
+	public static int varLongLength(byte[] bytes, int start, int end) {
+		int limit = Math.min(end, start + MAX_VAR_LONG_LENGTH);
+		for(int i=start;i<limit;i++) {
+			if(bytes[i] >= 0) return i - start + 1;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Get a unsigned varint at bytes[start], which is checked by varLongLength(byte[], int, int).<br>
+	 * 
+	 * @return The value
+	 */
+	public static long getVarLong(byte[] bytes, int start) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = bytes[start++];
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while(b < 0);
+		return value;
+	}
+	
 	private final static char[] HEX_ALPHABET = 
 		{
 				'0', '1', '2', '3', 
@@ -0,0 +1,223 @@
+package ink.aquar.scp.util;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * A growable writer that encodes primitives, UTF-8 strings and length-prefixed blobs 
+ * into one array in one pass, which can be read by ByteReader.<br>
+ * <br>
+ * Primitives are in big endian as ByteWrapper puts them, strings and blobs are prefixed 
+ * by their length in bytes as unsigned varint.<br>
+ * <br>
+ * Writers can be obtained from and recycled into a shared pool, so that messages are built 
+ * without growing a new array every time.<br>
+ * 
+ * @see ByteReader
+ * 
+ * @author Aquarink Studio
+ * @author Kevin Iry
+ * 
+ */
+public class ByteWriter {
+	
+	public final static int DEFAULT_CAPACITY = 64;
+	
+	public final static int MAX_POOLED_WRITERS = 64;
+	public final static int MAX_POOLED_CAPACITY = 65536; // Larger arrays are not kept in pool.
+	
+	private final static ArrayDeque<ByteWriter> POOL = new ArrayDeque<>();
+	
+	private byte[] bytes;
+	private int length;
+	
+	public ByteWriter() {
+		this(DEFAULT_CAPACITY);
+	}
+	
+	public ByteWriter(int capacity) {
+		if(capacity < 0) throw new IllegalArgumentException("Negative capacity");
+		bytes = new byte[capacity];
+	}
+	
+	/**
+	 * Take a empty writer from the pool, or create one if the pool is empty.<br>
+	 */
+	public static ByteWriter obtain() {
+		ByteWriter writer;
+		synchronized (POOL) {
+			writer = POOL.pollFirst();
+		}
+		return writer != null ? writer : new ByteWriter();
+	}
+	
+	/**
+	 * Return a writer to the pool, it should not be used after.<br>
+	 */
+	public static void recycle(ByteWriter writer) {
+		writer.length = 0;
+		if(writer.bytes.length > MAX_POOLED_CAPACITY) writer.bytes = new byte[DEFAULT_CAPACITY];
+		synchronized (POOL) {
+			if(POOL.size() < MAX_POOLED_WRITERS) POOL.addFirst(writer);
+		}
+	}
+	
+	public ByteWriter putBoolean(boolean value) {
+		return putByte(value ? (byte) 1 : (byte) 0);
+	}
+	
+	public ByteWriter putByte(byte value) {
+		ensureCapacity(1);
+		bytes[length++] = value;
+		return this;
+	}
+	
+	public ByteWriter putShort(short value) {
+		ensureCapacity(ByteWrapper.SHORT_LENGTH);
+		length += ByteWrapper.putShort(value, bytes, length);
+		return this;
+	}
+	
+	public ByteWriter putInt(int value) {
+		ensureCapacity(ByteWrapper.INT_LENGTH);
+		length += ByteWrapper.putInt(value, bytes, length);
+		return this;
+	}
+	
+	public ByteWriter putLong(long value) {
+		ensureCapacity(ByteWrapper.LONG_LENGTH);
+		length += ByteWrapper.putLong(value, bytes, length);
+		return this;
+	}
+	
+	public ByteWriter putFloat(float value) {
+		return putInt(Float.floatToIntBits(value));
+	}
+	
+	public ByteWriter putDouble(double value) {
+		return putLong(Double.doubleToLongBits(value));
+	}
+	
+	/**
+	 * Put a long as unsigned varint, see ByteWrapper.putVarLong(long, byte[], int).<br>
+	 */
+	public ByteWriter putVarLong(long value) {
+		ensureCapacity(ByteWrapper.varLongLength(value));
+		length += ByteWrapper.putVarLong(value, bytes, length);
+		return this;
+	}
+	
+	/**
+	 * Put a string in UTF-8, prefixed by its length in bytes.<br>
+	 * <br>
+	 * Unpaired surrogates are put as '?', as String.getBytes does.<br>
+	 */
+	public ByteWriter putString(String value) {
+		int utfLength = 0;
+		for(int i=0, d=value.length();i<d;i++) {
+			char c = value.charAt(i);
+			if(c < 0x80) {
+				utfLength++;
+			} else if(c < 0x800) {
+				utfLength += 2;
+			} else if(Character.isHighSurrogate(c) && i + 1 < d && Character.isLowSurrogate(value.charAt(i + 1))) {
+				utfLength += 4;
+				i++;
+			} else if(Character.isSurrogate(c)) {
+				utfLength++;
+			} else {
+				utfLength += 3;
+			}
+		}
+		putVarLong(utfLength);
+		ensureCapacity(utfLength);
+		
+		for(int i=0, d=value.length();i<d;i++) {
+			char c = value.charAt(i);
+			if(c < 0x80) {
+				bytes[length++] = (byte) c;
+			} else if(c < 0x800) {
+				bytes[length++] = (byte) (0xC0 | (c >> 6));
+				bytes[length++] = (byte) (0x80 | (c & 0x3F));
+			} else if(Character.isHighSurrogate(c) && i + 1 < d && Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				bytes[length++] = (byte) (0xF0 | (codePoint >> 18));
+				bytes[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				bytes[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				bytes[length++] = (byte) (0x80 | (codePoint & 0x3F));
+			} else if(Character.isSurrogate(c)) {
+				bytes[length++] = '?';
+			} else {
+				bytes[length++] = (byte) (0xE0 | (c >> 12));
+				bytes[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				bytes[length++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		return this;
+	}
+	
+	/**
+	 * Put a blob, prefixed by its length.<br>
+	 */
+	public ByteWriter putBytes(byte[] value) {
+		return putBytes(value, 0, value.length);
+	}
+	
+	/**
+	 * Put value[offset] to value[offset + length - 1] as a blob, prefixed by its length.<br>
+	 */
+	public ByteWriter putBytes(byte[] value, int offset, int length) {
+		putVarLong(length);
+		return putRaw(value, offset, length);
+	}
+	
+	/**
+	 * Put bytes as they are, without length.<br>
+	 */
+	public ByteWriter putRaw(byte[] value, int offset, int length) {
+		if(offset < 0 || length < 0 || offset > value.length - length) throw new IndexOutOfBoundsException();
+		ensureCapacity(length);
+		System.arraycopy(value, offset, bytes, this.length, length);
+		this.length += length;
+		return this;
+	}
+	
+	/**
+	 * How many bytes are written.<br>
+	 */
+	public int length() {
+		return length;
+	}
+	
+	/**
+	 * The array that bytes are written into, which is valid from 0 to length() - 1 until 
+	 * the writer grows, is reset or is recycled.<br>
+	 */
+	public byte[] array() {
+		return bytes;
+	}
+	
+	/**
+	 * Copy written bytes out.<br>
+	 */
+	public byte[] toBytes() {
+		return Arrays.copyOf(bytes, length);
+	}
+	
+	/**
+	 * Discard written bytes, and keep the array for writing again.<br>
+	 */
+	public ByteWriter reset() {
+		length = 0;
+		return this;
+	}
+	
+	private void ensureCapacity(int more) {
+		if(more <= bytes.length - length) return;
+		if(more > Integer.MAX_VALUE - length) throw new OutOfMemoryError("Writer is too large");
+		int capacity = Math.max(length + more, bytes.length * 2);
+		if(capacity < 0) capacity = length + more; // Overflow of doubling.
+		bytes = Arrays.copyOf(bytes, Math.max(capacity, DEFAULT_CAPACITY));
+	}
+	
+}
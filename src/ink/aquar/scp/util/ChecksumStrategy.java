@@ -0,0 +1,96 @@
+package ink.aquar.scp.util;
+
+import java.util.Objects;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * Checksum of packets and letters, which detects broken data.<br>
+ * <br>
+ * Checksums are carried as 8 bytes long, a 32 bits checksum is carried in the low 4 bytes.<br>
+ * 
+ * @author Aquarink Studio
+ * @author Kevin Iry
+ *
+ */
+public interface ChecksumStrategy {
+	
+	/**
+	 * CRC64 of ISO 3309, which processes 8 bytes per step by slicing-by-8 tables.<br>
+	 */
+	public final static ChecksumStrategy CRC64 = new ChecksumStrategy() {
+		
+		@Override
+		public long checksum(byte[] data, int start, int end) {
+			Objects.checkFromToIndex(start, end, data.length);
+			return org.jacoco.core.internal.data.CRC64.checksum(data, start, end);
+		}
+		
+		@Override
+		public Checksum newChecksum() {
+			return new org.jacoco.core.internal.data.CRC64.Digest();
+		}
+		
+		@Override
+		public String toString() {
+			return "CRC64";
+		}
+		
+	};
+	
+	/**
+	 * CRC32C (Castagnoli) of java.util.zip, which is an intrinsic of JIT that runs on CRC32 
+	 * instructions of processor.<br>
+	 */
+	public final static ChecksumStrategy CRC32C = new ChecksumStrategy() {
+		
+		@Override
+		public long checksum(byte[] data, int start, int end) {
+			Objects.checkFromToIndex(start, end, data.length);
+			CRC32C crc = new CRC32C();
+			crc.update(data, start, end - start);
+			return crc.getValue();
+		}
+		
+		@Override
+		public Checksum newChecksum() {
+			return new CRC32C();
+		}
+		
+		@Override
+		public String toString() {
+			return "CRC32C";
+		}
+		
+	};
+	
+	/**
+	 * Calculate checksum of data[start] to data[end - 1].<br>
+	 * 
+	 * @param data The data
+	 * @param start The first index
+	 * @param end The index after the last
+	 * @return The checksum
+	 * @throws IndexOutOfBoundsException If the range is not in data
+	 */
+	public long checksum(byte[] data, int start, int end);
+	
+	/**
+	 * Create a streaming checksum, which is updated by ranges one by one, so that ranges 
+	 * of different arrays, for example a head and a letter, are checked in one pass without 
+	 * linking them into one array.<br>
+	 * 
+	 * @return The checksum, whose value is the same as checksum(byte[], int, int) of the 
+	 * concatenated ranges
+	 */
+	public Checksum newChecksum();
+	
+	public default long checksum(byte[] data) {
+		return checksum(data, 0, data.length);
+	}
+	
+	public default boolean isDataComplete(long sum, byte[] data, int start, int end) {
+		return checksum(data, start, end) == sum;
+	}
+
+}
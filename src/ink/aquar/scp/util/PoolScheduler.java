@@ -0,0 +1,86 @@
+package ink.aquar.scp.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An implementation of Scheduler.<br>
+ * <br>
+ * This is an asynchronized scheduler that runs tasks on a pool of threads, which is suitable 
+ * for heavy and independent tasks, like asymmetric crypto. Tasks are queued with a bound, 
+ * schedule(Runnable) throws RejectedExecutionException if the queue is full.<br>
+ * <br>
+ * Threads are daemon threads, and exit after idle for a while.<br>
+ * 
+ * @see Scheduler
+ * 
+ * @author Aquarink Studio
+ * @author Kevin Iry
+ * 
+ */
+public class PoolScheduler implements Scheduler {
+	
+	private final static long DEFAULT_TIMEOUT = 1000;
+	private final static TimeUnit DEFAULT_TIME_UNIT = TimeUnit.MILLISECONDS;
+	private final static int DEFAULT_QUEUE_BOUND = 1024;
+	
+	private final ThreadPoolExecutor executor;
+	
+	/**
+	 * Create a PoolScheduler.<br>
+	 * 
+	 * @param poolSize How many tasks can run at the same time
+	 * @param queueBound How many tasks can wait in queue
+	 */
+	public PoolScheduler(int poolSize, int queueBound) {
+		executor = new ThreadPoolExecutor(
+				poolSize, poolSize, 
+				DEFAULT_TIMEOUT, DEFAULT_TIME_UNIT, 
+				new ArrayBlockingQueue<Runnable>(queueBound), 
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "PoolScheduler");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+	}
+	
+	/**
+	 * Create a PoolScheduler with a thread for each processor, and 1024 tasks queue bound.<br>
+	 */
+	public PoolScheduler() {
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_BOUND);
+	}
+	
+	/**
+	 * @throws RejectedExecutionException If the queue is full
+	 */
+	@Override
+	public void schedule(Runnable task) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					task.run();
+				} catch (RuntimeException ex) {
+					System.err.println(
+							"Unhandled exception occured on schedule process"
+							);
+					ex.printStackTrace();
+				}
+			}
+		});
+	}
+	
+	@Override
+	public void clear() {
+		executor.getQueue().clear();
+	}
+	
+}
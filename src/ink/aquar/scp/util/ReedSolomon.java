@@ -0,0 +1,183 @@
+package ink.aquar.scp.util;
+
+import java.util.Arrays;
+
+/**
+ * A systematic Reed Solomon erasure code over GF(256), which adds parity shards to data 
+ * shards, so that any data shards that are lost can be rebuilt from any shards of the same 
+ * number.<br>
+ * <br>
+ * Parity rows are a Cauchy matrix, any square part of which can be inverted, so that the 
+ * code is maximum distance separable as long as there are 256 shards at most.<br>
+ * <br>
+ * All shards of a code have the same length, shorter data should be padded by the caller.<br>
+ * 
+ * @author Aquarink Studio
+ * @author Kevin Iry
+ * 
+ */
+public class ReedSolomon {
+	
+	public final static int MAX_SHARDS = 256;
+	
+	private final static int POLYNOMIAL = 0x11D; // x^8 + x^4 + x^3 + x^2 + 1
+	
+	private final static byte[] EXP = new byte[512];
+	private final static int[] LOG = new int[256];
+	private final static byte[][] MULTIPLY = new byte[256][256];
+	
+	static {
+		int x = 1;
+		for(int i=0;i<255;i++) {
+			EXP[i] = (byte) x;
+			LOG[x] = i;
+			x <<= 1;
+			if(x >= 256) x ^= POLYNOMIAL;
+		}
+		for(int i=255;i<EXP.length;i++) {
+			EXP[i] = EXP[i - 255];
+		}
+		for(int a=1;a<256;a++) {
+			for(int b=1;b<256;b++) {
+				MULTIPLY[a][b] = EXP[LOG[a] + LOG[b]];
+			}
+		}
+	}
+	
+	private final int dataShards;
+	private final int parityShards;
+	private final byte[][] parityRows;
+	
+	public ReedSolomon(int dataShards, int parityShards) {
+		if(dataShards < 1 || parityShards < 0 || dataShards + parityShards > MAX_SHARDS) {
+			throw new IllegalArgumentException("Bad number of shards");
+		}
+		this.dataShards = dataShards;
+		this.parityShards = parityShards;
+		
+		// Row i of parity is 1 / (x + y) of x = dataShards + i and y = 0 to dataShards - 1.
+		parityRows = new byte[parityShards][dataShards];
+		for(int i=0;i<parityShards;i++) {
+			for(int j=0;j<dataShards;j++) {
+				parityRows[i][j] = inverse((dataShards + i) ^ j);
+			}
+		}
+	}
+	
+	public int getDataShards() {
+		return dataShards;
+	}
+	
+	public int getParityShards() {
+		return parityShards;
+	}
+	
+	/**
+	 * Compute parity shards from data shards.<br>
+	 * 
+	 * @param shards Data shards, which are followed by parity shards that are written, 
+	 * all of which have length bytes at least
+	 * @param length Length of shards
+	 */
+	public void encode(byte[][] shards, int length) {
+		if(shards.length != dataShards + parityShards) throw new IllegalArgumentException("Bad number of shards");
+		for(int i=0;i<parityShards;i++) {
+			byte[] parity = shards[dataShards + i];
+			Arrays.fill(parity, 0, length, (byte) 0);
+			for(int j=0;j<dataShards;j++) {
+				multiplyAdd(parityRows[i][j], shards[j], parity, length);
+			}
+		}
+	}
+	
+	/**
+	 * Rebuild data shards that are missing, parity shards that are missing are left out.<br>
+	 * 
+	 * @param shards Data shards and parity shards, which are null if they are missing
+	 * @param length Length of shards
+	 * @return If data shards are complete, which is not if less than getDataShards() shards are present
+	 */
+	public boolean decode(byte[][] shards, int length) {
+		if(shards.length != dataShards + parityShards) throw new IllegalArgumentException("Bad number of shards");
+		
+		// Rows of the encoding matrix for the first shards that are present.
+		int[] rows = new int[dataShards];
+		int count = 0;
+		boolean isComplete = true;
+		for(int i=0;i<shards.length && count<dataShards;i++) {
+			if(shards[i] != null) {
+				rows[count++] = i;
+			} else if(i < dataShards) isComplete = false;
+		}
+		if(isComplete) return true;
+		if(count < dataShards) return false;
+		
+		byte[][] matrix = new byte[dataShards][];
+		for(int r=0;r<dataShards;r++) {
+			if(rows[r] < dataShards) {
+				matrix[r] = new byte[dataShards];
+				matrix[r][rows[r]] = 1;
+			} else matrix[r] = parityRows[rows[r] - dataShards].clone();
+		}
+		byte[][] decoding = invert(matrix);
+		
+		for(int j=0;j<dataShards;j++) {
+			if(shards[j] != null) continue;
+			byte[] data = new byte[length];
+			for(int r=0;r<dataShards;r++) {
+				multiplyAdd(decoding[j][r], shards[rows[r]], data, length);
+			}
+			shards[j] = data;
+		}
+		return true;
+	}
+	
+	private static void multiplyAdd(byte factor, byte[] input, byte[] output, int length) {
+		if(factor == 0) return;
+		byte[] row = MULTIPLY[factor & 0xFF];
+		for(int i=0;i<length;i++) {
+			output[i] ^= row[input[i] & 0xFF];
+		}
+	}
+	
+	private static byte inverse(int value) {
+		return EXP[255 - LOG[value]];
+	}
+	
+	// Gauss-Jordan elimination, the matrix is taken apart.
+	private static byte[][] invert(byte[][] matrix) {
+		int size = matrix.length;
+		byte[][] inverse = new byte[size][size];
+		for(int i=0;i<size;i++) {
+			inverse[i][i] = 1;
+		}
+		for(int column=0;column<size;column++) {
+			int pivot = column;
+			while(matrix[pivot][column] == 0) {
+				if(++pivot == size) throw new IllegalStateException("Singular matrix"); // Not for a Cauchy matrix.
+			}
+			byte[] swap = matrix[pivot];
+			matrix[pivot] = matrix[column];
+			matrix[column] = swap;
+			swap = inverse[pivot];
+			inverse[pivot] = inverse[column];
+			inverse[column] = swap;
+			
+			byte[] scale = MULTIPLY[inverse(matrix[column][column] & 0xFF) & 0xFF];
+			for(int j=0;j<size;j++) {
+				matrix[column][j] = scale[matrix[column][j] & 0xFF];
+				inverse[column][j] = scale[inverse[column][j] & 0xFF];
+			}
+			for(int i=0;i<size;i++) {
+				if(i == column || matrix[i][column] == 0) continue;
+				byte[] factor = MULTIPLY[matrix[i][column] & 0xFF];
+				for(int j=0;j<size;j++) {
+					matrix[i][j] ^= factor[matrix[column][j] & 0xFF];
+					inverse[i][j] ^= factor[inverse[column][j] & 0xFF];
+				}
+			}
+		}
+		return inverse;
+	}
+	
+}
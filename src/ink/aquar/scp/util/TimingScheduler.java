@@ -146,7 +146,7 @@ public class TimingScheduler implements DelayableScheduler {
 			ListIterator<DelayedTask> iterator = queue.listIterator(1);
 			while(iterator.hasNext()) {
 				DelayedTask delayedTask = iterator.next();
-				if(delayedTask.time <= time) {
+				if(delayedTask.time > time) { // Keep the queue in order of time.
 					iterator.previous();
 					iterator.add(new DelayedTask(task, time));
 					break;
@@ -1,26 +1,46 @@
 package ink.aquar.scp.v1;
 
+import java.io.File;
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 import javax.crypto.BadPaddingException;
 
-import org.jacoco.core.internal.data.CRC64;
-
 import ink.aquar.scp.BasicMessenger;
 import ink.aquar.scp.BasicReceptor;
 import ink.aquar.scp.crypto.AESCrypto;
 import ink.aquar.scp.crypto.AsymmetricCrypto;
-import ink.aquar.scp.crypto.Crypto;
+import ink.aquar.scp.crypto.AuthenticatedCrypto.AuthenticatedSession;
+import ink.aquar.scp.crypto.KeyDerivation;
+import ink.aquar.scp.crypto.KeyPairProvider;
+import ink.aquar.scp.crypto.LazyKeyPair;
 import ink.aquar.scp.crypto.RSACrypto;
 import ink.aquar.scp.crypto.SymmetricCrypto;
+import ink.aquar.scp.crypto.SymmetricCryptoSelector;
 import ink.aquar.scp.crypto.AsymmetricCrypto.ByteKeyPair;
+import ink.aquar.scp.util.ByteBufferPool;
 import ink.aquar.scp.util.ByteWrapper;
+import ink.aquar.scp.util.ByteWriter;
+import ink.aquar.scp.util.ChecksumStrategy;
 import ink.aquar.scp.util.DelayableScheduler;
-import ink.aquar.scp.util.ByteWrapper.OutputType;
+import ink.aquar.scp.util.PoolScheduler;
 import ink.aquar.scp.util.QueueScheduler;
+import ink.aquar.scp.util.ReedSolomon;
 import ink.aquar.scp.util.Scheduler;
 import ink.aquar.scp.util.TimingScheduler;
 
@@ -56,17 +76,22 @@ public class SecureDelivery {
 	private final static byte[] EMPTY_BYTE_ARRAY = {};
 	
 	private final static AsymmetricCrypto DEFAULT_ASYM_CRYPTO = new RSACrypto(); // Complete.
-	private final static SymmetricCrypto DEFAULT_SYM_CRYPTO = new AESCrypto(); // Complete.
+	private final static SymmetricCrypto LEGACY_SYM_CRYPTO = new AESCrypto(); // For peers that don't negotiate.
 	
-	private final static byte[] DEFAULT_PUBLIC_KEY; // Complete.
-	private final static byte[] DEFAULT_PRIVATE_KEY; // Complete.
-	static {
-		ByteKeyPair keyPair = new RSACrypto().generateKeyPair();
-		DEFAULT_PRIVATE_KEY = keyPair.privateKey;
-		DEFAULT_PUBLIC_KEY = keyPair.publicKey;
-	}
+	/**
+	 * System property of the file that the default key pair is loaded from, or saved into if 
+	 * the file does not exist. Without it, the default key pair is generated on first use as acceptor.<br>
+	 */
+	public final static String DEFAULT_KEY_FILE_PROPERTY = "ink.aquar.scp.v1.keyFile";
+	
+	private final static KeyPairProvider DEFAULT_KEY_PAIR = new LazyKeyPair(
+			DEFAULT_ASYM_CRYPTO, 
+			System.getProperty(DEFAULT_KEY_FILE_PROPERTY) == null ? null : new File(System.getProperty(DEFAULT_KEY_FILE_PROPERTY))
+			); // Complete.
 	
 	private final static Random RANDOM = new Random();
+	private final static SecureRandom SECURE_RANDOM = new SecureRandom(); // For nonces.
+	private final static int NONCE_LENGTH = 16;
 	
 	private final static byte[] BAD_PACKET = "BAD_PACKET".getBytes();
 	private final static byte[] BAD_PUBLIC_KEY = "BAD_PUBLIC_KEY".getBytes();
@@ -74,18 +99,32 @@ public class SecureDelivery {
 	private final static byte[] TIMEOUT = "TIMEOUT".getBytes();
 	private final static byte[] INVALID_SESSION_KEY = "INVALID_SESSION_KEY".getBytes();
 	private final static byte[] CONNECT_REJECT = "CONNECT_REJECT".getBytes();
+	private final static byte[] BAD_NEGOTIATION = "BAD_NEGOTIATION".getBytes();
+	private final static byte[] HANDSHAKE_FAILURE = "HANDSHAKE_FAILURE".getBytes();
+	
+	private final static byte[] RESUMPTION_SECRET_INFO = "SCP resumption secret".getBytes();
+	private final static byte[] REKEY_INFO = "SCP next session key".getBytes();
 	
 	private final static Scheduler DEFAULT_SCHEDULER = new QueueScheduler(); // Complete.
+	private final static Scheduler DEFAULT_HANDSHAKE_SCHEDULER = new PoolScheduler(); // Complete.
+	private final static TicketCache DEFAULT_TICKET_CACHE = new TicketCache(4096, 600000); // Complete.
+	private final static ByteBufferPool DEFAULT_BUFFER_POOL = new ByteBufferPool(); // Complete.
 	
-	// For asymCrypto
-	private final byte[] publicKey;
-	private final byte[] privateKey;
+	// For asymCrypto, acquired on first use as acceptor.
+	private final KeyPairProvider keyPairProvider;
+	private ByteKeyPair keyPair;
+	private AsymmetricCrypto.Decryptor decryptor; // Bound to private key.
 	
 	private byte[] sessionKey; // For symCrypto.
+	private SymmetricCrypto.Session symSession; // Bound to sessionKey.
 	private long sessionId;
 	
 	private final AsymmetricCrypto asymCrypto;
-	private final SymmetricCrypto symCrypto;
+	private final SymmetricCrypto symCrypto; // Null if negotiate by SymmetricCryptoSelector.
+	
+	private SymmetricCrypto sessionCrypto; // The symCrypto that the connection uses.
+	private long negotiation; // Offer on requester, agreement on acceptor, see Negotiation.
+	private long offer; // Requester side, which agreement is checked against, as offer is resent with it.
 	
 	private final BasicMessenger basicMessenger; // Complete.
 	
@@ -124,6 +163,7 @@ public class SecureDelivery {
 	private TimeoutTask connectionReaper;
 	
 	public final TimeoutProfile timeoutProfile = new TimeoutProfile(); // Complete.
+	public final DeliveryProfile deliveryProfile = new DeliveryProfile(); // Complete.
 	
 	private final Map<String, SecureReceiver> receivers = new HashMap<>(); // Complete.
 	
@@ -142,22 +182,65 @@ public class SecureDelivery {
 	
 	private final DelayableScheduler delayableScheduler = new TimingScheduler();
 	
+	private volatile Scheduler handshakeScheduler = DEFAULT_HANDSHAKE_SCHEDULER;
+	
+	private HandshakeWork handshakeWork; // Asymmetric crypto that is running on handshakeScheduler.
+	
+	private volatile ByteBufferPool bufferPool = DEFAULT_BUFFER_POOL; // Outbound packets are encoded into.
+	private final PacketView packetView = new PacketView(); // Inbound packets are resolved by, on scheduler.
+	
+	private volatile TicketCache ticketCache = DEFAULT_TICKET_CACHE; // Acceptor side, null to not issue tickets.
+	private TicketCache.Ticket ticket; // Requester side, issued by acceptor for next connect.
+	private Resumption resumption; // Resuming, or resumed session.
+	
+	private int epoch; // Of sessionKey, increased by every rekey.
+	private SymmetricCrypto.Session retiringSession; // Of last epoch, decrypts in overlap window.
+	private Rekey rekey; // Offered, waiting for confirm.
+	
+	private Compression compression; // Set up on first use if compression is negotiated.
+	
+	private Batch batch; // Data that is gathered in flush window.
+	private final BatchTags batchTags = new BatchTags(); // Of sent batches, by their first sequences.
+	private Confirmations confirmations; // Received tags that are not confirmed yet.
+	private final Map<Long, Reassembly> reassemblies = new HashMap<>(); // Of fragmented data, by their tags.
+	private int reassemblySize; // Bytes of all received fragments and their arrays.
+	private long nextSequence; // Of sent data, if retransmission is negotiated.
+	private final SentTags sentTags = new SentTags(); // Of sent data that is not tracked, by their sequences.
+	private final Map<Long, Unconfirmed> unconfirmed = new LinkedHashMap<>(); // Reliably sent or counted data, by their sequences.
+	private final ArrayDeque<Unconfirmed> queued = new ArrayDeque<>(); // Beyond the window.
+	private long inFlight; // Bytes of data that are sent and not confirmed or lost.
+	private long credit = Long.MAX_VALUE; // Advertised by another side.
+	private RoundTrip roundTrip; // Measured since the first reliable or counted send.
+	private Congestion congestion;
+	private ParityGroup parityGroup; // Of sent data packets, which parity is not sent for yet.
+	private long nextParityGroup;
+	private final RecoveryGroups recoveryGroups = new RecoveryGroups(); // Of received data packets, by their groups.
+	private final ReceivedSequences receivedSequences = new ReceivedSequences(); // Recently received, to drop resent data that is received.
+	private TimeoutTask rekeyTimer;
+	private TimeoutTask keyRetirer;
+	
 	/**
-	 * Construct a SecureDelivery by default public key and private key, which are auto generated, 
-	 * RSA as asymmetric crypto, and AES 128 as symmetric crypto, 
+	 * Construct a SecureDelivery by default public key and private key, which are generated on 
+	 * first use as acceptor or loaded from the file of DEFAULT_KEY_FILE_PROPERTY, and shared by 
+	 * SecureDelivery that use default keys, RSA as asymmetric crypto, negotiated symmetric crypto, 
 	 * and SecureDelivery public schedule bus as scheduler to sync packets.<br>
+	 * <br>
+	 * Symmetric crypto is negotiated with another SecureDelivery from suites of SymmetricCryptoSelector, 
+	 * where the acceptor prefers its default suite, and AES 128 is used if another SecureDelivery 
+	 * does not negotiate.<br>
 	 * @param channelName The channel name of the SecureDelivery's registry on basicMessenger.
 	 * @param basicMessenger The messenger that provide simple IO for delivery.
 	 */
 	public SecureDelivery(String channelName, BasicMessenger basicMessenger) {
 		this(
 				channelName, basicMessenger, 
-				DEFAULT_PUBLIC_KEY, DEFAULT_PRIVATE_KEY, 
-				DEFAULT_ASYM_CRYPTO, DEFAULT_SYM_CRYPTO
+				DEFAULT_KEY_PAIR, 
+				DEFAULT_ASYM_CRYPTO, null, DEFAULT_SCHEDULER
 				);
 	}
 	
 	/**
+	 * Construct a SecureDelivery by default keys and cryptos, see SecureDelivery(String, BasicMessenger).<br>
 	 * 
 	 * @param channelName The channel name of the SecureDelivery's registry on basicMessenger.
 	 * @param basicMessenger The messenger that provide simple IO for delivery.
@@ -166,8 +249,8 @@ public class SecureDelivery {
 	public SecureDelivery(String channelName, BasicMessenger basicMessenger, Scheduler scheduler) {
 		this(
 				channelName, basicMessenger, 
-				DEFAULT_PUBLIC_KEY, DEFAULT_PRIVATE_KEY, 
-				DEFAULT_ASYM_CRYPTO, DEFAULT_SYM_CRYPTO, 
+				DEFAULT_KEY_PAIR, 
+				DEFAULT_ASYM_CRYPTO, null, 
 				scheduler);
 	}
 	
@@ -182,18 +265,93 @@ public class SecureDelivery {
 				);
 	}
 	
+	/**
+	 * 
+	 * @param channelName The channel name of the SecureDelivery's registry on basicMessenger.
+	 * @param basicMessenger The messenger that provide simple IO for delivery.
+	 * @param publicKey The public key offered to requesters.
+	 * @param privateKey The private key to decrypt session keys.
+	 * @param asymCrypto The asymmetric crypto of the keys.
+	 * @param symCrypto The symmetric crypto, which should be the same as another SecureDelivery's, 
+	 * or null to negotiate one from suites of SymmetricCryptoSelector.
+	 * @param scheduler The scheduler to sync packets.
+	 */
 	public SecureDelivery(
 			String channelName, BasicMessenger basicMessenger, 
 			byte[] publicKey, byte[] privateKey, 
 			AsymmetricCrypto asymCrypto, SymmetricCrypto symCrypto, Scheduler scheduler) {
+		this(
+				channelName, basicMessenger, 
+				new FixedKeyPair(new ByteKeyPair(publicKey, privateKey)), 
+				asymCrypto, symCrypto, scheduler
+				);
+	}
+	
+	/**
+	 * 
+	 * @param channelName The channel name of the SecureDelivery's registry on basicMessenger.
+	 * @param basicMessenger The messenger that provide simple IO for delivery.
+	 * @param keyPairProvider The provider of the key pair, which is acquired on first use as acceptor 
+	 * and kept by this SecureDelivery, a KeyPairPool gives every SecureDelivery its own key pair.
+	 * @param asymCrypto The asymmetric crypto of the keys.
+	 * @param symCrypto The symmetric crypto, which should be the same as another SecureDelivery's, 
+	 * or null to negotiate one from suites of SymmetricCryptoSelector.
+	 * @param scheduler The scheduler to sync packets.
+	 */
+	public SecureDelivery(
+			String channelName, BasicMessenger basicMessenger, 
+			KeyPairProvider keyPairProvider, 
+			AsymmetricCrypto asymCrypto, SymmetricCrypto symCrypto, Scheduler scheduler) {
 		basicReceptorChannelName = channelName;
 		this.basicMessenger = basicMessenger;
 		basicMessenger.registerReceptor(channelName, new LowLevelReceptor());
-		this.publicKey = publicKey;
-		this.privateKey = privateKey;
+		this.keyPairProvider = keyPairProvider;
 		this.asymCrypto = asymCrypto;
 		this.symCrypto = symCrypto;
 		this.scheduler = scheduler;
+		if(symCrypto == null) SymmetricCryptoSelector.startCalibration(); // Not to calibrate on the first connection.
+	}
+	
+	/**
+	 * Set the scheduler that runs asymmetric crypto of handshakes, which are key pair acquiring, 
+	 * session key encryption and decryption, so that they would not hold up the scheduler that 
+	 * syncs packets.<br>
+	 * <br>
+	 * By default it is a PoolScheduler shared by all SecureDelivery, with a thread for each 
+	 * processor. The results are fed back by the scheduler to sync packets, and a handshake 
+	 * packet is dropped if the handshake scheduler rejects it, then wait for another side to resend.<br>
+	 * 
+	 * @param handshakeScheduler The scheduler to run asymmetric crypto, for example a PoolScheduler 
+	 * with specific pool size and queue bound.
+	 */
+	public void setHandshakeScheduler(Scheduler handshakeScheduler) {
+		if(handshakeScheduler == null) throw new NullPointerException();
+		this.handshakeScheduler = handshakeScheduler;
+	}
+	
+	/**
+	 * Set the cache of session tickets that this SecureDelivery issues as acceptor, which 
+	 * are presented by requesters to resume sessions, see connect(byte[], boolean).<br>
+	 * <br>
+	 * By default it is a cache shared by all SecureDelivery, which keeps 4096 tickets for 10 minutes.<br>
+	 * 
+	 * @param ticketCache The cache, or null to not issue or accept tickets.
+	 */
+	public void setTicketCache(TicketCache ticketCache) {
+		this.ticketCache = ticketCache;
+	}
+	
+	/**
+	 * Set the pool of buffers that outbound packets are encoded into. Buffers are passed to 
+	 * BasicMessenger.send(ByteBuffer), and recycled as soon as it returns.<br>
+	 * <br>
+	 * By default it is a ByteBufferPool shared by all SecureDelivery.<br>
+	 * 
+	 * @param bufferPool The pool
+	 */
+	public void setBufferPool(ByteBufferPool bufferPool) {
+		if(bufferPool == null) throw new NullPointerException();
+		this.bufferPool = bufferPool;
 	}
 	
 	//////////////////////////////////////////////// Any side
@@ -205,11 +363,50 @@ public class SecureDelivery {
 			public void run() {
 				if(!isStageConsistent(Stages.CONNECTED)) return;
 				try {
-					sendData(tag, data);
+					dispatchData(tag, data);
+				} catch (InvalidKeyException ex) {
+					windUp(INVALID_SESSION_KEY);
+				} catch (BadPaddingException ex) {
+					ex.printStackTrace();
+				}
+			}
+			
+		});
+	}
+	
+	/**
+	 * Send what a writer has written, without copying it out.<br>
+	 * <br>
+	 * The writer is taken by the delivery and recycled by ByteWriter.recycle(ByteWriter) once 
+	 * it is sent, it should not be used after.<br>
+	 * 
+	 * @param tag The tag
+	 * @param writer The writer
+	 */
+	public void send(long tag, ByteWriter writer) {
+		scheduler.schedule(new Runnable() {
+			
+			@Override
+			public void run() {
+				try {
+					if(!isStageConsistent(Stages.CONNECTED)) return;
+					if(!isReliable() && !isBatching() && (!isFlowControlled() || (queued.isEmpty() && fits(writer.length())))) {
+						long sequence;
+						if(isFlowControlled()) {
+							Unconfirmed entry = new Unconfirmed(tag, null, writer.length());
+							track(entry);
+							sequence = entry.sequence;
+						} else sequence = sequence(tag);
+						sendLetter(Operations.SEND_DATA, sequence, tag, writer.array(), 0, writer.length());
+						return;
+					}
+					dispatchData(tag, writer.toBytes()); // Kept for resends, queued or gathered for a while.
 				} catch (InvalidKeyException ex) {
 					windUp(INVALID_SESSION_KEY);
 				} catch (BadPaddingException ex) {
 					ex.printStackTrace();
+				} finally {
+					ByteWriter.recycle(writer);
 				}
 			}
 			
@@ -224,30 +421,76 @@ public class SecureDelivery {
 	}
 	
 	public void connect(byte[] datagram) {
+		connect(datagram, false);
+	}
+	
+	/**
+	 * Connect to another SecureDelivery, and try to resume the last session if tryResumption, 
+	 * when a session ticket was issued by another SecureDelivery in the last session.<br>
+	 * <br>
+	 * A resumed session derives a new session key from the ticket in one round trip, without 
+	 * offering public key and sending session key. If the ticket is rejected, or the request 
+	 * of resumption is timeout, it falls back to a full handshake.<br>
+	 * 
+	 * @param datagram The datagram that is sent to another SecureDelivery for connect.
+	 * @param tryResumption Whether to resume the last session.
+	 */
+	public void connect(byte[] datagram, boolean tryResumption) {
 		scheduler.schedule(new Runnable() {
 			
 			@Override
 			public void run() {
 				if(!isStageConsistent(Stages.NOT_CONNECTED)) return;
 				
-				setStage(Stages.CONNECT_REQUEST_SENT);
 				isAcceptor = false;
-				changeSessionId();
-				
-				sendConnect(datagram);
-				
-				TimeoutTask standByTask = new WindUpTask();
-				delayableScheduler.schedule(standByTask, timeoutProfile.publicKeyOfferWaitTimeout.get());
-				standByTimeout = standByTask;
+				if(tryResumption && ticket != null && !ticket.isExpired(System.currentTimeMillis())) {
+					resumption = new Resumption(ticket, generateNonce());
+				}
+				ticket = null; // Once.
 				
-				TimeoutTask timeoutTask = new ConnectTimeoutTask(0, datagram);
-				delayableScheduler.schedule(timeoutTask, timeoutProfile.connectRequestTimeout.get());
-				nextTimeout = timeoutTask;
+				requestConnect(datagram);
 			}
 			
 		});
 	}
 	
+	// Requester side
+	private void requestConnect(byte[] datagram) {
+		setStage(Stages.CONNECT_REQUEST_SENT);
+		changeSessionId();
+		if(resumption != null) {
+			sessionCrypto = resumption.ticket.crypto;
+			negotiation = resumption.ticket.negotiation;
+		} else {
+			negotiation = offerNegotiation();
+		}
+		offer = negotiation;
+		
+		sendConnectRequest(datagram);
+		
+		TimeoutTask standByTask = new WindUpTask();
+		delayableScheduler.schedule(standByTask, timeoutProfile.publicKeyOfferWaitTimeout.get());
+		standByTimeout = standByTask;
+		
+		TimeoutTask timeoutTask = new ConnectTimeoutTask(0, datagram);
+		delayableScheduler.schedule(timeoutTask, connectRequestTimeout());
+		nextTimeout = timeoutTask;
+	}
+	
+	// Requester side
+	private void fallBackFromResumption(byte[] datagram) {
+		resumption = null;
+		sessionCrypto = null;
+		standByTimeout.cancel();
+		nextTimeout.cancel();
+		requestConnect(datagram);
+	}
+	
+	private int connectRequestTimeout() {
+		return resumption != null ? 
+				timeoutProfile.resumeSessionTimeout.get() : timeoutProfile.connectRequestTimeout.get();
+	}
+	
 	/**
 	 * The task that wait for acceptor offer public key
 	 */
@@ -266,11 +509,15 @@ public class SecureDelivery {
 				@Override
 				public void run() {
 					if(isCancelled) return;
-					if(timeoutLeft < timeoutProfile.connectRequestResends.get()) {
-						sendConnect(datagram);
+					int resends = resumption != null ? 
+							timeoutProfile.resumeSessionResends.get() : timeoutProfile.connectRequestResends.get();
+					if(timeoutLeft < resends) {
+						sendConnectRequest(datagram);
 						TimeoutTask timeoutTask = new ConnectTimeoutTask(timeoutLeft + 1, datagram);
-						delayableScheduler.schedule(timeoutTask, timeoutProfile.connectRequestTimeout.get());
+						delayableScheduler.schedule(timeoutTask, connectRequestTimeout());
 						nextTimeout = timeoutTask;
+					} else if(resumption != null) {
+						fallBackFromResumption(datagram);
 					} else {
 						windUp(TIMEOUT);
 					}
@@ -294,10 +541,16 @@ public class SecureDelivery {
 			public void run() {
 				if(!isAcceptor) return;
 				if(!isStageConsistent(Stages.CONNECT_REQUEST_SENT)) return;
-				if(confirmation) {
+				if(confirmation && resumption != null) {
+					confirmResumption();
+				} else if(confirmation) {
 					setStage(Stages.PUBLIC_KEY_OFFERED);
 					
-					sendPublicKeyOffer(publicKey);
+					if(keyPair != null) {
+						sendPublicKeyOffer(keyPair.publicKey);
+					} else {
+						new KeyPairAcquireWork().submit();
+					}
 					
 					TimeoutTask standByTask = new WindUpTask();
 					delayableScheduler.schedule(standByTask, timeoutProfile.startSessionWaitTimeout.get());
@@ -330,7 +583,11 @@ public class SecureDelivery {
 				public void run() {
 					if(isCancelled) return;
 					if(timeoutLeft < timeoutProfile.publicKeyOfferResends.get()) {
-						sendPublicKeyOffer(publicKey);
+						if(keyPair != null) {
+							sendPublicKeyOffer(keyPair.publicKey);
+						} else if(handshakeWork == null) {
+							new KeyPairAcquireWork().submit();
+						}
 						TimeoutTask timeoutTask = new PublicKeyTimeoutTask(timeoutLeft + 1);
 						delayableScheduler.schedule(timeoutTask, timeoutProfile.publicKeyOfferTimeout.get());
 						nextTimeout = timeoutTask;
@@ -441,6 +698,13 @@ public class SecureDelivery {
 			@Override
 			public void run() {
 				if(!isStageConsistent(Stages.CONNECTED)) return;
+				try {
+					flushBatch();
+				} catch (InvalidKeyException | BadPaddingException ex) {
+					// Winding up anyway.
+				}
+				flushParity();
+				flushConfirmations();
 				windUp(datagram);
 			}
 			
@@ -469,6 +733,30 @@ public class SecureDelivery {
 		});
 	}
 	
+	//////////////////////////////////////////////// Any side
+	
+	/**
+	 * Rotate the session key in place, without tearing the connection down.<br>
+	 * <br>
+	 * Both SecureDelivery derive the next session key from the current one, and packets 
+	 * of the last key are still decrypted in rekeyOverlap of timeoutProfile. Session key is 
+	 * also rotated every rekeyInterval of timeoutProfile. If both SecureDelivery rekey at 
+	 * the same time, the one of acceptor is taken.<br>
+	 * <br>
+	 * It does nothing if another SecureDelivery does not negotiate rekeying.<br>
+	 */
+	public void rekey() {
+		scheduler.schedule(new Runnable() {
+			
+			@Override
+			public void run() {
+				if(!isStageConsistent(Stages.CONNECTED)) return;
+				offerRekey();
+			}
+			
+		});
+	}
+	
 	//////////////////////////////////////////////// <<<<<<<<<
 	
 	private final class WindUpTask extends TimeoutTask {
@@ -490,97 +778,473 @@ public class SecureDelivery {
 		
 	}
 	
-	private boolean isStageConsistent(int stage) {
-		return connectionStage == stage;
-	}
-	
-	private void setStage(int stage) {
-		connectionStage = stage;
-	}
-	
-	private void changeSessionId() {
-		for(;;) {
-			long randomLong = RANDOM.nextLong();
-			if(randomLong != sessionId) {
-				sessionId = randomLong;
-				break;
+	/**
+	 * Asymmetric crypto of handshake, which works on handshakeScheduler, and then feeds the result 
+	 * back on scheduler if the connection is still on the same session and stage. If the work 
+	 * throws, the connection is wound up instead.
+	 */
+	private abstract class HandshakeWork implements Runnable {
+		
+		private final long workSessionId = sessionId;
+		private final int workStage = connectionStage;
+		
+		private boolean isFailed;
+		
+		/**
+		 * Works on handshakeScheduler, which should not touch the connection.
+		 */
+		protected abstract void work();
+		
+		/**
+		 * Feeds back on scheduler.
+		 */
+		protected abstract void feedBack();
+		
+		public void submit() {
+			handshakeWork = this;
+			try {
+				handshakeScheduler.schedule(this);
+			} catch (RejectedExecutionException ex) {
+				handshakeWork = null;
 			}
 		}
-	}
-	
-	
-	public void registerReceiver(String channelName, SecureReceiver receiver) {
-		synchronized (receivers) {
-			receivers.put(channelName, receiver);
+		
+		@Override
+		public void run() {
+			isFailed = true;
+			try {
+				work();
+				isFailed = false;
+			} catch (RuntimeException ex) {
+				ex.printStackTrace(); // Of a custom KeyPairProvider or AsymmetricCrypto.
+			} finally {
+				scheduler.schedule(new Runnable() {
+					@Override
+					public void run() {
+						if(handshakeWork != HandshakeWork.this) return;
+						handshakeWork = null;
+						if(sessionId != workSessionId || !isStageConsistent(workStage)) return;
+						if(isFailed) {
+							windUp(HANDSHAKE_FAILURE);
+						} else feedBack();
+					}
+				});
+			}
 		}
+		
 	}
 	
-	public void unregisterReceiver(String channelName) {
-		synchronized (receivers) {
-			receivers.remove(channelName);
+	// Acceptor side
+	private final class KeyPairAcquireWork extends HandshakeWork {
+		
+		private final KeyPairProvider provider = keyPairProvider;
+		
+		private ByteKeyPair acquiredKeyPair;
+		private AsymmetricCrypto.Decryptor acquiredDecryptor;
+		
+		@Override
+		protected void work() {
+			acquiredKeyPair = provider.get();
+			acquiredDecryptor = asymCrypto.createDecryptor(acquiredKeyPair.privateKey);
 		}
-	}
-	
-	
-	private void broadcastReceive(long tag, byte[] data) {
-		synchronized (receivers) {
-			for(Entry<String, SecureReceiver> entry : receivers.entrySet()) {
-				byte[] clonedData = cloneBytes(data);
-				try {
-					entry.getValue().receive(tag, clonedData);
-				} catch (RuntimeException ex) {
-					System.err.println(
-							"Unhandled exception occured on receiving method \"receive(int, byte[])\" of receiver \""+ 
-									entry.getKey() +"\"");
-					ex.printStackTrace();
-				}
+		
+		@Override
+		protected void feedBack() {
+			if(keyPair == null) {
+				keyPair = acquiredKeyPair;
+				decryptor = acquiredDecryptor;
 			}
+			sendPublicKeyOffer(keyPair.publicKey);
 		}
+		
 	}
 	
-	private void broadcastPostConfirm(long tag) {
-		synchronized (receivers) {
-			for(Entry<String, SecureReceiver> entry : receivers.entrySet()) {
-				try {
-					entry.getValue().postConfirm(tag);
-				} catch (RuntimeException ex) {
-					System.err.println(
-							"Unhandled exception occured on receiving method \"postConfirm(int)\" of receiver \""+ 
-									entry.getKey() +"\"");
-					ex.printStackTrace();
-				}
+	// Requester side
+	private final class SessionKeyEncryptWork extends HandshakeWork {
+		
+		private final SymmetricCrypto crypto = sessionCrypto;
+		private final byte[] publicKey;
+		
+		private byte[] generatedSessionKey;
+		private byte[] encryptedKey;
+		private SymmetricCrypto.Session session;
+		
+		public SessionKeyEncryptWork(byte[] publicKey) {
+			this.publicKey = publicKey;
+		}
+		
+		@Override
+		protected void work() {
+			try {
+				generatedSessionKey = crypto.generateKey();
+				encryptedKey = asymCrypto.encrypt(generatedSessionKey, publicKey);
+				session = crypto.createSession(generatedSessionKey);
+			} catch (InvalidKeyException | BadPaddingException ex) {
+				session = null;
+			}
+		}
+		
+		@Override
+		protected void feedBack() {
+			if(session == null) {
+				windUp(BAD_PUBLIC_KEY);
+				return;
 			}
+			sessionKey = generatedSessionKey;
+			encryptedSessionKey = encryptedKey;
+			symSession = session;
+			
+			clearBrokenPreRequests();
+			
+			standByTimeout.cancel();
+			nextTimeout.cancel();
+			
+			setStage(Stages.PUBLIC_KEY_OFFERED);
+			
+			broadcastOnPublicKeyRespond(publicKey);
 		}
+		
 	}
 	
-	private void broadcastPostBroken(long tag) {
-		synchronized (receivers) {
-			for(Entry<String, SecureReceiver> entry : receivers.entrySet()) {
-				try {
-					entry.getValue().postBroken(tag);
-				} catch (RuntimeException ex) {
-					System.err.println(
-							"Unhandled exception occured on receiving method \"postBroken(int)\" of receiver \""+ 
-									entry.getKey() +"\"");
-					ex.printStackTrace();
-				}
+	// Acceptor side
+	private final class SessionKeyDecryptWork extends HandshakeWork {
+		
+		private final SymmetricCrypto crypto = sessionCrypto;
+		private final AsymmetricCrypto.Decryptor keyDecryptor = decryptor;
+		private final byte[] encryptedKey;
+		
+		private byte[] decryptedSessionKey;
+		private byte[] verification;
+		private SymmetricCrypto.Session session;
+		
+		public SessionKeyDecryptWork(byte[] encryptedKey) {
+			this.encryptedKey = encryptedKey;
+		}
+		
+		@Override
+		protected void work() {
+			try {
+				decryptedSessionKey = keyDecryptor.decrypt(encryptedKey);
+				session = crypto.createSession(decryptedSessionKey);
+				verification = session.encrypt(decryptedSessionKey);
+			} catch (InvalidKeyException | BadPaddingException ex) {
+				session = null;
+			}
+		}
+		
+		@Override
+		protected void feedBack() {
+			if(session == null) {
+				windUp(BAD_SESSION_KEY);
+				return;
+			}
+			sessionKey = decryptedSessionKey;
+			encryptedSessionKey = verification;
+			symSession = session;
+			
+			clearBrokenPreRequests();
+			
+			standByTimeout.cancel();
+			nextTimeout.cancel();
+			
+			setStage(Stages.SESSION_VERIFICATION_SENT);
+			
+			try {
+				sendConfirmSession(encryptedSessionKey);
+			} catch (InvalidKeyException | BadPaddingException ex) {
+				ex.printStackTrace();
 			}
+			
+			TimeoutTask timeoutTask = new ConfirmSessionTimeoutTask(0);
+			delayableScheduler.schedule(timeoutTask, timeoutProfile.connectionEstablishTimeout.get());
+			nextTimeout = timeoutTask;
 		}
+		
 	}
 	
-	private void broadcastOnConnect(byte[] datagram) {
-		synchronized (receivers) {
-			for(Entry<String, SecureReceiver> entry : receivers.entrySet()) {
-				byte[] clonedDatagram = cloneBytes(datagram);
-				try {
-					entry.getValue().onConnect(clonedDatagram);
-				} catch (RuntimeException ex) {
-					System.err.println(
-							"Unhandled exception occured on receiving method \"onConnect(byte[])\" of receiver \""+ 
-									entry.getKey() +"\"");
-					ex.printStackTrace();
-				}
-			}
+	private final static class FixedKeyPair implements KeyPairProvider {
+		
+		private final ByteKeyPair keyPair;
+		
+		public FixedKeyPair(ByteKeyPair keyPair) {
+			this.keyPair = keyPair;
+		}
+		
+		@Override
+		public ByteKeyPair get() {
+			return keyPair;
+		}
+		
+	}
+	
+	/**
+	 * Resumption of a session by a ticket, where both sides prove that they know the 
+	 * secret of the ticket, and derive the new session key from it with both nonces.
+	 */
+	private final static class Resumption {
+		
+		private final static byte[] REQUEST_LABEL = "SCP resume request".getBytes();
+		private final static byte[] CONFIRM_LABEL = "SCP resume confirm".getBytes();
+		private final static byte[] SESSION_KEY_INFO = "SCP resumed session key".getBytes();
+		
+		public final TicketCache.Ticket ticket;
+		public final byte[] requesterNonce;
+		public byte[] acceptorNonce;
+		
+		public Resumption(TicketCache.Ticket ticket, byte[] requesterNonce) {
+			this.ticket = ticket;
+			this.requesterNonce = requesterNonce;
+		}
+		
+		public byte[] requestProof(long sessionId) {
+			return prove(REQUEST_LABEL, toBytes(sessionId), ticket.id, requesterNonce);
+		}
+		
+		public byte[] confirmProof(long sessionId) {
+			return prove(CONFIRM_LABEL, toBytes(sessionId), requesterNonce, acceptorNonce);
+		}
+		
+		private static byte[] toBytes(long sessionId) {
+			byte[] bytes = new byte[ByteWrapper.LONG_LENGTH];
+			ByteWrapper.putLong(sessionId, bytes, 0);
+			return bytes;
+		}
+		
+		public byte[] deriveSessionKey() throws InvalidKeyException {
+			byte[] salt = ByteWrapper.linkAll(Arrays.asList(requesterNonce, acceptorNonce));
+			return KeyDerivation.derive(ticket.secret, salt, SESSION_KEY_INFO, ticket.keyLength);
+		}
+		
+		private byte[] prove(byte[]... data) {
+			try {
+				return KeyDerivation.hmac(ticket.secret, data);
+			} catch (InvalidKeyException ex) {
+				throw new IllegalStateException(ex); // Secret is always a valid HMAC key.
+			}
+		}
+		
+	}
+	
+	private boolean isStageConsistent(int stage) {
+		return connectionStage == stage;
+	}
+	
+	private void setStage(int stage) {
+		connectionStage = stage;
+	}
+	
+	// Requester side
+	private long offerNegotiation() {
+		long offer = Negotiation.RESUMPTION | Negotiation.REKEY | Negotiation.CRC32C 
+				| Negotiation.COMPACT_HEADER | Negotiation.BATCHING | Negotiation.CONFIRM_RANGES 
+				| Negotiation.FRAGMENTATION | Negotiation.RETRANSMISSION | Negotiation.FLOW_CONTROL;
+		int dataShards = Math.min(deliveryProfile.fecDataShards.get(), ReedSolomon.MAX_SHARDS - 1);
+		int parityShards = Math.min(deliveryProfile.fecParityShards.get(), ReedSolomon.MAX_SHARDS - dataShards);
+		if(dataShards > 0 && parityShards > 0) {
+			offer |= Negotiation.FORWARD_ERROR_CORRECTION 
+					| ((long) dataShards << Negotiation.DATA_SHARDS_SHIFT) | ((long) parityShards << Negotiation.PARITY_SHARDS_SHIFT);
+		}
+		if(deliveryProfile.compression.get()) {
+			offer |= Negotiation.COMPRESSION 
+					| ((long) Compression.dictionaryId(deliveryProfile.compressionDictionary.get()) << Negotiation.DICTIONARY_SHIFT);
+		}
+		if(symCrypto != null) return offer;
+		return offer | (SymmetricCryptoSelector.getAvailableMask() & Negotiation.SUITES_MASK);
+	}
+	
+	// Acceptor side
+	private long acceptNegotiation(long offer) {
+		long features = offer & Negotiation.FEATURES_MASK;
+		if(ticketCache == null) features &= ~Negotiation.RESUMPTION;
+		if(deliveryProfile.compression.get()) {
+			long dictionaryId = Compression.dictionaryId(deliveryProfile.compressionDictionary.get());
+			if(dictionaryId != 0 && (offer & Negotiation.DICTIONARY_MASK) >>> Negotiation.DICTIONARY_SHIFT == dictionaryId) {
+				features |= dictionaryId << Negotiation.DICTIONARY_SHIFT; // Same dictionary.
+			}
+		} else features &= ~Negotiation.COMPRESSION;
+		
+		// The less shards of both sides.
+		int dataShards = Math.min((int) (offer >>> Negotiation.DATA_SHARDS_SHIFT) & 0xFF, deliveryProfile.fecDataShards.get());
+		int parityShards = Math.min((int) (offer >>> Negotiation.PARITY_SHARDS_SHIFT) & 0xFF, deliveryProfile.fecParityShards.get());
+		if((features & Negotiation.FORWARD_ERROR_CORRECTION) != 0 && dataShards > 0 && parityShards > 0 
+				&& dataShards + parityShards <= ReedSolomon.MAX_SHARDS) {
+			features |= ((long) dataShards << Negotiation.DATA_SHARDS_SHIFT) | ((long) parityShards << Negotiation.PARITY_SHARDS_SHIFT);
+		} else features &= ~Negotiation.FORWARD_ERROR_CORRECTION;
+		
+		sessionCrypto = symCrypto;
+		if(symCrypto != null) return features;
+		sessionCrypto = LEGACY_SYM_CRYPTO;
+		
+		int offeredSuites = (int) (offer & Negotiation.SUITES_MASK);
+		if(offeredSuites == 0) return features;
+		SymmetricCryptoSelector.Suite suite = SymmetricCryptoSelector.choose(offeredSuites);
+		if(suite == null) return features;
+		sessionCrypto = suite.crypto;
+		return features | (suite.id & Negotiation.SUITES_MASK);
+	}
+	
+	// Requester side
+	private boolean agreeNegotiation(long agreement) {
+		if((agreement & Negotiation.FEATURES_MASK & ~offer) != 0) return false; // Not offered.
+		long dictionaryId = agreement & Negotiation.DICTIONARY_MASK;
+		if(dictionaryId != 0 && (dictionaryId != (offer & Negotiation.DICTIONARY_MASK) 
+				|| (agreement & Negotiation.COMPRESSION) == 0)) return false;
+		if((agreement & Negotiation.FORWARD_ERROR_CORRECTION) != 0) {
+			long dataShards = (agreement >>> Negotiation.DATA_SHARDS_SHIFT) & 0xFF;
+			long parityShards = (agreement >>> Negotiation.PARITY_SHARDS_SHIFT) & 0xFF;
+			if(dataShards < 1 || dataShards > ((offer >>> Negotiation.DATA_SHARDS_SHIFT) & 0xFF) 
+					|| parityShards < 1 || parityShards > ((offer >>> Negotiation.PARITY_SHARDS_SHIFT) & 0xFF)) return false;
+		} else if((agreement & Negotiation.SHARDS_MASK) != 0) return false;
+		
+		sessionCrypto = symCrypto;
+		if(symCrypto == null) {
+			sessionCrypto = LEGACY_SYM_CRYPTO;
+			
+			int suiteId = (int) (agreement & Negotiation.SUITES_MASK);
+			if(suiteId != 0) {
+				SymmetricCryptoSelector.Suite suite = SymmetricCryptoSelector.forId(suiteId);
+				if(suite == null || (offer & (1 << suiteId)) == 0) return false;
+				sessionCrypto = suite.crypto;
+			}
+		}
+		negotiation = agreement;
+		return true;
+	}
+	
+	private boolean isNegotiated(long feature) {
+		return (negotiation & feature) != 0;
+	}
+	
+	private boolean isBatching() {
+		return isNegotiated(Negotiation.BATCHING) && deliveryProfile.batchWindow.get() > 0;
+	}
+	
+	private boolean isReliable() {
+		return isNegotiated(Negotiation.RETRANSMISSION) && deliveryProfile.reliable.get();
+	}
+	
+	private int dataShards() {
+		return (int) (negotiation >>> Negotiation.DATA_SHARDS_SHIFT) & 0xFF;
+	}
+	
+	private int parityShards() {
+		return (int) (negotiation >>> Negotiation.PARITY_SHARDS_SHIFT) & 0xFF;
+	}
+	
+	// Counted data is tracked by sequences, which come with retransmission.
+	private boolean isFlowControlled() {
+		return isNegotiated(Negotiation.FLOW_CONTROL) && isSequenced() && deliveryProfile.flowControl.get();
+	}
+	
+	// Data packets are tagged by sequences of the connection rather than tags of data.
+	private boolean isSequenced() {
+		return isNegotiated(Negotiation.RETRANSMISSION);
+	}
+	
+	private static byte[] generateNonce() {
+		byte[] nonce = new byte[NONCE_LENGTH];
+		SECURE_RANDOM.nextBytes(nonce);
+		return nonce;
+	}
+	
+	private void changeSessionId() {
+		for(;;) {
+			long randomLong = RANDOM.nextLong();
+			if(randomLong != sessionId) {
+				sessionId = randomLong;
+				break;
+			}
+		}
+	}
+	
+	
+	public void registerReceiver(String channelName, SecureReceiver receiver) {
+		synchronized (receivers) {
+			receivers.put(channelName, receiver);
+		}
+	}
+	
+	public void unregisterReceiver(String channelName) {
+		synchronized (receivers) {
+			receivers.remove(channelName);
+		}
+	}
+	
+	
+	private void broadcastReceive(long tag, byte[] data) {
+		synchronized (receivers) {
+			for(Entry<String, SecureReceiver> entry : receivers.entrySet()) {
+				byte[] clonedData = cloneBytes(data);
+				try {
+					entry.getValue().receive(tag, clonedData);
+				} catch (RuntimeException ex) {
+					System.err.println(
+							"Unhandled exception occured on receiving method \"receive(int, byte[])\" of receiver \""+ 
+									entry.getKey() +"\"");
+					ex.printStackTrace();
+				}
+			}
+		}
+	}
+	
+	private void broadcastPostConfirm(long tag) {
+		synchronized (receivers) {
+			for(Entry<String, SecureReceiver> entry : receivers.entrySet()) {
+				try {
+					entry.getValue().postConfirm(tag);
+				} catch (RuntimeException ex) {
+					System.err.println(
+							"Unhandled exception occured on receiving method \"postConfirm(int)\" of receiver \""+ 
+									entry.getKey() +"\"");
+					ex.printStackTrace();
+				}
+			}
+		}
+	}
+	
+	private void broadcastPostBroken(long tag) {
+		synchronized (receivers) {
+			for(Entry<String, SecureReceiver> entry : receivers.entrySet()) {
+				try {
+					entry.getValue().postBroken(tag);
+				} catch (RuntimeException ex) {
+					System.err.println(
+							"Unhandled exception occured on receiving method \"postBroken(int)\" of receiver \""+ 
+									entry.getKey() +"\"");
+					ex.printStackTrace();
+				}
+			}
+		}
+	}
+	
+	private void broadcastPostLost(long tag) {
+		synchronized (receivers) {
+			for(Entry<String, SecureReceiver> entry : receivers.entrySet()) {
+				try {
+					entry.getValue().postLost(tag);
+				} catch (RuntimeException ex) {
+					System.err.println(
+							"Unhandled exception occured on receiving method \"postLost(long)\" of receiver \""+ 
+									entry.getKey() +"\"");
+					ex.printStackTrace();
+				}
+			}
+		}
+	}
+	
+	private void broadcastOnConnect(byte[] datagram) {
+		synchronized (receivers) {
+			for(Entry<String, SecureReceiver> entry : receivers.entrySet()) {
+				byte[] clonedDatagram = cloneBytes(datagram);
+				try {
+					entry.getValue().onConnect(clonedDatagram);
+				} catch (RuntimeException ex) {
+					System.err.println(
+							"Unhandled exception occured on receiving method \"onConnect(byte[])\" of receiver \""+ 
+									entry.getKey() +"\"");
+					ex.printStackTrace();
+				}
+			}
 		}
 	}
 	
@@ -638,13 +1302,14 @@ public class SecureDelivery {
 		return bytes;
 	}
 	
-	private void handle(Packet packet) {
+	private void handle(PacketView packet) {
 		
-		if(!(packet.head.sessionId == sessionId || isStageConsistent(Stages.NOT_CONNECTED))) return;
+		if(!(packet.sessionId() == sessionId || isStageConsistent(Stages.NOT_CONNECTED))) return;
 		
-		switch (packet.head.operation) {
+		switch (packet.operation()) {
 		
 		case Operations.SEND_DATA:
+		case Operations.RESEND_DATA:
 			handleSendData(packet);
 			break;
 			
@@ -702,16 +1367,60 @@ public class SecureDelivery {
 			handleConnectionConfirm(packet);
 			break;
 			
+		case Operations.RESUME_SESSION:
+			handleResumeSession(packet);
+			break;
+		
+		case Operations.RESUME_CONFIRM:
+			handleResumeConfirm(packet);
+			break;
+		
+		case Operations.RESUME_REJECT:
+			handleResumeReject(packet);
+			break;
+		
+		case Operations.SESSION_TICKET:
+			handleSessionTicket(packet);
+			break;
+		
+		case Operations.REKEY:
+			handleRekey(packet);
+			break;
+		
+		case Operations.REKEY_CONFIRM:
+			handleRekeyConfirm(packet);
+			break;
+		
+		case Operations.SEND_BATCH:
+			handleSendBatch(packet);
+			break;
+		
+		case Operations.CONFIRM_RANGES:
+			handleConfirmRanges(packet);
+			break;
+		
+		case Operations.SEND_FRAGMENT:
+			handleSendFragment(packet);
+			break;
+		
+		case Operations.FEC_DATA:
+			handleFecData(packet);
+			break;
+		
+		case Operations.FEC_PARITY:
+			handleFecParity(packet);
+			break;
+			
 		}
 		
 	}
 	
 	// Any side
-	private void handleDisconnect(Packet packet) {
+	private void handleDisconnect(PacketView packet) {
 		if(isStageConsistent(Stages.NOT_CONNECTED)) return;
 		byte[] datagram;
 		try {
-			datagram = LetterWrapper.resolve(packet.letter);
+			datagram = resolveLetter(packet);
 		} catch (DataBrokenException ex) {
 			datagram = null;
 		}
@@ -719,65 +1428,60 @@ public class SecureDelivery {
 	}
 	
 	// Acceptor side
-	private void handleConnect(Packet packet) {
+	private void handleConnect(PacketView packet) {
 		if((!isStageConsistent(Stages.NOT_CONNECTED))) return;
 		
 		byte[] datagram;
 		try {
-			datagram = LetterWrapper.resolve(packet.letter);
+			datagram = resolveLetter(packet);
 		} catch (DataBrokenException ex) {
 			sendBrokenPreRequest(connectionStage);
 			return;
 		}
 		
 		isAcceptor = true;
-		sessionId = packet.head.sessionId;
+		sessionId = packet.sessionId();
+		negotiation = acceptNegotiation(packet.tag());
 		setStage(Stages.CONNECT_REQUEST_SENT);
 		
 		broadcastOnConnect(datagram);
 	}
 	
 	// Requester side
-	private void handleConnectStandBy(Packet packet) {
-		if((!isStageConsistent(Stages.CONNECT_REQUEST_SENT)) || (packet.head.sessionId != sessionId)) return;
+	private void handleConnectStandBy(PacketView packet) {
+		if((!isStageConsistent(Stages.CONNECT_REQUEST_SENT)) || (packet.sessionId() != sessionId)) return;
 		
 		nextTimeout.cancel();
 		
 		TimeoutTask timeoutTask = new ConnectTimeoutTask(nextTimeout.timeoutLeft, ((ConnectTimeoutTask) nextTimeout).datagram);
-		delayableScheduler.schedule(timeoutTask, timeoutProfile.connectRequestTimeout.get());
+		delayableScheduler.schedule(timeoutTask, connectRequestTimeout());
 		nextTimeout = timeoutTask;
 	}
 	
 	// Requester side
-	private void handlePublicKeyOffer(Packet packet) {
-		if((!isStageConsistent(Stages.CONNECT_REQUEST_SENT)) || (packet.head.sessionId != sessionId)) return;
+	private void handlePublicKeyOffer(PacketView packet) {
+		if((!isStageConsistent(Stages.CONNECT_REQUEST_SENT)) || (packet.sessionId() != sessionId)) return;
+		if(handshakeWork != null) return; // Offer is resent while encrypting.
 		
 		byte[] publicKey;
 		try {
-			publicKey = LetterWrapper.resolve(packet.letter);
-			sessionKey = symCrypto.generateKey();
-			encryptedSessionKey = asymCrypto.encrypt(sessionKey, publicKey);
+			publicKey = resolveLetter(packet);
 		} catch (DataBrokenException ex) {
 			reportBrokenPreRequests();
 			return;
-		} catch (InvalidKeyException | BadPaddingException ex) {
-			windUp(BAD_PUBLIC_KEY);
-			return;
 		}
 		
-		clearBrokenPreRequests();
-		
-		standByTimeout.cancel();
-		nextTimeout.cancel();
-		
-		setStage(Stages.PUBLIC_KEY_OFFERED);
+		if(!agreeNegotiation(packet.tag())) {
+			windUp(BAD_NEGOTIATION);
+			return;
+		}
 		
-		broadcastOnPublicKeyRespond(publicKey);
+		new SessionKeyEncryptWork(publicKey).submit();
 	}
 	
 	// Acceptor side
-	private void handlePublicKeyStandBy(Packet packet) {
-		if((!isStageConsistent(Stages.PUBLIC_KEY_OFFERED)) || (packet.head.sessionId != sessionId)) return;
+	private void handlePublicKeyStandBy(PacketView packet) {
+		if((!isStageConsistent(Stages.PUBLIC_KEY_OFFERED)) || (packet.sessionId() != sessionId)) return;
 		
 		nextTimeout.cancel();
 		
@@ -787,37 +1491,19 @@ public class SecureDelivery {
 	}
 	
 	// Acceptor side
-	private void handleStartSession(Packet packet) {
-		if((!isStageConsistent(Stages.PUBLIC_KEY_OFFERED)) || (packet.head.sessionId != sessionId)) return;
+	private void handleStartSession(PacketView packet) {
+		if((!isStageConsistent(Stages.PUBLIC_KEY_OFFERED)) || (packet.sessionId() != sessionId)) return;
+		if(handshakeWork != null) return; // Session key is resent while decrypting, or key pair is not acquired yet.
 		
+		byte[] encryptedKey;
 		try {
-			encryptedSessionKey = LetterWrapper.resolve(packet.letter);
-			sessionKey = asymCrypto.decrypt(encryptedSessionKey, privateKey);
-			encryptedSessionKey = symCrypto.encrypt(sessionKey, sessionKey);
+			encryptedKey = resolveLetter(packet);
 		} catch (DataBrokenException ex) {
 			reportBrokenPreRequests();
 			return;
-		} catch (InvalidKeyException | BadPaddingException ex) {
-			windUp(BAD_SESSION_KEY);
-			return;
-		}
-		
-		clearBrokenPreRequests();
-		
-		standByTimeout.cancel();
-		nextTimeout.cancel();
-		
-		setStage(Stages.SESSION_VERIFICATION_SENT);
-		
-		try {
-			sendConfirmSession(encryptedSessionKey);
-		} catch (InvalidKeyException | BadPaddingException ex) {
-			ex.printStackTrace();
 		}
 		
-		TimeoutTask timeoutTask = new ConfirmSessionTimeoutTask(0);
-		delayableScheduler.schedule(timeoutTask, timeoutProfile.connectionEstablishTimeout.get());
-		nextTimeout = timeoutTask;
+		new SessionKeyDecryptWork(encryptedKey).submit();
 	}
 	
 	/**
@@ -836,7 +1522,9 @@ public class SecureDelivery {
 				public void run() {
 					if(isCancelled) return;
 					if(timeoutLeft < timeoutProfile.connectionEstablishResends.get()) {
-						try {
+						if(resumption != null) {
+							sendResumeConfirm(resumption);
+						} else try {
 							sendConfirmSession(encryptedSessionKey);
 						} catch (InvalidKeyException | BadPaddingException ex) {
 							ex.printStackTrace();
@@ -854,23 +1542,23 @@ public class SecureDelivery {
 	}
 	
 	// Any side
-	private void handleBrokenPreRequest(Packet packet) {
-		if(packet.head.tag == Stages.NOT_CONNECTED && isStageConsistent(Stages.CONNECT_REQUEST_SENT)) {
+	private void handleBrokenPreRequest(PacketView packet) {
+		if(packet.tag() == Stages.NOT_CONNECTED && isStageConsistent(Stages.CONNECT_REQUEST_SENT)) {
 			if(isAcceptor) return;
 			
 			ConnectTimeoutTask connectTimeoutTask = (ConnectTimeoutTask) nextTimeout;
-			sendConnect(connectTimeoutTask.datagram);
+			sendConnectRequest(connectTimeoutTask.datagram);
 			
 			connectTimeoutTask.cancel();
 			TimeoutTask timeoutTask = new ConnectTimeoutTask(connectTimeoutTask.timeoutLeft, connectTimeoutTask.datagram);
-			delayableScheduler.schedule(timeoutTask, timeoutProfile.connectRequestTimeout.get());
+			delayableScheduler.schedule(timeoutTask, connectRequestTimeout());
 			nextTimeout = timeoutTask;
-		} else if(packet.head.sessionId == sessionId && isStageConsistent((int) packet.head.tag + 1)){
+		} else if(packet.sessionId() == sessionId && isStageConsistent((int) packet.tag() + 1)){
 			if(preRequestResends++ < timeoutProfile.brokenPreRequestResends.get()) {
 				nextTimeout.cancel();
-				switch ((int) packet.head.tag) {
+				switch ((int) packet.tag()) {
 				case Stages.CONNECT_REQUEST_SENT: {
-						sendPublicKeyOffer(publicKey);
+						if(keyPair != null) sendPublicKeyOffer(keyPair.publicKey);
 						nextTimeout.cancel();
 						TimeoutTask timeoutTask = new PublicKeyTimeoutTask(nextTimeout.timeoutLeft);
 						delayableScheduler.schedule(timeoutTask, timeoutProfile.publicKeyOfferTimeout.get());
@@ -919,12 +1607,12 @@ public class SecureDelivery {
 	
 	// Requester side
 	// Establish connection
-	private void handleConfirmSession(Packet packet) {
-		if((!isStageConsistent(Stages.SESSION_KEY_SENT)) || (packet.head.sessionId != sessionId)) return;
+	private void handleConfirmSession(PacketView packet) {
+		if((!isStageConsistent(Stages.SESSION_KEY_SENT)) || (packet.sessionId() != sessionId)) return;
 		
 		try{
-			byte[] encryptedSessionKey = LetterWrapper.resolve(packet.letter);
-			byte[] reportSessionKey = symCrypto.decrypt(encryptedSessionKey, sessionKey);
+			byte[] encryptedSessionKey = resolveLetter(packet);
+			byte[] reportSessionKey = symSession.decrypt(encryptedSessionKey);
 			if(!byteArrayEquals(sessionKey, reportSessionKey)) {
 				windUp(BAD_SESSION_KEY);
 				return;
@@ -982,204 +1670,2158 @@ public class SecureDelivery {
 	// Acceptor side
 	// Confirm connection
 	// Notify receivers that connection is established
-	private void handleConnectionEstablish(Packet packet) {
-		if(packet.head.sessionId != sessionId) return;
+	private void handleConnectionEstablish(PacketView packet) {
+		if(packet.sessionId() != sessionId) return;
 		if(isStageConsistent(Stages.CONNECTED)) {
 			sendConectionConfirm();
 		} else if(!isStageConsistent(Stages.SESSION_VERIFICATION_SENT)) return;
 		
+		boolean isEstablishing = !isStageConsistent(Stages.CONNECTED);
+		
 		nextTimeout.cancel();
 		
 		setStage(Stages.CONNECTED);
 		
 		sendConectionConfirm();
 		
+		if(isEstablishing && isNegotiated(Negotiation.RESUMPTION)) {
+			issueSessionTicket();
+		}
+		if(isEstablishing) scheduleRekey();
+		
 		broadcastOnConnectionEstablish();
 	}
 	
 	// Requester side
 	// Notify receivers that connection is established
-	private void handleConnectionConfirm(Packet packet) {
-		if((!isStageConsistent(Stages.CONNECTION_ESTABLISHING)) || (packet.head.sessionId != sessionId)) return;
+	private void handleConnectionConfirm(PacketView packet) {
+		if((!isStageConsistent(Stages.CONNECTION_ESTABLISHING)) || (packet.sessionId() != sessionId)) return;
 		
 		confirmConnection();
 		
 		alive();
 	}
 	
-	// Any side, special for requester side as connection confirm
-	// (Notify receivers that connection is established if they didn't know)
-	private void handleSendData(Packet packet) {
-		if(packet.head.sessionId != sessionId) return;
-		if(isStageConsistent(Stages.CONNECTION_ESTABLISHING)) {
-			confirmConnection();
-		} else if (!isStageConsistent(Stages.CONNECTED)) return;
-		
-		long tag = packet.head.tag;
+	// Acceptor side
+	private void handleResumeSession(PacketView packet) {
+		if(isStageConsistent(Stages.SESSION_VERIFICATION_SENT) && resumption != null) {
+			if(packet.sessionId() == sessionId) sendResumeConfirm(resumption);
+			return;
+		}
+		if(!isStageConsistent(Stages.NOT_CONNECTED)) return;
 		
-		byte[] data;
+		byte[] request;
 		try {
-			data = LetterWrapper.decryptAndResolve(packet.letter, symCrypto, sessionKey);
-		} catch (InvalidKeyException | BadPaddingException | DataBrokenException e) {
-			sendDataBroken(tag);
-			alive();
+			request = resolveLetter(packet);
+		} catch (DataBrokenException ex) {
+			sendBrokenPreRequest(connectionStage);
 			return;
 		}
 		
-		sendDataConfirm(tag);
+		TicketCache ticketCache = this.ticketCache;
+		int datagramStart = TicketCache.TICKET_ID_LENGTH + NONCE_LENGTH + KeyDerivation.HASH_LENGTH;
+		if(ticketCache == null || request.length < datagramStart) {
+			sendResumeReject(packet.sessionId());
+			return;
+		}
 		
-		alive();
+		int offset = 0;
+		byte[] ticketId = Arrays.copyOfRange(request, offset, offset += TicketCache.TICKET_ID_LENGTH);
+		byte[] requesterNonce = Arrays.copyOfRange(request, offset, offset += NONCE_LENGTH);
+		byte[] proof = Arrays.copyOfRange(request, offset, offset += KeyDerivation.HASH_LENGTH);
+		byte[] datagram = Arrays.copyOfRange(request, offset, request.length);
 		
-		broadcastReceive(tag, data);
-	}
-	
-	// Any side
-	private void handleConfirmData(Packet packet) {
-		if((!isStageConsistent(Stages.CONNECTED)) || (packet.head.sessionId != sessionId)) return;
+		TicketCache.Ticket ticket = ticketCache.take(ticketId, new TicketCache.Verifier() {
+			
+			@Override
+			public boolean verify(TicketCache.Ticket ticket) {
+				return MessageDigest.isEqual(proof, new Resumption(ticket, requesterNonce).requestProof(packet.sessionId()));
+			}
+			
+		});
+		if(ticket == null) {
+			sendResumeReject(packet.sessionId());
+			return;
+		}
+		Resumption resumption = new Resumption(ticket, requesterNonce);
 		
-		alive();
+		isAcceptor = true;
+		sessionId = packet.sessionId();
+		sessionCrypto = ticket.crypto;
+		negotiation = ticket.negotiation;
+		this.resumption = resumption;
+		setStage(Stages.CONNECT_REQUEST_SENT);
 		
-		broadcastPostConfirm(packet.head.tag);
+		broadcastOnConnect(datagram);
 	}
 	
-	// Any side
-	private void handleBrokenData(Packet packet) {
-		if((!isStageConsistent(Stages.CONNECTED)) || (packet.head.sessionId != sessionId)) return;
+	// Acceptor side
+	private void confirmResumption() {
+		resumption.acceptorNonce = generateNonce();
+		try {
+			sessionKey = resumption.deriveSessionKey();
+			symSession = sessionCrypto.createSession(sessionKey);
+		} catch (InvalidKeyException ex) {
+			windUp(BAD_SESSION_KEY);
+			return;
+		}
 		
-		alive();
+		setStage(Stages.SESSION_VERIFICATION_SENT);
 		
-		broadcastPostBroken(packet.head.tag);
+		sendResumeConfirm(resumption);
+		
+		TimeoutTask timeoutTask = new ConfirmSessionTimeoutTask(0);
+		delayableScheduler.schedule(timeoutTask, timeoutProfile.connectionEstablishTimeout.get());
+		nextTimeout = timeoutTask;
+	}
+	
+	// Requester side
+	private void handleResumeConfirm(PacketView packet) {
+		if((!isStageConsistent(Stages.CONNECT_REQUEST_SENT)) || (packet.sessionId() != sessionId)) return;
+		if(isAcceptor || resumption == null) return;
+		
+		byte[] confirmation;
+		try {
+			confirmation = resolveLetter(packet);
+		} catch (DataBrokenException ex) {
+			reportBrokenPreRequests();
+			return;
+		}
+		if(confirmation.length != NONCE_LENGTH + KeyDerivation.HASH_LENGTH) {
+			windUp(BAD_SESSION_KEY);
+			return;
+		}
+		
+		resumption.acceptorNonce = Arrays.copyOf(confirmation, NONCE_LENGTH);
+		byte[] proof = Arrays.copyOfRange(confirmation, NONCE_LENGTH, confirmation.length);
+		try {
+			if(!MessageDigest.isEqual(proof, resumption.confirmProof(sessionId))) {
+				windUp(BAD_SESSION_KEY);
+				return;
+			}
+			sessionKey = resumption.deriveSessionKey();
+			symSession = sessionCrypto.createSession(sessionKey);
+		} catch (InvalidKeyException ex) {
+			windUp(BAD_SESSION_KEY);
+			return;
+		}
+		
+		clearBrokenPreRequests();
+		
+		standByTimeout.cancel();
+		nextTimeout.cancel();
+		
+		setStage(Stages.CONNECTION_ESTABLISHING);
+		
+		sendConnectionEstablish();
+		
+		TimeoutTask timeoutTask = new ConnectionEstablishTimeoutTask(0);
+		delayableScheduler.schedule(timeoutTask, timeoutProfile.connectionConfirmTimeout.get());
+		nextTimeout = timeoutTask;
+	}
+	
+	// Requester side
+	private void handleResumeReject(PacketView packet) {
+		if((!isStageConsistent(Stages.CONNECT_REQUEST_SENT)) || (packet.sessionId() != sessionId)) return;
+		if(isAcceptor || resumption == null) return;
+		
+		fallBackFromResumption(((ConnectTimeoutTask) nextTimeout).datagram);
+	}
+	
+	// Acceptor side
+	private void issueSessionTicket() {
+		TicketCache ticketCache = this.ticketCache;
+		if(ticketCache == null) return;
+		try {
+			byte[] ticketId = TicketCache.generateId();
+			ticketCache.issue(ticketId, deriveResumptionSecret(ticketId), sessionCrypto, negotiation, sessionKey.length);
+			sendSessionTicket(ticketCache.lifetime, ticketId);
+		} catch (InvalidKeyException | BadPaddingException ex) {
+			ex.printStackTrace();
+		}
+	}
+	
+	// Requester side
+	private void handleSessionTicket(PacketView packet) {
+		if(isAcceptor || packet.sessionId() != sessionId) return;
+		if(isStageConsistent(Stages.CONNECTION_ESTABLISHING)) {
+			confirmConnection();
+		} else if (!isStageConsistent(Stages.CONNECTED)) return;
+		
+		try {
+			byte[] ticketId = openLetter(packet);
+			if(ticketId.length != TicketCache.TICKET_ID_LENGTH) return;
+			ticket = new TicketCache.Ticket(
+					ticketId, deriveResumptionSecret(ticketId), sessionCrypto, negotiation, 
+					sessionKey.length, System.currentTimeMillis() + packet.tag()
+					);
+		} catch (InvalidKeyException | BadPaddingException | DataBrokenException ex) {
+			return; // Connect with full handshake next time.
+		}
+		
+		alive();
+	}
+	
+	// Any side
+	private void handleRekey(PacketView packet) {
+		if((!isStageConsistent(Stages.CONNECTED)) || (packet.sessionId() != sessionId)) return;
+		if(!isNegotiated(Negotiation.REKEY)) return;
+		
+		alive();
+		
+		int offeredEpoch = (int) packet.tag() & Rekey.EPOCH_MASK;
+		if(offeredEpoch == epoch) { // Confirm is lost.
+			sendRekeyConfirm();
+			return;
+		}
+		if(offeredEpoch != ((epoch + 1) & Rekey.EPOCH_MASK)) return;
+		if(rekey != null) {
+			if(isAcceptor) return; // Both offered, acceptor wins.
+			rekey = null;
+		}
+		
+		byte[] key;
+		try {
+			byte[] nonce = openLetter(packet);
+			if(nonce.length != NONCE_LENGTH) return;
+			key = deriveNextKey(nonce);
+			installKey(offeredEpoch, key, sessionCrypto.createSession(key));
+			sendRekeyConfirm();
+		} catch (BadPaddingException | DataBrokenException ex) {
+			return; // Wait for resend.
+		} catch (InvalidKeyException ex) {
+			windUp(INVALID_SESSION_KEY);
+		}
+	}
+	
+	// Any side
+	private void handleRekeyConfirm(PacketView packet) {
+		if((!isStageConsistent(Stages.CONNECTED)) || (packet.sessionId() != sessionId)) return;
+		if(rekey == null || ((int) packet.tag() & Rekey.EPOCH_MASK) != rekey.epoch) return;
+		
+		alive();
+		
+		try {
+			openLetter(packet); // Sealed by the new key, which commits the rekey.
+		} catch (InvalidKeyException | BadPaddingException | DataBrokenException ex) {
+			return;
+		}
+	}
+	
+	private byte[] deriveResumptionSecret(byte[] ticketId) throws InvalidKeyException {
+		return KeyDerivation.derive(sessionKey, ticketId, RESUMPTION_SECRET_INFO, KeyDerivation.HASH_LENGTH);
+	}
+	
+	// Any side, special for requester side as connection confirm
+	// (Notify receivers that connection is established if they didn't know)
+	private void handleSendData(PacketView packet) {
+		if(packet.sessionId() != sessionId) return;
+		if(isStageConsistent(Stages.CONNECTION_ESTABLISHING)) {
+			confirmConnection();
+		} else if (!isStageConsistent(Stages.CONNECTED)) return;
+		
+		long tag = packet.tag();
+		
+		byte[] letter;
+		try {
+			letter = openLetter(packet);
+		} catch (InvalidKeyException | BadPaddingException | DataBrokenException e) {
+			if(packet.isCompact()) return; // Compact head is not trusted unless the letter is authenticated.
+			sendDataBroken(tag);
+			alive();
+			return;
+		}
+		
+		receiveData(packet.operation(), tag, letter);
+	}
+	
+	// Any side, which is confirmed as a whole by its first tag
+	private void handleSendBatch(PacketView packet) {
+		if(packet.sessionId() != sessionId) return;
+		if(isStageConsistent(Stages.CONNECTION_ESTABLISHING)) {
+			confirmConnection();
+		} else if (!isStageConsistent(Stages.CONNECTED)) return;
+		
+		long tag = packet.tag();
+		
+		byte[] letter;
+		try {
+			letter = openLetter(packet);
+		} catch (InvalidKeyException | BadPaddingException | DataBrokenException e) {
+			if(packet.isCompact()) return; // Compact head is not trusted unless the letter is authenticated.
+			sendDataBroken(tag);
+			alive();
+			return;
+		}
+		
+		receiveData(Operations.SEND_BATCH, tag, letter);
+	}
+	
+	// Any side, which is handled as the data packet in it
+	private void handleFecData(PacketView packet) {
+		if(packet.sessionId() != sessionId || !isNegotiated(Negotiation.FORWARD_ERROR_CORRECTION)) return;
+		if(isStageConsistent(Stages.CONNECTION_ESTABLISHING)) {
+			confirmConnection();
+		} else if (!isStageConsistent(Stages.CONNECTED)) return;
+		
+		long tag = packet.tag();
+		byte[] bytes;
+		try {
+			bytes = LetterWrapper.resolve(packet.bytes(), packet.letterOffset(), packet.letterLength(), checksum());
+		} catch (DataBrokenException ex) {
+			return; // Taken as lost, which parity may rebuild.
+		}
+		
+		RecoveryGroup group = recoveryGroup(ParityGroup.group(tag));
+		int index = ParityGroup.index(tag);
+		if(group.packets[index] != null) return; // Rebuilt already.
+		group.packets[index] = bytes;
+		receiveProtected(bytes);
+		recover(group);
+	}
+	
+	// Any side
+	private void handleFecParity(PacketView packet) {
+		if(packet.sessionId() != sessionId || !isNegotiated(Negotiation.FORWARD_ERROR_CORRECTION)) return;
+		if(isStageConsistent(Stages.CONNECTION_ESTABLISHING)) {
+			confirmConnection();
+		} else if (!isStageConsistent(Stages.CONNECTED)) return;
+		
+		long tag = packet.tag();
+		int count = ParityGroup.count(tag);
+		int index = ParityGroup.index(tag);
+		if(count < 1 || count + index >= ReedSolomon.MAX_SHARDS) return;
+		byte[] bytes;
+		try {
+			bytes = LetterWrapper.resolve(packet.bytes(), packet.letterOffset(), packet.letterLength(), checksum());
+		} catch (DataBrokenException ex) {
+			return;
+		}
+		
+		alive();
+		
+		RecoveryGroup group = recoveryGroup(ParityGroup.group(tag));
+		if(group.count == 0) {
+			group.count = count;
+			group.length = bytes.length;
+		} else if(group.count != count || group.length != bytes.length) return;
+		group.parities[index] = bytes;
+		recover(group);
+	}
+	
+	private RecoveryGroup recoveryGroup(long id) {
+		RecoveryGroup group = recoveryGroups.get(id);
+		if(group == null) {
+			group = new RecoveryGroup();
+			recoveryGroups.put(id, group);
+		}
+		return group;
+	}
+	
+	// Data packets that are lost are rebuilt once as many parity packets as them are received.
+	private void recover(RecoveryGroup group) {
+		if(group.count == 0 || group.isRecovered) return;
+		int missing = 0;
+		for(int i=0;i<group.count;i++) {
+			if(group.packets[i] == null) missing++;
+		}
+		int parities = 0;
+		int parityShards = 0;
+		for(int i=0;i<group.parities.length;i++) {
+			if(group.parities[i] == null) continue;
+			parities++;
+			parityShards = i + 1;
+		}
+		if(missing > parities) return;
+		group.isRecovered = true;
+		if(missing == 0) return;
+		
+		byte[][] shards = new byte[group.count + parityShards][];
+		for(int i=0;i<group.count;i++) {
+			if(group.packets[i] == null) continue;
+			if(ParityGroup.LENGTH_PREFIX + group.packets[i].length > group.length) return; // Not of the group.
+			shards[i] = ParityGroup.shard(group.packets[i], group.length);
+		}
+		System.arraycopy(group.parities, 0, shards, group.count, parityShards);
+		if(!new ReedSolomon(group.count, parityShards).decode(shards, group.length)) return;
+		
+		for(int i=0;i<group.count;i++) {
+			if(group.packets[i] != null) continue;
+			int length = ByteWrapper.getInt(shards[i], 0);
+			if(length < 0 || length > group.length - ParityGroup.LENGTH_PREFIX) continue;
+			group.packets[i] = Arrays.copyOfRange(shards[i], ParityGroup.LENGTH_PREFIX, ParityGroup.LENGTH_PREFIX + length);
+			receiveProtected(group.packets[i]);
+		}
+	}
+	
+	private void receiveProtected(byte[] bytes) {
+		if(!resolvePacket(bytes)) return;
+		byte operation = packetView.operation();
+		if(operation == Operations.FEC_DATA || operation == Operations.FEC_PARITY) return;
+		handle(packetView);
+	}
+	
+	// Any side, which is confirmed or broken as a whole once all fragments are received
+	private void handleSendFragment(PacketView packet) {
+		if(packet.sessionId() != sessionId) return;
+		if(isStageConsistent(Stages.CONNECTION_ESTABLISHING)) {
+			confirmConnection();
+		} else if (!isStageConsistent(Stages.CONNECTED)) return;
+		
+		long tag = packet.tag();
+		
+		Reassembly reassembly = reassemblies.get(tag);
+		if(reassembly != null && reassembly.isBroken && reassembly.operation == Operations.RESEND_DATA) {
+			alive(); // Broken is sent already, and nothing takes the place of resent data.
+			return;
+		}
+		
+		Reassembly.Fragment fragment;
+		boolean isOpened = false;
+		try {
+			byte[] letter = openLetter(packet);
+			isOpened = true;
+			fragment = Reassembly.resolve(letter);
+			if(reassembly != null && reassembly.operation != Operations.RESEND_DATA && fragment.operation == Operations.RESEND_DATA) {
+				dropReassembly(tag, reassembly); // Resent data takes the place of what is lost or broken.
+				reassembly = null;
+			} else if(reassembly != null && reassembly.isBroken) {
+				alive(); // Broken is sent already.
+				return;
+			}
+			if(reassembly == null) {
+				if(reassemblies.size() >= Reassembly.MAX_REASSEMBLIES 
+						|| reassemblySize + Reassembly.getArraySize(fragment.count) > deliveryProfile.reassemblyBudget.get()) {
+					throw new DataBrokenException();
+				}
+				reassembly = startReassembly(tag, fragment.operation, fragment.count);
+			} else if(fragment.operation != reassembly.operation || fragment.count != reassembly.fragments.length) {
+				throw new DataBrokenException();
+			}
+			if(reassembly.fragments[fragment.index] == null) {
+				int size = fragment.data.length;
+				if(reassemblySize + size > deliveryProfile.reassemblyBudget.get()) throw new DataBrokenException();
+				reassembly.add(fragment.index, fragment.data);
+				reassemblySize += size;
+			}
+		} catch (InvalidKeyException | BadPaddingException | DataBrokenException e) {
+			if(!isOpened && packet.isCompact()) return; // Compact head is not trusted unless the letter is authenticated.
+			// Rest of the fragments are dropped until the reassembly times out.
+			if(reassembly == null && reassemblies.size() >= Reassembly.MAX_REASSEMBLIES) {
+				sendDataBroken(tag); // Too many to hold, nothing is kept for the rest of fragments.
+				alive();
+				return;
+			} else if(reassembly == null) {
+				reassembly = startReassembly(tag, (byte) 0, 0);
+			} else if(reassembly.isBroken) {
+				alive(); // Broken is sent already.
+				return;
+			}
+			reassemblySize -= reassembly.getCharge();
+			reassembly.breakUp();
+			sendDataBroken(tag);
+			alive();
+			return;
+		}
+		
+		if(!reassembly.isComplete()) {
+			alive();
+			return;
+		}
+		
+		dropReassembly(tag, reassembly);
+		receiveData(reassembly.operation, tag, reassembly.join());
+	}
+	
+	private Reassembly startReassembly(long tag, byte operation, int count) {
+		Reassembly reassembly = new Reassembly(operation, count);
+		reassembly.timer = new ReassemblyTimeoutTask(tag, reassembly);
+		delayableScheduler.schedule(reassembly.timer, timeoutProfile.reassemblyTimeout.get());
+		reassemblies.put(tag, reassembly);
+		reassemblySize += reassembly.getCharge();
+		return reassembly;
+	}
+	
+	private void dropReassembly(long tag, Reassembly reassembly) {
+		reassemblies.remove(tag);
+		reassembly.timer.cancel();
+		reassemblySize -= reassembly.getCharge();
+	}
+	
+	// Packet is tagged by the sequence if data is sequenced, which is confirmed or broken by it.
+	private void receiveData(byte operation, long sequence, byte[] letter) {
+		long tag = sequence;
+		byte[] data;
+		Batch batch = null;
+		try {
+			int start = 0;
+			if(isSequenced() && operation != Operations.SEND_BATCH) {
+				tag = Batch.readVarLong(letter, 0);
+				start = ByteWrapper.varLongLength(tag);
+			}
+			data = resolveData(letter, start);
+			if(operation == Operations.SEND_BATCH) batch = Batch.resolve(data);
+		} catch (DataBrokenException e) {
+			sendDataBroken(sequence);
+			alive();
+			return;
+		}
+		
+		confirmData(sequence);
+		
+		alive();
+		
+		if(isSequenced()) {
+			if(operation == Operations.RESEND_DATA && receivedSequences.containsKey(sequence)) return; // Confirm was lost.
+			if(batch == null) {
+				receivedSequences.put(sequence, Boolean.TRUE);
+			} else for(int i=0;i<batch.count;i++) {
+				receivedSequences.put(sequence + i, Boolean.TRUE);
+			}
+		}
+		
+		if(batch == null) {
+			broadcastReceive(tag, data);
+		} else for(int i=0;i<batch.count;i++) {
+			broadcastReceive(batch.tags[i], batch.data.get(i));
+		}
+	}
+	
+	private byte[] resolveData(byte[] data, int start) throws DataBrokenException {
+		Confirmations confirmations = null;
+		if(isNegotiated(Negotiation.CONFIRM_RANGES)) {
+			confirmations = Confirmations.resolve(data, start, data.length, isNegotiated(Negotiation.FLOW_CONTROL));
+			data = Arrays.copyOfRange(data, start + confirmations.frameLength, data.length);
+		} else if(start > 0) data = Arrays.copyOfRange(data, start, data.length);
+		Compression compression = compression();
+		if(compression != null) data = compression.decompress(data);
+		if(confirmations != null) postConfirm(confirmations);
+		return data;
+	}
+	
+	// Any side
+	private void handleConfirmData(PacketView packet) {
+		if((!isStageConsistent(Stages.CONNECTED)) || (packet.sessionId() != sessionId)) return;
+		
+		alive();
+		
+		postConfirm(packet.tag());
+	}
+	
+	// Any side
+	private void handleConfirmRanges(PacketView packet) {
+		if((!isStageConsistent(Stages.CONNECTED)) || (packet.sessionId() != sessionId)) return;
+		
+		Confirmations confirmations;
+		try {
+			confirmations = resolveConfirmations(packet);
+		} catch (DataBrokenException ex) {
+			return;
+		}
+		
+		alive();
+		
+		postConfirm(confirmations);
+	}
+	
+	private void postConfirm(Confirmations confirmations) {
+		if(confirmations.credit >= 0) credit = confirmations.credit;
+		for(int i=0;i<confirmations.count;i++) {
+			postConfirm(confirmations.tags[i]);
+		}
+		if(confirmations.credit >= 0) sendQueued(); // Window may be opened by credit only.
+	}
+	
+	// Sequence of a batch stands for all sequences in it.
+	private void postConfirm(long sequence) {
+		long[] sequences = batchTags.remove(sequence);
+		if(sequences == null) {
+			untrack(sequence);
+		} else for(long batchSequence : sequences) {
+			untrack(batchSequence);
+		}
+	}
+	
+	// Any side
+	private void handleBrokenData(PacketView packet) {
+		if((!isStageConsistent(Stages.CONNECTED)) || (packet.sessionId() != sessionId)) return;
+		
+		alive();
+		
+		long[] sequences = batchTags.remove(packet.tag());
+		if(sequences == null) {
+			postBroken(packet.tag());
+		} else for(long sequence : sequences) {
+			postBroken(sequence);
+		}
+	}
+	
+	// Reliably sent data is resent at once rather than broken, or is confirmed already.
+	private void postBroken(long sequence) {
+		Unconfirmed data = unconfirmed.get(sequence);
+		if(data == null) {
+			Long tag = untrackedTag(sequence);
+			if(tag != null) broadcastPostBroken(tag);
+			return;
+		}
+		congestion.lose(data.sentTime);
+		if(data.data == null) {
+			forget(data);
+			broadcastPostBroken(data.tag);
+			return;
+		}
+		data.timer.cancel();
+		resend(data, false);
 	}
 	
 	// Any side
-	private void handleKeepAlive(Packet packet) {
-		if(packet.head.sessionId != sessionId) return;
+	private void handleKeepAlive(PacketView packet) {
+		if(packet.sessionId() != sessionId) return;
 		if(isStageConsistent(Stages.CONNECTION_ESTABLISHING)) {
 			confirmConnection();
 		} else if(!isStageConsistent(Stages.CONNECTED)) return;
+		
+		Confirmations confirmations = null;
+		if(isNegotiated(Negotiation.CONFIRM_RANGES) && packet.letterLength() > 0) {
+			try {
+				confirmations = resolveConfirmations(packet);
+			} catch (DataBrokenException ex) {
+				return;
+			}
+		}
+		
 		alive();
+		
+		if(confirmations != null) postConfirm(confirmations);
+	}
+	
+	private Confirmations resolveConfirmations(PacketView packet) throws DataBrokenException {
+		byte[] frame = LetterWrapper.resolve(packet.bytes(), packet.letterOffset(), packet.letterLength(), checksum());
+		Confirmations confirmations = Confirmations.resolve(frame, 0, frame.length, isNegotiated(Negotiation.FLOW_CONTROL));
+		if(confirmations.frameLength != frame.length) throw new DataBrokenException();
+		return confirmations;
+	}
+	
+	private void confirmConnection() {
+		clearBrokenPreRequests();
+		nextTimeout.cancel();
+		setStage(Stages.CONNECTED);
+		aliveKeeper = new KeepAliveTask();
+		delayableScheduler.schedule(aliveKeeper);
+		scheduleRekey();
+		broadcastOnConnectionEstablish();
+	}
+	
+	private final class KeepAliveTask extends TimeoutTask {
+
+		public KeepAliveTask() {
+			super(0);
+		}
+
+		@Override
+		public void run() {
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if(isCancelled) return;
+					sendKeepAlive();
+					delayableScheduler.schedule(KeepAliveTask.this, timeoutProfile.keepAliveDelay.get());
+				}
+			});
+		}
+		
+	}
+	
+	private Compression compression() {
+		if(!isNegotiated(Negotiation.COMPRESSION)) return null;
+		if(compression == null) {
+			byte[] dictionary = null;
+			if((negotiation & Negotiation.DICTIONARY_MASK) != 0) {
+				dictionary = deliveryProfile.compressionDictionary.get();
+			}
+			compression = new Compression(dictionary);
+		}
+		return compression;
+	}
+	
+	/*
+	 * Data of letters of SEND_DATA, if compression is negotiated.
+	 * | FLAGS | ORIGINAL LENGTH | DATA |
+	 *    1B   varint if deflated
+	 * Data is deflated with the preset dictionary if both sides have the same one.
+	 */
+	private final static class Compression {
+		
+		public final static int DEFLATED = 1;
+		public final static int MAX_ORIGINAL_LENGTH = 1 << 24;
+		
+		private final byte[] dictionary;
+		private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		private final Inflater inflater = new Inflater(true);
+		
+		public Compression(byte[] dictionary) {
+			this.dictionary = dictionary;
+		}
+		
+		public byte[] compress(byte[] data, int offset, int length, int threshold) {
+			int dataStart = 1 + ByteWrapper.varLongLength(length);
+			if(length >= threshold && length > dataStart) {
+				deflater.reset();
+				if(dictionary != null) deflater.setDictionary(dictionary);
+				deflater.setInput(data, offset, length);
+				deflater.finish();
+				
+				byte[] compressed = new byte[length]; // Not worth if it is not shorter.
+				int compressedLength = dataStart + deflater.deflate(compressed, dataStart, compressed.length - dataStart);
+				if(deflater.finished()) {
+					compressed[0] = DEFLATED;
+					ByteWrapper.putVarLong(length, compressed, 1);
+					return Arrays.copyOf(compressed, compressedLength);
+				}
+			}
+			byte[] stored = new byte[length + 1];
+			System.arraycopy(data, offset, stored, 1, length);
+			return stored;
+		}
+		
+		public byte[] decompress(byte[] letter) throws DataBrokenException {
+			if(letter.length < 1) throw new DataBrokenException();
+			if(letter[0] == 0) return Arrays.copyOfRange(letter, 1, letter.length);
+			if(letter[0] != DEFLATED) throw new DataBrokenException();
+			
+			int lengthLength = ByteWrapper.varLongLength(letter, 1, letter.length);
+			if(lengthLength < 0) throw new DataBrokenException();
+			long length = ByteWrapper.getVarLong(letter, 1);
+			if(length < 0 || length > MAX_ORIGINAL_LENGTH) throw new DataBrokenException();
+			
+			byte[] data = new byte[(int) length];
+			inflater.reset();
+			inflater.setInput(letter, 1 + lengthLength, letter.length - 1 - lengthLength);
+			try {
+				if(dictionary != null) inflater.setDictionary(dictionary);
+				if(inflater.inflate(data) != data.length || !inflater.finished()) throw new DataBrokenException();
+			} catch (DataFormatException | IllegalArgumentException ex) {
+				throw new DataBrokenException();
+			}
+			return data;
+		}
+		
+		public void end() {
+			deflater.end();
+			inflater.end();
+		}
+		
+		/**
+		 * Id of a dictionary that is negotiated, which is folded from its Adler32, 0 for no dictionary.<br>
+		 */
+		public static int dictionaryId(byte[] dictionary) {
+			if(dictionary == null || dictionary.length == 0) return 0;
+			Adler32 adler = new Adler32();
+			adler.update(dictionary);
+			int id = (int) (adler.getValue() ^ (adler.getValue() >>> 16)) & 0xFFFF;
+			return id == 0 ? 1 : id;
+		}
+		
+	}
+	
+	/*
+	 * Data of letters of SEND_BATCH, which is compressed as a whole if compression is negotiated.
+	 * | COUNT | TAG | LENGTH | DATA | TAG | LENGTH | DATA | ...
+	 *  varint varint varint
+	 * Tag of the packet is the first sequence, which the batch is confirmed or broken by, 
+	 * and data in it are of the sequences that follow. If data is not sequenced, it is the first tag.
+	 */
+	private final static class Batch {
+		
+		public long[] tags = new long[8];
+		public long[] sequences; // Sender side, the same as tags if data is not sequenced.
+		public final List<byte[]> data = new ArrayList<>();
+		public int count;
+		public int size; // Of the entries.
+		
+		public TimeoutTask flusher;
+		
+		public void add(long tag, byte[] data) {
+			if(count == tags.length) tags = Arrays.copyOf(tags, count * 2);
+			tags[count++] = tag;
+			this.data.add(data);
+			size += sizeOf(tag, data);
+		}
+		
+		public void add(long sequence, long tag, byte[] data) {
+			if(sequences == null) {
+				sequences = new long[tags.length];
+			} else if(count == sequences.length) sequences = Arrays.copyOf(sequences, count * 2);
+			sequences[count] = sequence;
+			add(tag, data);
+		}
+		
+		public byte[] toBytes() {
+			byte[] bytes = new byte[ByteWrapper.varLongLength(count) + size];
+			int pointer = ByteWrapper.putVarLong(count, bytes, 0);
+			for(int i=0;i<count;i++) {
+				byte[] entry = data.get(i);
+				pointer += ByteWrapper.putVarLong(tags[i], bytes, pointer);
+				pointer += ByteWrapper.putVarLong(entry.length, bytes, pointer);
+				System.arraycopy(entry, 0, bytes, pointer, entry.length);
+				pointer += entry.length;
+			}
+			return bytes;
+		}
+		
+		public static int sizeOf(long tag, byte[] data) {
+			return ByteWrapper.varLongLength(tag) + ByteWrapper.varLongLength(data.length) + data.length;
+		}
+		
+		public static Batch resolve(byte[] bytes) throws DataBrokenException {
+			Batch batch = new Batch();
+			int pointer = 0;
+			long count = readVarLong(bytes, pointer);
+			pointer += ByteWrapper.varLongLength(count);
+			if(count < 1 || count > bytes.length) throw new DataBrokenException();
+			for(long i=0;i<count;i++) {
+				long tag = readVarLong(bytes, pointer);
+				pointer += ByteWrapper.varLongLength(tag);
+				long length = readVarLong(bytes, pointer);
+				pointer += ByteWrapper.varLongLength(length);
+				if(length < 0 || length > bytes.length - pointer) throw new DataBrokenException();
+				batch.add(tag, Arrays.copyOfRange(bytes, pointer, pointer + (int) length));
+				pointer += length;
+			}
+			if(pointer != bytes.length) throw new DataBrokenException();
+			return batch;
+		}
+		
+		private static long readVarLong(byte[] bytes, int start) throws DataBrokenException {
+			if(ByteWrapper.varLongLength(bytes, start, bytes.length) < 0) throw new DataBrokenException();
+			return ByteWrapper.getVarLong(bytes, start);
+		}
+		
+	}
+	
+	/*
+	 * Tags to confirm, which are sorted and sent in ranges.
+	 * | COUNT | FIRST | LENGTH | GAP | LENGTH | GAP | LENGTH | ...
+	 *  varint  varint  varint   varint varint
+	 * LENGTH is the number of tags in a range less one, GAP is the number of tags 
+	 * that are skipped since the last range less one.
+	 * If flow control is negotiated, the frame ends with | CREDIT |, a varint of bytes 
+	 * that the receiver takes in flight more, plus one, or 0 if it is not advertised.
+	 */
+	private final static class Confirmations {
+		
+		public final static byte[] NONE = {0};
+		
+		public final static int MAX_PENDING = 64; // Tags that are held at most before they are sent.
+		public final static int MAX_RESOLVED = 4096; // Tags that are confirmed by a frame at most.
+		
+		public long[] tags;
+		public int count;
+		public int frameLength; // Of the resolved frame.
+		public long credit = -1; // Not advertised.
+		
+		public TimeoutTask flusher;
+		
+		public Confirmations(int capacity) {
+			tags = new long[capacity];
+		}
+		
+		/**
+		 * Add a tag in order.<br>
+		 * 
+		 * @return If it is full
+		 */
+		public boolean add(long tag) {
+			int index = Arrays.binarySearch(tags, 0, count, tag);
+			if(index < 0) {
+				index = -index - 1;
+				System.arraycopy(tags, index, tags, index + 1, count - index);
+				tags[index] = tag;
+				count++;
+			}
+			return count == tags.length;
+		}
+		
+		public byte[] toBytes(boolean hasCredit) {
+			// At most two varints for each tag.
+			byte[] bytes = new byte[ByteWrapper.MAX_VAR_LONG_LENGTH * (2 + count * 2)];
+			int pointer = ByteWrapper.MAX_VAR_LONG_LENGTH; // Count is put at last.
+			int ranges = 0;
+			long last = 0;
+			for(int i=0;i<count;) {
+				int end = i + 1;
+				while(end < count && tags[end] == tags[end - 1] + 1) end++;
+				long delta = ranges == 0 ? tags[i] : tags[i] - last - 2;
+				pointer += ByteWrapper.putVarLong(delta, bytes, pointer);
+				pointer += ByteWrapper.putVarLong(end - i - 1, bytes, pointer);
+				last = tags[end - 1];
+				ranges++;
+				i = end;
+			}
+			if(hasCredit) pointer += ByteWrapper.putVarLong(credit + 1, bytes, pointer);
+			int countLength = ByteWrapper.varLongLength(ranges);
+			int start = ByteWrapper.MAX_VAR_LONG_LENGTH - countLength;
+			ByteWrapper.putVarLong(ranges, bytes, start);
+			return Arrays.copyOfRange(bytes, start, pointer);
+		}
+		
+		/**
+		 * Resolve a frame at bytes[start], which should end before bytes[end].<br>
+		 */
+		public static Confirmations resolve(byte[] bytes, int start, int end, boolean hasCredit) throws DataBrokenException {
+			int pointer = start;
+			int length = readVarLongLength(bytes, pointer, end);
+			long ranges = ByteWrapper.getVarLong(bytes, pointer);
+			pointer += length;
+			if(ranges < 0 || ranges > MAX_RESOLVED) throw new DataBrokenException();
+			
+			long[] starts = new long[(int) ranges];
+			int[] lengths = new int[(int) ranges];
+			int count = 0;
+			long last = 0;
+			for(int i=0;i<ranges;i++) {
+				length = readVarLongLength(bytes, pointer, end);
+				long delta = ByteWrapper.getVarLong(bytes, pointer);
+				pointer += length;
+				length = readVarLongLength(bytes, pointer, end);
+				long rangeLength = ByteWrapper.getVarLong(bytes, pointer) + 1;
+				pointer += length;
+				if(rangeLength < 1 || rangeLength > MAX_RESOLVED - count) throw new DataBrokenException();
+				starts[i] = i == 0 ? delta : last + delta + 2;
+				lengths[i] = (int) rangeLength;
+				last = starts[i] + rangeLength - 1;
+				count += rangeLength;
+			}
+			
+			Confirmations confirmations = new Confirmations(count);
+			for(int i=0;i<ranges;i++) {
+				for(int j=0;j<lengths[i];j++) {
+					confirmations.tags[confirmations.count++] = starts[i] + j;
+				}
+			}
+			if(hasCredit) {
+				length = readVarLongLength(bytes, pointer, end);
+				confirmations.credit = ByteWrapper.getVarLong(bytes, pointer) - 1;
+				pointer += length;
+			}
+			confirmations.frameLength = pointer - start;
+			return confirmations;
+		}
+		
+		private static int readVarLongLength(byte[] bytes, int start, int end) throws DataBrokenException {
+			int length = ByteWrapper.varLongLength(bytes, start, end);
+			if(length < 0) throw new DataBrokenException();
+			return length;
+		}
+		
+	}
+	
+	/*
+	 * Letters of SEND_FRAGMENT, which are sealed one by one, the packet tag is the tag of the data.
+	 * | OPERATION | INDEX | COUNT | FRAGMENT |
+	 *      1B      varint  varint
+	 * Fragments are joined into the letter of the operation, SEND_DATA, SEND_BATCH or RESEND_DATA.
+	 */
+	private final static class Reassembly {
+		
+		public final static int MAX_COUNT = 65536;
+		public final static int MAX_PREFIX_LENGTH = 1 + 2 * 3; // Varints of MAX_COUNT are 3 bytes.
+		public final static int MAX_REASSEMBLIES = 256; // Held at the same time, including broken ones.
+		public final static int REFERENCE_SIZE = 8; // Of a fragment in the array, which is charged to the budget.
+		
+		public final byte operation;
+		public byte[][] fragments;
+		public int received;
+		public int size; // Of received fragments.
+		public boolean isBroken;
+		
+		public TimeoutTask timer;
+		
+		public Reassembly(byte operation, int count) {
+			this.operation = operation;
+			fragments = new byte[count][];
+		}
+		
+		public void add(int index, byte[] fragment) {
+			fragments[index] = fragment;
+			received++;
+			size += fragment.length;
+		}
+		
+		public void breakUp() {
+			fragments = null;
+			size = 0;
+			isBroken = true;
+		}
+		
+		public boolean isComplete() {
+			return received == fragments.length;
+		}
+		
+		/**
+		 * Bytes that are charged to the budget, of received fragments and the array of them.<br>
+		 */
+		public int getCharge() {
+			return fragments == null ? 0 : size + getArraySize(fragments.length);
+		}
+		
+		public static int getArraySize(int count) {
+			return count * REFERENCE_SIZE;
+		}
+		
+		public byte[] join() {
+			byte[] bytes = new byte[size];
+			int pointer = 0;
+			for(byte[] fragment : fragments) {
+				System.arraycopy(fragment, 0, bytes, pointer, fragment.length);
+				pointer += fragment.length;
+			}
+			return bytes;
+		}
+		
+		public static byte[] wrap(byte operation, int index, int count, byte[] data, int offset, int length) {
+			byte[] bytes = new byte[1 + ByteWrapper.varLongLength(index) + ByteWrapper.varLongLength(count) + length];
+			bytes[0] = operation;
+			int pointer = 1;
+			pointer += ByteWrapper.putVarLong(index, bytes, pointer);
+			pointer += ByteWrapper.putVarLong(count, bytes, pointer);
+			System.arraycopy(data, offset, bytes, pointer, length);
+			return bytes;
+		}
+		
+		public static Fragment resolve(byte[] bytes) throws DataBrokenException {
+			if(bytes.length < 1) throw new DataBrokenException();
+			byte operation = bytes[0];
+			if(operation != Operations.SEND_DATA && operation != Operations.SEND_BATCH && operation != Operations.RESEND_DATA) {
+				throw new DataBrokenException();
+			}
+			int pointer = 1;
+			int length = ByteWrapper.varLongLength(bytes, pointer, bytes.length);
+			if(length < 0) throw new DataBrokenException();
+			long index = ByteWrapper.getVarLong(bytes, pointer);
+			pointer += length;
+			length = ByteWrapper.varLongLength(bytes, pointer, bytes.length);
+			if(length < 0) throw new DataBrokenException();
+			long count = ByteWrapper.getVarLong(bytes, pointer);
+			pointer += length;
+			if(count < 1 || count > MAX_COUNT || index < 0 || index >= count) throw new DataBrokenException();
+			return new Fragment(operation, (int) index, (int) count, Arrays.copyOfRange(bytes, pointer, bytes.length));
+		}
+		
+		public final static class Fragment {
+			
+			public final byte operation;
+			public final int index;
+			public final int count;
+			public final byte[] data;
+			
+			public Fragment(byte operation, int index, int count, byte[] data) {
+				this.operation = operation;
+				this.index = index;
+				this.count = count;
+				this.data = data;
+			}
+			
+		}
+		
+	}
+	
+	/**
+	 * The task that breaks fragmented data if it is not complete in time.
+	 */
+	private final class ReassemblyTimeoutTask extends TimeoutTask {
+		
+		private final long tag;
+		private final Reassembly reassembly;
+		
+		public ReassemblyTimeoutTask(long tag, Reassembly reassembly) {
+			super(0);
+			this.tag = tag;
+			this.reassembly = reassembly;
+		}
+		
+		@Override
+		public void run() {
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if(isCancelled) return;
+					dropReassembly(tag, reassembly);
+					if(!reassembly.isBroken) sendDataBroken(tag);
+				}
+			});
+		}
+		
+	}
+	
+	/**
+	 * The task that sends held confirmations if no data has taken them in time.
+	 */
+	private final class ConfirmFlushTask extends TimeoutTask {
+		
+		public ConfirmFlushTask() {
+			super(0);
+		}
+		
+		@Override
+		public void run() {
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if(isCancelled) return;
+					flushConfirmations();
+				}
+			});
+		}
+		
+	}
+	
+	/**
+	 * Data that is reliably sent or counted in flight, and not confirmed yet.<br>
+	 */
+	private final static class Unconfirmed {
+		
+		public final long tag;
+		public long sequence; // Given when it is sent first.
+		public byte[] data; // Null if it is not resent.
+		public final int size;
+		public long sentTime;
+		public int resends;
+		public int timeout; // Of the data itself, so that the timeout of other data does not back off with it.
+		
+		public TimeoutTask timer;
+		
+		public Unconfirmed(long tag, byte[] data, int size) {
+			this.tag = tag;
+			this.data = data;
+			this.size = size;
+		}
+		
+	}
+	
+	/**
+	 * Congestion window in bytes, which grows by confirms and halves on loss (AIMD).<br>
+	 * <br>
+	 * It grows by confirmed bytes in slow start, by a segment every window after, 
+	 * and is halved at most once for data that is sent in the same round trip.<br>
+	 */
+	private final static class Congestion {
+		
+		public final static int SEGMENT = 1200; // Bytes of a datagram that is usually not fragmented.
+		public final static long INITIAL_WINDOW = 10 * SEGMENT;
+		public final static long MIN_WINDOW = 2 * SEGMENT;
+		public final static long MAX_WINDOW = 1 << 26;
+		
+		public long window = INITIAL_WINDOW;
+		public long threshold = MAX_WINDOW; // Of slow start.
+		public long recovery = System.nanoTime(); // Loss of data that is sent before is not counted again.
+		
+		public void confirm(int size) {
+			if(window < threshold) {
+				window += size;
+			} else window += Math.max(1, (long) SEGMENT * size / window);
+			window = Math.min(window, MAX_WINDOW);
+		}
+		
+		public void lose(long sentTime) {
+			if(sentTime - recovery < 0) return;
+			threshold = Math.max(window / 2, MIN_WINDOW);
+			window = threshold;
+			recovery = System.nanoTime();
+		}
+		
+	}
+	
+	/**
+	 * Round trip time, and retransmission timeout that is derived from it as RFC 6298.<br>
+	 */
+	private final static class RoundTrip {
+		
+		public final static int MIN_TIMEOUT = 200; // Rather than 1 second of RFC 6298, as most stacks do.
+		public final static long CLOCK_GRANULARITY = 1000000; // Nanoseconds, of the scheduler.
+		
+		public long smoothed = -1; // Nanoseconds, before the first measurement.
+		public long variation;
+		public int timeout; // Milliseconds
+		
+		public RoundTrip(int initialTimeout) {
+			timeout = initialTimeout;
+		}
+		
+		public void measure(long roundTrip, int maxTimeout) {
+			if(smoothed < 0) {
+				smoothed = roundTrip;
+				variation = roundTrip / 2;
+			} else {
+				variation = (3 * variation + Math.abs(smoothed - roundTrip)) / 4;
+				smoothed = (7 * smoothed + roundTrip) / 8;
+			}
+			long timeout = (smoothed + Math.max(CLOCK_GRANULARITY, 4 * variation) + 999999) / 1000000;
+			this.timeout = (int) Math.max(MIN_TIMEOUT, Math.min(maxTimeout, timeout));
+		}
+		
+	}
+	
+	/**
+	 * The task that resends data if it is not confirmed in time.
+	 */
+	private final class RetransmitTask extends TimeoutTask {
+		
+		private final Unconfirmed data;
+		
+		public RetransmitTask(Unconfirmed data) {
+			super(0);
+			this.data = data;
+		}
+		
+		@Override
+		public void run() {
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if(isCancelled || unconfirmed.get(data.sequence) != data) return;
+					expire(data);
+				}
+			});
+		}
+		
+	}
+	
+	/**
+	 * Sequences that are received recently, the eldest is forgotten if there are too many.<br>
+	 */
+	private final static class ReceivedSequences extends LinkedHashMap<Long, Boolean> {
+		
+		private static final long serialVersionUID = 8216730495186243215L;
+		
+		public final static int MAX_SIZE = 4096;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+			return size() > MAX_SIZE;
+		}
+		
+	}
+	
+	/*
+	 * Packets of FEC_DATA and FEC_PARITY, which are tagged by
+	 * | GROUP | COUNT | INDEX |
+	 *    40b     8b      8b
+	 * Letter of FEC_DATA is a sealed data packet in LetterWrapper, and its COUNT is 0.
+	 * Letter of FEC_PARITY is a parity shard in LetterWrapper, which is coded from COUNT data packets 
+	 * of the group by ReedSolomon. Data shards are | LENGTH | PACKET | zeros |, all as long as the parity.
+	 *                                                  4B
+	 */
+	private final static class ParityGroup {
+		
+		public final static long GROUP_MASK = (1L << 40) - 1;
+		public final static long MAX_TAG = (GROUP_MASK << 16) | 0xFFFF;
+		public final static int LENGTH_PREFIX = ByteWrapper.INT_LENGTH;
+		
+		public final long id;
+		public final List<byte[]> packets = new ArrayList<>();
+		
+		public TimeoutTask flusher;
+		
+		public ParityGroup(long id) {
+			this.id = id;
+		}
+		
+		public static long tag(long group, int count, int index) {
+			return (group << 16) | (count << 8) | index;
+		}
+		
+		public static long group(long tag) {
+			return (tag >>> 16) & GROUP_MASK;
+		}
+		
+		public static int count(long tag) {
+			return (int) (tag >>> 8) & 0xFF;
+		}
+		
+		public static int index(long tag) {
+			return (int) tag & 0xFF;
+		}
+		
+		public static byte[] shard(byte[] packet, int length) {
+			byte[] shard = new byte[length];
+			ByteWrapper.putInt(packet.length, shard, 0);
+			System.arraycopy(packet, 0, shard, LENGTH_PREFIX, packet.length);
+			return shard;
+		}
+		
+	}
+	
+	/**
+	 * Received packets of a group, and its parity.<br>
+	 */
+	private final static class RecoveryGroup {
+		
+		public final byte[][] packets = new byte[ReedSolomon.MAX_SHARDS][];
+		public final byte[][] parities = new byte[ReedSolomon.MAX_SHARDS][];
+		public int count; // Of data packets, 0 before any parity is received.
+		public int length; // Of shards.
+		public boolean isRecovered;
+		
+	}
+	
+	/**
+	 * Recent groups of received packets, the eldest is dropped if there are too many.<br>
+	 */
+	private final static class RecoveryGroups extends LinkedHashMap<Long, RecoveryGroup> {
+		
+		private static final long serialVersionUID = 6304813958256290481L;
+		
+		public final static int MAX_SIZE = 64;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, RecoveryGroup> eldest) {
+			return size() > MAX_SIZE;
+		}
+		
+	}
+	
+	/**
+	 * The task that sends parity of a group that is not full at the end of FEC window.
+	 */
+	private final class ParityFlushTask extends TimeoutTask {
+		
+		public ParityFlushTask() {
+			super(0);
+		}
+		
+		@Override
+		public void run() {
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if(isCancelled) return;
+					flushParity();
+				}
+			});
+		}
+		
+	}
+	
+	/**
+	 * First sequences of sent batches to their sequences, the eldest is dropped if too many are not confirmed.<br>
+	 */
+	private final static class BatchTags extends LinkedHashMap<Long, long[]> {
+		
+		private static final long serialVersionUID = 3470582641265729140L;
+		
+		public final static int MAX_SIZE = 4096;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, long[]> eldest) {
+			return size() > MAX_SIZE;
+		}
+		
+	}
+	
+	/**
+	 * Sequences of sent data that is not tracked to their tags, to post confirms or brokens of them.<br>
+	 * The eldest is dropped if too many are not confirmed, which is not posted then.<br>
+	 */
+	private final static class SentTags extends LinkedHashMap<Long, Long> {
+		
+		private static final long serialVersionUID = -2716154108893240557L;
+		
+		public final static int MAX_SIZE = 4096;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+			return size() > MAX_SIZE;
+		}
+		
+	}
+	
+	/**
+	 * The task that sends the gathered batch at the end of flush window.
+	 */
+	private final class BatchFlushTask extends TimeoutTask {
+		
+		public BatchFlushTask() {
+			super(0);
+		}
+		
+		@Override
+		public void run() {
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if(isCancelled) return;
+					try {
+						flushBatch();
+					} catch (InvalidKeyException ex) {
+						windUp(INVALID_SESSION_KEY);
+					} catch (BadPaddingException ex) {
+						ex.printStackTrace();
+					}
+				}
+			});
+		}
+		
+	}
+	
+	/**
+	 * Offered rekey, which has its key derived already.
+	 */
+	private final static class Rekey {
+		
+		public final static int EPOCH_MASK = 0xFF;
+		
+		public final int epoch;
+		public final byte[] nonce;
+		public final byte[] key;
+		public final SymmetricCrypto.Session session;
+		
+		public Rekey(int epoch, byte[] nonce, byte[] key, SymmetricCrypto.Session session) {
+			this.epoch = epoch;
+			this.nonce = nonce;
+			this.key = key;
+			this.session = session;
+		}
+		
+	}
+	
+	private void offerRekey() {
+		if(!isNegotiated(Negotiation.REKEY) || rekey != null) return;
+		
+		int nextEpoch = (epoch + 1) & Rekey.EPOCH_MASK;
+		byte[] nonce = generateNonce();
+		try {
+			byte[] key = deriveNextKey(nonce);
+			rekey = new Rekey(nextEpoch, nonce, key, sessionCrypto.createSession(key));
+			sendRekey(rekey);
+		} catch (InvalidKeyException ex) {
+			windUp(INVALID_SESSION_KEY);
+			return;
+		} catch (BadPaddingException ex) {
+			ex.printStackTrace();
+		}
+		
+		if(rekeyTimer != null) rekeyTimer.cancel();
+		rekeyTimer = new RekeyTimeoutTask(0);
+		delayableScheduler.schedule(rekeyTimer, timeoutProfile.rekeyTimeout.get());
+	}
+	
+	private byte[] deriveNextKey(byte[] nonce) throws InvalidKeyException {
+		return KeyDerivation.derive(sessionKey, nonce, REKEY_INFO, sessionKey.length);
+	}
+	
+	// Rekey that is offered by this side is confirmed.
+	private void commitRekey() {
+		Rekey rekey = this.rekey;
+		this.rekey = null;
+		installKey(rekey.epoch, rekey.key, rekey.session);
+	}
+	
+	private void installKey(int epoch, byte[] key, SymmetricCrypto.Session session) {
+		retiringSession = symSession;
+		symSession = session;
+		sessionKey = key;
+		this.epoch = epoch;
+		
+		if(keyRetirer != null) keyRetirer.cancel();
+		keyRetirer = new KeyRetireTask();
+		delayableScheduler.schedule(keyRetirer, timeoutProfile.rekeyOverlap.get());
+		
+		scheduleRekey();
+	}
+	
+	private void scheduleRekey() {
+		if(!isNegotiated(Negotiation.REKEY)) return;
+		if(rekeyTimer != null) rekeyTimer.cancel();
+		rekeyTimer = new RekeyIntervalTask();
+		delayableScheduler.schedule(rekeyTimer, timeoutProfile.rekeyInterval.get());
+	}
+	
+	/**
+	 * The task that rotates session key for its lifetime.
+	 */
+	private final class RekeyIntervalTask extends TimeoutTask {
+		
+		public RekeyIntervalTask() {
+			super(0);
+		}
+		
+		@Override
+		public void run() {
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if(isCancelled) return;
+					offerRekey();
+				}
+			});
+		}
+		
+	}
+	
+	/**
+	 * The task that wait for another side to confirm rekey.
+	 */
+	private final class RekeyTimeoutTask extends TimeoutTask {
+		
+		public RekeyTimeoutTask(int timeoutLeft) {
+			super(timeoutLeft);
+		}
+		
+		@Override
+		public void run() {
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if(isCancelled || rekey == null) return;
+					if(timeoutLeft < timeoutProfile.rekeyResends.get()) {
+						try {
+							sendRekey(rekey);
+						} catch (InvalidKeyException | BadPaddingException ex) {
+							ex.printStackTrace();
+						}
+						rekeyTimer = new RekeyTimeoutTask(timeoutLeft + 1);
+						delayableScheduler.schedule(rekeyTimer, timeoutProfile.rekeyTimeout.get());
+					} else {
+						rekey = null; // Try again next interval.
+						scheduleRekey();
+					}
+				}
+			});
+		}
+		
+	}
+	
+	/**
+	 * The task that drops the session key of last epoch after overlap window.
+	 */
+	private final class KeyRetireTask extends TimeoutTask {
+		
+		public KeyRetireTask() {
+			super(0);
+		}
+		
+		@Override
+		public void run() {
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if(isCancelled) return;
+					retiringSession = null;
+				}
+			});
+		}
+		
+	}
+	
+	private void alive() {
+		if(connectionReaper != null) {
+			connectionReaper.cancel();
+		}
+		connectionReaper = new WindUpTask();
+		delayableScheduler.schedule(connectionReaper, timeoutProfile.connectionTimeout.get());
+	}
+	
+	private static boolean byteArrayEquals(byte[] a, byte[] b) {
+		if(a.length != b.length) return false;
+		for(int i=0;i<a.length;i++) {
+			if(a[i] != b[i]) return false;
+		}
+		return true;
+	}
+	
+	
+	private void sendDisconnect(byte[] datagram) {
+		byte[] letter = LetterWrapper.wrap(datagram);
+		Packet packet = new Packet(sessionId, Operations.DISCONNECT, 0, letter);
+		sendPacket(packet, ChecksumStrategy.CRC64);
+	}
+	
+	private void sendConnect(byte[] datagram) {
+		byte[] letter = LetterWrapper.wrap(datagram);
+		Packet packet = new Packet(sessionId, Operations.CONNECT, offer, letter);
+		sendPacket(packet, ChecksumStrategy.CRC64);
+	}
+	
+	private void sendConnectStandBy() {
+		Packet packet = new Packet(sessionId, Operations.CONNECT_STANDBY, 0, EMPTY_BYTE_ARRAY);
+		sendPacket(packet, ChecksumStrategy.CRC64);
+	}
+	
+	private void sendPublicKeyOffer(byte[] publicKey) {
+		byte[] letter = LetterWrapper.wrap(publicKey);
+		Packet packet = new Packet(sessionId, Operations.PUBLIC_KEY_OFFER, negotiation, letter);
+		sendPacket(packet, ChecksumStrategy.CRC64);
+	}
+	
+	private void sendPublicKeyStandBy() {
+		Packet packet = new Packet(sessionId, Operations.PUBLIC_KEY_STANDBY, 0, EMPTY_BYTE_ARRAY);
+		sendPacket(packet, ChecksumStrategy.CRC64);
+	}
+	
+	private void sendStartSession(byte[] encryptedSessionKey) {
+		byte[] letter = LetterWrapper.wrap(encryptedSessionKey);
+		Packet packet = new Packet(sessionId, Operations.START_SESSION, 0, letter);
+		sendPacket(packet, ChecksumStrategy.CRC64);
+	}
+	
+	private void sendBrokenPreRequest(int stage) {
+		Packet packet = new Packet(sessionId, Operations.BROKEN_PRE_REQUEST, stage, EMPTY_BYTE_ARRAY);
+		sendPacket(packet, ChecksumStrategy.CRC64);
+	}
+	
+	private void sendConfirmSession(byte[] sessionKey) throws InvalidKeyException, BadPaddingException {
+		byte[] letter = LetterWrapper.wrap(sessionKey);
+		Packet packet = new Packet(sessionId, Operations.CONFIRM_SESSION, 0, letter);
+		sendPacket(packet, ChecksumStrategy.CRC64);
+	}
+	
+	private void sendConnectionEstablish() {
+		Packet packet = new Packet(sessionId, Operations.CONNECTION_ESTABLISH, 0, EMPTY_BYTE_ARRAY);
+		sendPacket(packet, ChecksumStrategy.CRC64);
+	}
+	
+	private void sendConectionConfirm() {
+		Packet packet = new Packet(sessionId, Operations.CONNECTION_CONFIRM, 0, EMPTY_BYTE_ARRAY);
+		sendPacket(packet, ChecksumStrategy.CRC64);
+	}
+	
+	private void sendData(long sequence, long tag, byte[] data) throws InvalidKeyException, BadPaddingException {
+		sendLetter(Operations.SEND_DATA, sequence, tag, data, 0, data.length);
+	}
+	
+	// Data is counted in flight if flow control is negotiated, and is queued beyond the window.
+	private void dispatchData(long tag, byte[] data) throws InvalidKeyException, BadPaddingException {
+		if(!isReliable() && !isFlowControlled()) {
+			long sequence = sequence(tag);
+			if(isBatching()) {
+				batchData(sequence, tag, data);
+			} else sendData(sequence, tag, data);
+			return;
+		}
+		Unconfirmed entry = new Unconfirmed(tag, data, data.length);
+		if(isFlowControlled()) {
+			if(queued.isEmpty() && fits(entry.size)) {
+				transmit(entry);
+			} else if(queued.size() < deliveryProfile.sendQueueSize.get()) {
+				queued.addLast(entry);
+			} else broadcastPostLost(tag);
+		} else if(unconfirmed.size() < deliveryProfile.retransmitBufferSize.get()) {
+			transmit(entry);
+		} else broadcastPostLost(tag);
+	}
+	
+	/**
+	 * If data of the size can be sent now, which is limited by the congestion window, credit 
+	 * of another side and the retransmit buffer.<br>
+	 * At least one data is in flight, however large it is.<br>
+	 */
+	private boolean fits(int size) {
+		if(isReliable() && unconfirmed.size() >= deliveryProfile.retransmitBufferSize.get()) return false;
+		if(inFlight == 0) return true;
+		long window = congestion == null ? Congestion.INITIAL_WINDOW : congestion.window;
+		return inFlight + size <= Math.min(window, credit);
+	}
+	
+	private void transmit(Unconfirmed entry) throws InvalidKeyException, BadPaddingException {
+		byte[] data = entry.data;
+		if(!isReliable()) entry.data = null; // It is kept to resend only.
+		track(entry);
+		if(isBatching()) {
+			batchData(entry.sequence, entry.tag, data);
+		} else sendData(entry.sequence, entry.tag, data);
+	}
+	
+	// Sequence of data that is not tracked, which tag is kept to post its confirm or broken.
+	private long sequence(long tag) {
+		if(!isSequenced()) return tag;
+		long sequence = nextSequence++;
+		sentTags.put(sequence, tag);
+		return sequence;
+	}
+	
+	// Tag of data that is not tracked, or null if it is posted or dropped already.
+	private Long untrackedTag(long sequence) {
+		return isSequenced() ? sentTags.remove(sequence) : Long.valueOf(sequence);
+	}
+	
+	private void sendQueued() {
+		try {
+			while(!queued.isEmpty() && fits(queued.peekFirst().size)) {
+				transmit(queued.pollFirst());
+			}
+		} catch (InvalidKeyException ex) {
+			windUp(INVALID_SESSION_KEY);
+		} catch (BadPaddingException ex) {
+			ex.printStackTrace();
+		}
+	}
+	
+	// Data is kept by its sequence until it is confirmed or lost.
+	private void track(Unconfirmed entry) {
+		if(roundTrip == null) {
+			roundTrip = new RoundTrip(timeoutProfile.retransmitTimeout.get());
+			congestion = new Congestion();
+		}
+		
+		entry.sequence = nextSequence++;
+		entry.sentTime = System.nanoTime();
+		entry.timeout = roundTrip.timeout;
+		unconfirmed.put(entry.sequence, entry);
+		inFlight += entry.size;
+		startRetransmitTimer(entry);
+	}
+	
+	// Forget data that is confirmed and post the confirm, which is not posted if data is confirmed again.
+	private void untrack(long sequence) {
+		Unconfirmed data = unconfirmed.get(sequence);
+		if(data == null) {
+			Long tag = untrackedTag(sequence);
+			if(tag != null) broadcastPostConfirm(tag);
+			return;
+		}
+		if(data.resends == 0) { // Karn's algorithm, resent data is not measured.
+			roundTrip.measure(System.nanoTime() - data.sentTime, timeoutProfile.maxRetransmitTimeout.get());
+		}
+		congestion.confirm(data.size);
+		forget(data);
+		broadcastPostConfirm(data.tag);
+	}
+	
+	// Of confirmed or lost data, which leaves room in the window.
+	private void forget(Unconfirmed data) {
+		unconfirmed.remove(data.sequence);
+		data.timer.cancel();
+		inFlight -= data.size;
+		sendQueued();
+	}
+	
+	// Counted data is taken as lost, and reliably sent data is resent.
+	private void expire(Unconfirmed data) {
+		congestion.lose(data.sentTime);
+		if(data.data == null) {
+			forget(data);
+			sentTags.put(data.sequence, data.tag); // It may be confirmed late.
+		} else resend(data, true);
+	}
+	
+	private void resend(Unconfirmed data, boolean isTimeout) {
+		int resends = timeoutProfile.retransmitResends.get();
+		if(resends >= 0 && data.resends >= resends) {
+			forget(data);
+			broadcastPostLost(data.tag);
+			return;
+		}
+		data.resends++;
+		data.sentTime = System.nanoTime();
+		batchTags.remove(data.sequence); // Confirm of the sequence stands for itself only from now on.
+		if(isTimeout) data.timeout = (int) Math.min(data.timeout * 2L, timeoutProfile.maxRetransmitTimeout.get()); // Backs off.
+		try {
+			sendLetter(Operations.RESEND_DATA, data.sequence, data.tag, data.data, 0, data.data.length);
+		} catch (InvalidKeyException ex) {
+			windUp(INVALID_SESSION_KEY);
+			return;
+		} catch (BadPaddingException ex) {
+			ex.printStackTrace();
+		}
+		startRetransmitTimer(data);
+	}
+	
+	private void startRetransmitTimer(Unconfirmed data) {
+		data.timer = new RetransmitTask(data);
+		delayableScheduler.schedule(data.timer, data.timeout);
+	}
+	
+	/*
+	 * Letter of SEND_DATA, SEND_BATCH or RESEND_DATA, which is compressed and takes confirmations if they are negotiated.
+	 * Letter of RESEND_DATA takes none, so that fragments of every resend are the same.
+	 * If data is sequenced, the packet is tagged by the sequence, and the letter of SEND_DATA or RESEND_DATA 
+	 * starts with the tag of data, so that a tag can be used again without being taken as resent.
+	 * | TAG | CONFIRMATIONS | DATA |
+	 *  varint
+	 */
+	private void sendLetter(byte operation, long sequence, long tag, byte[] data, int offset, int length) 
+			throws InvalidKeyException, BadPaddingException {
+		Compression compression = compression();
+		if(compression != null) {
+			data = compression.compress(data, offset, length, deliveryProfile.compressionThreshold.get());
+			offset = 0;
+			length = data.length;
+		}
+		boolean isTagged = isSequenced() && operation != Operations.SEND_BATCH;
+		if(isTagged || isNegotiated(Negotiation.CONFIRM_RANGES)) {
+			data = attachPrefix(isTagged, tag, data, offset, length, operation != Operations.RESEND_DATA);
+			offset = 0;
+			length = data.length;
+		}
+		sendFragmentable(new Packet.Head(sessionId, operation, sequence), data, offset, length);
+	}
+	
+	// Sequences of a batch follow each other, which the receiver counts from the first.
+	private void batchData(long sequence, long tag, byte[] data) throws InvalidKeyException, BadPaddingException {
+		int budget = deliveryProfile.batchBudget.get();
+		int size = Batch.sizeOf(tag, data);
+		if(batch != null && (batch.size + size > budget 
+				|| (isSequenced() && sequence != batch.sequences[0] + batch.count))) flushBatch();
+		if(batch == null) {
+			batch = new Batch();
+			batch.flusher = new BatchFlushTask();
+			delayableScheduler.schedule(batch.flusher, deliveryProfile.batchWindow.get());
+		}
+		batch.add(sequence, tag, data);
+		if(batch.size >= budget) flushBatch();
+	}
+	
+	private void flushBatch() throws InvalidKeyException, BadPaddingException {
+		Batch batch = this.batch;
+		if(batch == null) return;
+		this.batch = null;
+		batch.flusher.cancel();
+		
+		if(batch.count == 1) {
+			sendData(batch.sequences[0], batch.tags[0], batch.data.get(0));
+			return;
+		}
+		batchTags.put(batch.sequences[0], Arrays.copyOf(batch.sequences, batch.count));
+		byte[] bytes = batch.toBytes();
+		sendLetter(Operations.SEND_BATCH, batch.sequences[0], batch.tags[0], bytes, 0, bytes.length);
+	}
+	
+	// Data that is larger than the max frame size is sent in fragments of the same tag.
+	private void sendFragmentable(Packet.Head head, byte[] data, int dataOffset, int dataLength) 
+			throws InvalidKeyException, BadPaddingException {
+		int maxFrameSize = deliveryProfile.maxFrameSize.get();
+		if(maxFrameSize > 0 && isNegotiated(Negotiation.FORWARD_ERROR_CORRECTION)) {
+			maxFrameSize = Math.max(1, maxFrameSize - getParityOverhead());
+		}
+		if(maxFrameSize == 0 || !isNegotiated(Negotiation.FRAGMENTATION) || getSealedSize(head, dataLength) <= maxFrameSize) {
+			sendSealed(head, data, dataOffset, dataLength);
+			return;
+		}
+		
+		Packet.Head fragmentHead = new Packet.Head(sessionId, Operations.SEND_FRAGMENT, head.tag);
+		int fragmentSize = maxFrameSize - getSealedSize(fragmentHead, Reassembly.MAX_PREFIX_LENGTH);
+		while(fragmentSize > 0 && getSealedSize(fragmentHead, Reassembly.MAX_PREFIX_LENGTH + fragmentSize) > maxFrameSize) {
+			fragmentSize--;
+		}
+		if(fragmentSize < 1) throw new BadPaddingException("Max frame size is too small");
+		int count = (dataLength + fragmentSize - 1) / fragmentSize;
+		if(count > Reassembly.MAX_COUNT) throw new BadPaddingException("Data is too large to be fragmented");
+		
+		for(int i=0;i<count;i++) {
+			int offset = i * fragmentSize;
+			sendSealed(fragmentHead, Reassembly.wrap(
+					head.operation, i, count, 
+					data, dataOffset + offset, Math.min(fragmentSize, dataLength - offset)
+					));
+		}
+	}
+	
+	// Length of the packet that sendSealed sends.
+	private int getSealedSize(Packet.Head head, int dataLength) throws InvalidKeyException, BadPaddingException {
+		boolean compact = isCompact(head.operation);
+		int letterStart = compact ? head.getCompactLength() : Packet.LETTER_START;
+		int sealStart = letterStart + (isNegotiated(Negotiation.REKEY) ? 1 : 0);
+		if(!(symSession instanceof AuthenticatedSession)) dataLength += LetterWrapper.DATA_START;
+		return sealStart + symSession.getEncryptedSize(dataLength);
+	}
+	
+	// Tag and pending confirmations ride on the data, confirmations are sent on their own if no data is sent in time.
+	private byte[] attachPrefix(boolean isTagged, long tag, byte[] data, int offset, int length, boolean isTaking) {
+		byte[] frame = isNegotiated(Negotiation.CONFIRM_RANGES) ? 
+				frame(isTaking ? takeConfirmations() : null, isTaking) : EMPTY_BYTE_ARRAY;
+		int tagLength = isTagged ? ByteWrapper.varLongLength(tag) : 0;
+		byte[] bytes = new byte[tagLength + frame.length + length];
+		if(isTagged) ByteWrapper.putVarLong(tag, bytes, 0);
+		System.arraycopy(frame, 0, bytes, tagLength, frame.length);
+		System.arraycopy(data, offset, bytes, tagLength + frame.length, length);
+		return bytes;
+	}
+	
+	// Frame of confirmations, which advertises credit if flow control is negotiated.
+	private byte[] frame(Confirmations confirmations, boolean isAdvertising) {
+		if(!isNegotiated(Negotiation.FLOW_CONTROL)) return confirmations == null ? Confirmations.NONE : confirmations.toBytes(false);
+		if(confirmations == null) confirmations = new Confirmations(0);
+		confirmations.credit = isAdvertising ? Math.max(0, deliveryProfile.reassemblyBudget.get() - reassemblySize) : -1;
+		return confirmations.toBytes(true);
+	}
+	
+	private void confirmData(long tag) {
+		int delay = deliveryProfile.confirmDelay.get();
+		if(!isNegotiated(Negotiation.CONFIRM_RANGES) || delay <= 0) {
+			sendDataConfirm(tag);
+			return;
+		}
+		if(confirmations == null) {
+			confirmations = new Confirmations(Confirmations.MAX_PENDING);
+			confirmations.flusher = new ConfirmFlushTask();
+			delayableScheduler.schedule(confirmations.flusher, delay);
+		}
+		if(confirmations.add(tag)) flushConfirmations();
+	}
+	
+	private void flushConfirmations() {
+		Confirmations confirmations = takeConfirmations();
+		if(confirmations == null) return;
+		byte[] letter = LetterWrapper.wrap(frame(confirmations, true), checksum());
+		Packet packet = new Packet(sessionId, Operations.CONFIRM_RANGES, 0, letter);
+		sendPacket(packet, checksum());
+	}
+	
+	private Confirmations takeConfirmations() {
+		Confirmations confirmations = this.confirmations;
+		if(confirmations == null) return null;
+		this.confirmations = null;
+		confirmations.flusher.cancel();
+		return confirmations;
+	}
+	
+	private void sendSessionTicket(long lifetime, byte[] ticketId) throws InvalidKeyException, BadPaddingException {
+		sendSealed(new Packet.Head(sessionId, Operations.SESSION_TICKET, lifetime), ticketId);
+	}
+	
+	private void sendResumeSession(Resumption resumption, byte[] datagram) {
+		TicketCache.Ticket ticket = resumption.ticket;
+		byte[] proof = resumption.requestProof(sessionId);
+		byte[] letter = LetterWrapper.wrap(
+				ByteWrapper.linkAll(Arrays.asList(ticket.id, resumption.requesterNonce, proof, datagram))
+				);
+		Packet packet = new Packet(sessionId, Operations.RESUME_SESSION, 0, letter);
+		sendPacket(packet, ChecksumStrategy.CRC64);
+	}
+	
+	private void sendResumeConfirm(Resumption resumption) {
+		byte[] proof = resumption.confirmProof(sessionId);
+		byte[] letter = LetterWrapper.wrap(ByteWrapper.linkAll(Arrays.asList(resumption.acceptorNonce, proof)));
+		Packet packet = new Packet(sessionId, Operations.RESUME_CONFIRM, 0, letter);
+		sendPacket(packet, ChecksumStrategy.CRC64);
+	}
+	
+	private void sendResumeReject(long sessionId) {
+		Packet packet = new Packet(sessionId, Operations.RESUME_REJECT, 0, EMPTY_BYTE_ARRAY);
+		sendPacket(packet, ChecksumStrategy.CRC64);
+	}
+	
+	private void sendConnectRequest(byte[] datagram) {
+		if(resumption != null) {
+			sendResumeSession(resumption, datagram);
+		} else {
+			sendConnect(datagram);
+		}
 	}
 	
-	private void confirmConnection() {
-		clearBrokenPreRequests();
-		nextTimeout.cancel();
-		setStage(Stages.CONNECTED);
-		aliveKeeper = new KeepAliveTask();
-		delayableScheduler.schedule(aliveKeeper);
-		broadcastOnConnectionEstablish();
+	private void sendRekey(Rekey rekey) throws InvalidKeyException, BadPaddingException {
+		sendSealed(new Packet.Head(sessionId, Operations.REKEY, rekey.epoch), rekey.nonce);
 	}
 	
-	private final class KeepAliveTask extends TimeoutTask {
-
-		public KeepAliveTask() {
-			super(0);
-		}
-
-		@Override
-		public void run() {
-			scheduler.schedule(new Runnable() {
-				@Override
-				public void run() {
-					if(isCancelled) return;
-					sendKeepAlive();
-					delayableScheduler.schedule(this, timeoutProfile.keepAliveDelay.get());
-				}
-			});
+	private void sendRekeyConfirm() {
+		try {
+			sendSealed(new Packet.Head(sessionId, Operations.REKEY_CONFIRM, epoch), EMPTY_BYTE_ARRAY);
+		} catch (InvalidKeyException | BadPaddingException ex) {
+			ex.printStackTrace();
 		}
-		
 	}
 	
-	private void alive() {
-		if(connectionReaper != null) {
-			connectionReaper.cancel();
-		}
-		connectionReaper = new WindUpTask();
-		delayableScheduler.schedule(connectionReaper, timeoutProfile.connectionTimeout.get());
+	/*
+	 * Letters of encrypted packets, which are sealed with head by authenticated crypto, 
+	 * or wrapped with checksum and encrypted.
+	 * 
+	 * If rekeying is negotiated, they are prefixed by epoch of the key.
+	 * | EPOCH | SEALED LETTER |
+	 *    1B
+	 */
+	private void sendSealed(Packet.Head head, byte[] data) throws InvalidKeyException, BadPaddingException {
+		sendSealed(head, data, 0, data.length);
 	}
 	
-	private static boolean byteArrayEquals(byte[] a, byte[] b) {
-		if(a.length != b.length) return false;
-		for(int i=0;i<a.length;i++) {
-			if(a[i] != b[i]) return false;
+	private void sendSealed(Packet.Head head, byte[] data, int dataOffset, int dataLength) 
+			throws InvalidKeyException, BadPaddingException {
+		ByteBufferPool bufferPool = this.bufferPool;
+		ChecksumStrategy checksum = checksum();
+		boolean compact = isCompact(head.operation);
+		int headStart = compact ? Packet.COMPACT_HEAD_START : Packet.HEAD_START;
+		int letterStart = compact ? head.getCompactLength() : Packet.LETTER_START;
+		int sealStart = letterStart + (isNegotiated(Negotiation.REKEY) ? 1 : 0);
+		
+		// Encrypt straight into the packet, behind the head.
+		ByteBuffer buffer = null;
+		ByteBuffer wrapped = null;
+		try {
+			int sealedLength;
+			if(symSession instanceof AuthenticatedSession) {
+				buffer = bufferPool.obtain(sealStart + symSession.getEncryptedSize(dataLength));
+				wrapHead(head, buffer, checksum, compact);
+				sealedLength = ((AuthenticatedSession) symSession).encrypt(
+						data, dataOffset, dataLength, 
+						buffer.array(), headStart, letterStart - headStart, // The head on the packet is the associated data.
+						buffer.array(), sealStart
+						);
+			} else {
+				wrapped = bufferPool.obtain(LetterWrapper.DATA_START + dataLength);
+				LetterWrapper.wrap(data, dataOffset, dataLength, checksum, wrapped.array(), 0);
+				buffer = bufferPool.obtain(sealStart + symSession.getEncryptedSize(wrapped.limit()));
+				wrapHead(head, buffer, checksum, compact);
+				sealedLength = symSession.encrypt(wrapped.array(), 0, wrapped.limit(), buffer.array(), sealStart);
+			}
+			if(sealStart != letterStart) buffer.put(letterStart, (byte) epoch);
+			buffer.position(0);
+			buffer.limit(sealStart + sealedLength);
+			
+			if(isProtected(head.operation)) {
+				protect(buffer);
+			} else basicMessenger.send(buffer);
+		} finally {
+			if(wrapped != null) bufferPool.recycle(wrapped);
+			if(buffer != null) bufferPool.recycle(buffer);
 		}
-		return true;
 	}
 	
-	
-	private void sendDisconnect(byte[] datagram) {
-		byte[] letter = LetterWrapper.wrap(datagram);
-		Packet packet = new Packet(sessionId, Operations.DISCONNECT, 0, letter);
-		basicMessenger.send(packet.wrap());
+	private boolean isProtected(byte operation) {
+		return isNegotiated(Negotiation.FORWARD_ERROR_CORRECTION) && isDataOperation(operation);
 	}
 	
-	private void sendConnect(byte[] datagram) {
-		byte[] letter = LetterWrapper.wrap(datagram);
-		Packet packet = new Packet(sessionId, Operations.CONNECT, 0, letter);
-		basicMessenger.send(packet.wrap());
+	/*
+	 * Compact head carries only 16 bits of session id and a checksum that anyone can compute, 
+	 * so only data packets take it, whose heads are authenticated with their letters by AEAD. 
+	 * Other packets, such as confirmations and keep-alives, keep full head, so that spoofing them 
+	 * still needs the 64 bits session id.
+	 */
+	private boolean isCompact(byte operation) {
+		if(!isNegotiated(Negotiation.COMPACT_HEADER) || !(symSession instanceof AuthenticatedSession)) return false;
+		return isDataOperation(operation);
 	}
 	
-	private void sendConnectStandBy() {
-		Packet packet = new Packet(sessionId, Operations.CONNECT_STANDBY, 0, EMPTY_BYTE_ARRAY);
-		basicMessenger.send(packet.wrap());
+	private static boolean isDataOperation(byte operation) {
+		return operation == Operations.SEND_DATA || operation == Operations.SEND_BATCH 
+				|| operation == Operations.SEND_FRAGMENT || operation == Operations.RESEND_DATA;
 	}
 	
-	private void sendPublicKeyOffer(byte[] publicKey) {
-		byte[] letter = LetterWrapper.wrap(publicKey);
-		Packet packet = new Packet(sessionId, Operations.PUBLIC_KEY_OFFER, 0, letter);
-		basicMessenger.send(packet.wrap());
+	// Data packet is sent in FEC_DATA, and parity is sent after every group of them.
+	private void protect(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		if(parityGroup == null) {
+			parityGroup = new ParityGroup(nextParityGroup++ & ParityGroup.GROUP_MASK);
+			parityGroup.flusher = new ParityFlushTask();
+			delayableScheduler.schedule(parityGroup.flusher, deliveryProfile.fecWindow.get());
+		}
+		long tag = ParityGroup.tag(parityGroup.id, 0, parityGroup.packets.size());
+		parityGroup.packets.add(bytes);
+		sendPacket(new Packet(sessionId, Operations.FEC_DATA, tag, LetterWrapper.wrap(bytes, checksum())), checksum());
+		if(parityGroup.packets.size() >= dataShards()) flushParity();
 	}
 	
-	private void sendPublicKeyStandBy() {
-		Packet packet = new Packet(sessionId, Operations.PUBLIC_KEY_STANDBY, 0, EMPTY_BYTE_ARRAY);
-		basicMessenger.send(packet.wrap());
+	private void flushParity() {
+		ParityGroup group = parityGroup;
+		if(group == null) return;
+		parityGroup = null;
+		group.flusher.cancel();
+		
+		int count = group.packets.size();
+		int parityShards = parityShards();
+		int length = 0;
+		for(byte[] bytes : group.packets) {
+			length = Math.max(length, ParityGroup.LENGTH_PREFIX + bytes.length);
+		}
+		byte[][] shards = new byte[count + parityShards][];
+		for(int i=0;i<count;i++) {
+			shards[i] = ParityGroup.shard(group.packets.get(i), length);
+		}
+		for(int i=0;i<parityShards;i++) {
+			shards[count + i] = new byte[length];
+		}
+		new ReedSolomon(count, parityShards).encode(shards, length);
+		
+		for(int i=0;i<parityShards;i++) {
+			byte[] letter = LetterWrapper.wrap(shards[count + i], checksum());
+			Packet packet = new Packet(sessionId, Operations.FEC_PARITY, ParityGroup.tag(group.id, count, i), letter);
+			sendPacket(packet, checksum());
+		}
 	}
 	
-	private void sendStartSession(byte[] encryptedSessionKey) {
-		byte[] letter = LetterWrapper.wrap(encryptedSessionKey);
-		Packet packet = new Packet(sessionId, Operations.START_SESSION, 0, letter);
-		basicMessenger.send(packet.wrap());
+	// Bytes that FEC_PARITY adds to the largest data packet of its group at most.
+	private int getParityOverhead() {
+		return Packet.LETTER_START + LetterWrapper.DATA_START + ParityGroup.LENGTH_PREFIX;
 	}
 	
-	private void sendBrokenPreRequest(int stage) {
-		Packet packet = new Packet(sessionId, Operations.BROKEN_PRE_REQUEST, stage, EMPTY_BYTE_ARRAY);
-		basicMessenger.send(packet.wrap());
+	private void sendPacket(Packet packet, ChecksumStrategy checksum) {
+		ByteBufferPool bufferPool = this.bufferPool;
+		ByteBuffer buffer = bufferPool.obtain(Packet.LETTER_START + packet.letter.length);
+		try {
+			packet.wrap(buffer, checksum);
+			buffer.flip();
+			basicMessenger.send(buffer);
+		} finally {
+			bufferPool.recycle(buffer);
+		}
 	}
 	
-	private void sendConfirmSession(byte[] sessionKey) throws InvalidKeyException, BadPaddingException {
-		byte[] letter = LetterWrapper.wrap(sessionKey);
-		Packet packet = new Packet(sessionId, Operations.CONFIRM_SESSION, 0, letter);
-		basicMessenger.send(packet.wrap());
+	private static void wrapHead(Packet.Head head, ByteBuffer buffer, ChecksumStrategy checksum, boolean compact) {
+		if(compact) {
+			head.wrapCompact(buffer, checksum);
+		} else {
+			head.wrap(buffer, checksum);
+		}
 	}
 	
-	private void sendConnectionEstablish() {
-		Packet packet = new Packet(sessionId, Operations.CONNECTION_ESTABLISH, 0, EMPTY_BYTE_ARRAY);
-		basicMessenger.send(packet.wrap());
+	private byte[] openLetter(PacketView packet) throws InvalidKeyException, BadPaddingException, DataBrokenException {
+		int offset = packet.letterOffset();
+		int length = packet.letterLength();
+		if(!isNegotiated(Negotiation.REKEY)) return open(packet, offset, length, symSession, checksum());
+		
+		if(length < 1) throw new DataBrokenException();
+		int letterEpoch = packet.bytes()[offset] & Rekey.EPOCH_MASK;
+		if(letterEpoch == epoch) {
+			return open(packet, offset + 1, length - 1, symSession, checksum());
+		} else if(retiringSession != null && letterEpoch == ((epoch - 1) & Rekey.EPOCH_MASK)) {
+			return open(packet, offset + 1, length - 1, retiringSession, checksum());
+		} else if(rekey != null && letterEpoch == rekey.epoch) {
+			byte[] data = open(packet, offset + 1, length - 1, rekey.session, checksum());
+			commitRekey(); // Another side has taken the new key.
+			return data;
+		}
+		throw new DataBrokenException();
 	}
 	
-	private void sendConectionConfirm() {
-		Packet packet = new Packet(sessionId, Operations.CONNECTION_CONFIRM, 0, EMPTY_BYTE_ARRAY);
-		basicMessenger.send(packet.wrap());
+	private static byte[] open(
+			PacketView packet, int offset, int length, 
+			SymmetricCrypto.Session session, ChecksumStrategy checksum
+			) throws InvalidKeyException, BadPaddingException, DataBrokenException {
+		byte[] bytes = packet.bytes();
+		byte[] opened = new byte[session.getDecryptedSize(length)];
+		if(session instanceof AuthenticatedSession) {
+			int openedLength = ((AuthenticatedSession) session).decrypt(
+					bytes, offset, length, 
+					bytes, packet.headOffset(), packet.headLength(), // The head on the packet is the associated data.
+					opened, 0
+					);
+			return openedLength == opened.length ? opened : Arrays.copyOf(opened, openedLength);
+		} else {
+			int openedLength = session.decrypt(bytes, offset, length, opened, 0);
+			return LetterWrapper.resolve(opened, 0, openedLength, checksum);
+		}
 	}
 	
-	private void sendData(long tag, byte[] data) throws InvalidKeyException, BadPaddingException {
-		byte[] letter = LetterWrapper.wrapAndEncrypt(data, symCrypto, sessionKey);
-		Packet packet = new Packet(sessionId, Operations.SEND_DATA, tag, letter);
-		basicMessenger.send(packet.wrap());
+	private static byte[] resolveLetter(PacketView packet) throws DataBrokenException {
+		return LetterWrapper.resolve(packet.bytes(), packet.letterOffset(), packet.letterLength(), ChecksumStrategy.CRC64);
 	}
 	
 	private void sendDataConfirm(long tag) {
 		Packet packet = new Packet(sessionId, Operations.CONFIRM_DATA, tag, EMPTY_BYTE_ARRAY);
-		basicMessenger.send(packet.wrap());
+		sendPacket(packet, checksum());
 	}
 	
 	private void sendDataBroken(long tag) {
 		Packet packet = new Packet(sessionId, Operations.BROKEN_DATA, tag, EMPTY_BYTE_ARRAY);
-		basicMessenger.send(packet.wrap());
+		sendPacket(packet, checksum());
 	}
 	
 	private void sendKeepAlive() {
-		Packet packet = new Packet(sessionId, Operations.KEEP_ALIVE, 0, EMPTY_BYTE_ARRAY);
-		basicMessenger.send(packet.wrap());
+		Confirmations confirmations = takeConfirmations();
+		byte[] letter = confirmations == null && !isNegotiated(Negotiation.FLOW_CONTROL) ? 
+				EMPTY_BYTE_ARRAY : LetterWrapper.wrap(frame(confirmations, true), checksum());
+		Packet packet = new Packet(sessionId, Operations.KEEP_ALIVE, 0, letter);
+		sendPacket(packet, checksum());
 	}
 	
 	private void windUp(byte[] datagram) {
@@ -1190,6 +3832,67 @@ public class SecureDelivery {
 	private void windUpLocal(byte[] datagram) {
 		setStage(Stages.NOT_CONNECTED);
 		changeSessionId();
+		handshakeWork = null;
+		resumption = null;
+		symSession = null;
+		epoch = 0;
+		retiringSession = null;
+		rekey = null;
+		if(rekeyTimer != null) {
+			rekeyTimer.cancel();
+			rekeyTimer = null;
+		}
+		if(keyRetirer != null) {
+			keyRetirer.cancel();
+			keyRetirer = null;
+		}
+		sessionCrypto = null;
+		negotiation = 0;
+		offer = 0;
+		if(compression != null) {
+			compression.end();
+			compression = null;
+		}
+		if(batch != null) {
+			batch.flusher.cancel();
+			batch = null;
+		}
+		batchTags.clear();
+		if(parityGroup != null) {
+			parityGroup.flusher.cancel();
+			parityGroup = null;
+		}
+		nextParityGroup = 0;
+		recoveryGroups.clear();
+		if(confirmations != null) {
+			confirmations.flusher.cancel();
+			confirmations = null;
+		}
+		for(Reassembly reassembly : reassemblies.values()) {
+			reassembly.timer.cancel();
+		}
+		reassemblies.clear();
+		reassemblySize = 0;
+		if(!unconfirmed.isEmpty() || !queued.isEmpty()) {
+			Unconfirmed[] lost = unconfirmed.values().toArray(new Unconfirmed[unconfirmed.size()]);
+			Unconfirmed[] unsent = queued.toArray(new Unconfirmed[queued.size()]);
+			unconfirmed.clear();
+			queued.clear();
+			for(Unconfirmed data : lost) {
+				data.timer.cancel();
+				if(data.data != null) broadcastPostLost(data.tag);
+			}
+			for(Unconfirmed data : unsent) {
+				broadcastPostLost(data.tag);
+			}
+		}
+		inFlight = 0;
+		credit = Long.MAX_VALUE;
+		roundTrip = null;
+		congestion = null;
+		receivedSequences.clear();
+		sentTags.clear();
+		nextSequence = 0;
 		if(standByTimeout != null) {
 			standByTimeout.cancel();
 			standByTimeout = null;
@@ -1220,15 +3923,12 @@ public class SecureDelivery {
 				
 				@Override
 				public void run() {
-					try {
-						Packet packet = Packet.resolve(data);
-						handle(packet);
-					} catch (DataBrokenException ex) {
-						if(!isStageConsistent(Stages.CONNECTED)) {
-							if(isStageConsistent(Stages.NOT_CONNECTED)) {
-								sendBrokenPreRequest(connectionStage);
-							} else reportBrokenPreRequests();
-						}
+					if(resolvePacket(data)) {
+						handle(packetView);
+					} else if(!isStageConsistent(Stages.CONNECTED)) {
+						if(isStageConsistent(Stages.NOT_CONNECTED)) {
+							sendBrokenPreRequest(connectionStage);
+						} else reportBrokenPreRequests();
 					}
 				}
 				
@@ -1237,6 +3937,22 @@ public class SecureDelivery {
 		
 	}
 	
+	/*
+	 * Packets of connected session are checked by negotiated checksum, and data packets are compact if it 
+	 * is negotiated, while packets of handshake and disconnect always have full head checked by CRC64.
+	 */
+	private boolean resolvePacket(byte[] data) {
+		ChecksumStrategy checksum = checksum();
+		if(isNegotiated(Negotiation.COMPACT_HEADER) && packetView.resolveCompact(data, 0, data.length, sessionId, checksum) 
+				&& isCompact(packetView.operation())) return true;
+		if(checksum != ChecksumStrategy.CRC64 && packetView.resolve(data, checksum)) return true;
+		return packetView.resolve(data, ChecksumStrategy.CRC64);
+	}
+	
+	private ChecksumStrategy checksum() {
+		return isNegotiated(Negotiation.CRC32C) ? ChecksumStrategy.CRC32C : ChecksumStrategy.CRC64;
+	}
+	
 	private void reportBrokenPreRequests() {
 		if (preRequestReports++ < timeoutProfile.brokenPreRequestReports.get()) {
 			sendBrokenPreRequest(connectionStage);
@@ -1270,6 +3986,54 @@ public class SecureDelivery {
 		public final static byte CONFIRM_DATA = 11;
 		public final static byte BROKEN_DATA = 12;
 		public final static byte KEEP_ALIVE = 13;
+		public final static byte RESUME_SESSION = 14;
+		public final static byte RESUME_CONFIRM = 15;
+		public final static byte RESUME_REJECT = 16;
+		public final static byte SESSION_TICKET = 17; // ENCRYPTED
+		public final static byte REKEY = 18; // ENCRYPTED
+		public final static byte REKEY_CONFIRM = 19; // ENCRYPTED
+		public final static byte SEND_BATCH = 20; // ENCRYPTED
+		public final static byte CONFIRM_RANGES = 21;
+		public final static byte SEND_FRAGMENT = 22; // ENCRYPTED
+		public final static byte RESEND_DATA = 23; // ENCRYPTED
+		public final static byte FEC_DATA = 24; // Sealed data packet in it.
+		public final static byte FEC_PARITY = 25;
+	}
+	
+	/*
+	 * Negotiation rides on the tag of CONNECT and PUBLIC_KEY_OFFER, 
+	 * which is 0 from deliveries that don't negotiate.
+	 * 
+	 * CONNECT				| ... | FEATURES | OFFERED SUITES |
+	 * PUBLIC_KEY_OFFER		| ... | FEATURES | CHOSEN SUITE   |
+	 * 									 		   8b
+	 * 
+	 * Suites are from SymmetricCryptoSelector, offered as bits (1 << id), chosen as id.
+	 * Features are bits, offered by requester, and agreed by acceptor if it supports.
+	 */
+	private final static class Negotiation {
+		public final static long SUITES_MASK = 0xFFL;
+		public final static long RESUMPTION = 1L << 8; // Acceptor issues session tickets.
+		public final static long REKEY = 1L << 9; // Encrypted letters are prefixed by epoch.
+		public final static long CRC32C = 1L << 10; // Checksum of connected session.
+		public final static long COMPACT_HEADER = 1L << 11; // Data packets of connected session are compact, if sealed by AEAD.
+		public final static long COMPRESSION = 1L << 12; // Data is deflated before encryption.
+		public final static long BATCHING = 1L << 13; // Data can be sent in batches.
+		public final static long CONFIRM_RANGES = 1L << 14; // Data is confirmed in ranges, which may be delayed.
+		public final static long FRAGMENTATION = 1L << 15; // Large data can be sent in fragments.
+		public final static long RETRANSMISSION = 1L << 16; // Data is tagged by sequences, and can be resent, which is received once.
+		public final static long FLOW_CONTROL = 1L << 17; // Confirmations advertise credit for data in flight.
+		public final static long FORWARD_ERROR_CORRECTION = 1L << 18; // Groups of data packets are followed by parity.
+		public final static long FEATURES_MASK = 
+				RESUMPTION | REKEY | CRC32C | COMPACT_HEADER | COMPRESSION | BATCHING | CONFIRM_RANGES | FRAGMENTATION 
+				| RETRANSMISSION | FLOW_CONTROL | FORWARD_ERROR_CORRECTION;
+		
+		public final static int DATA_SHARDS_SHIFT = 32; // Data packets of a parity group, k of Reed Solomon.
+		public final static int PARITY_SHARDS_SHIFT = 40; // Parity packets of a parity group, m of Reed Solomon.
+		public final static long SHARDS_MASK = 0xFFFFL << DATA_SHARDS_SHIFT;
+		
+		public final static int DICTIONARY_SHIFT = 48; // Id of compression dictionary, 0 for none.
+		public final static long DICTIONARY_MASK = 0xFFFFL << DICTIONARY_SHIFT;
 	}
 	
 	public final static class Stages {
@@ -1290,41 +4054,65 @@ public class SecureDelivery {
 		public final static int DATA_START = 8;
 		
 		public static byte[] wrap(byte[] data) {
+			return wrap(data, ChecksumStrategy.CRC64);
+		}
+		
+		public static byte[] wrap(byte[] data, ChecksumStrategy checksum) {
 			byte[] bytes = new byte[data.length + DATA_START];
-			
-			long dataSum = CRC64.checksum(data);
-			ByteWrapper.toBytes(dataSum, bytes, CRC_START);
-			System.arraycopy(data, 0, bytes, DATA_START, data.length);
-			
+			wrap(data, checksum, bytes, 0);
 			return bytes;
 		}
 		
-		public static byte[] wrapAndEncrypt(byte[] data, Crypto crypto, byte[] key) 
-				throws InvalidKeyException, BadPaddingException {
-			return crypto.encrypt(wrap(data), key);
+		/**
+		 * Wrap data into output from outputOffset, which should have DATA_START + data.length bytes.<br>
+		 * 
+		 * @return How many bytes are written
+		 */
+		public static int wrap(byte[] data, ChecksumStrategy checksum, byte[] output, int outputOffset) {
+			return wrap(data, 0, data.length, checksum, output, outputOffset);
+		}
+		
+		/**
+		 * Wrap data[offset] to data[offset + length - 1] into output from outputOffset, 
+		 * which should have DATA_START + length bytes.<br>
+		 * 
+		 * @return How many bytes are written
+		 */
+		public static int wrap(byte[] data, int offset, int length, ChecksumStrategy checksum, byte[] output, int outputOffset) {
+			long dataSum = checksum.checksum(data, offset, offset + length);
+			ByteWrapper.putLong(dataSum, output, outputOffset + CRC_START);
+			System.arraycopy(data, offset, output, outputOffset + DATA_START, length);
+			return DATA_START + length;
 		}
 		
 		public static byte[] resolve(byte[] letter) throws DataBrokenException {
-			if(letter.length < DATA_START) {
+			return resolve(letter, ChecksumStrategy.CRC64);
+		}
+		
+		public static byte[] resolve(byte[] letter, ChecksumStrategy checksum) throws DataBrokenException {
+			return resolve(letter, 0, letter.length, checksum);
+		}
+		
+		/**
+		 * Resolve a letter of letter[offset] to letter[offset + length - 1].<br>
+		 */
+		public static byte[] resolve(byte[] letter, int offset, int length, ChecksumStrategy checksum) 
+				throws DataBrokenException {
+			if(length < DATA_START) {
 				throw new DataBrokenException();
 			}
 			
-			long headSum = ByteWrapper.fromBytes(letter, CRC_START, OutputType.LONG);
-			if(!CRC64.isDataComplete(headSum, letter, DATA_START, letter.length)) {
+			long headSum = ByteWrapper.getLong(letter, offset + CRC_START);
+			if(!checksum.isDataComplete(headSum, letter, offset + DATA_START, offset + length)) {
 				throw new DataBrokenException();
 			}
 			
-			byte[] bytes = new byte[letter.length - DATA_START];
-			System.arraycopy(letter, DATA_START, bytes, 0, bytes.length);
+			byte[] bytes = new byte[length - DATA_START];
+			System.arraycopy(letter, offset + DATA_START, bytes, 0, bytes.length);
 			
 			return bytes;
 		}
 		
-		public static byte[] decryptAndResolve(byte[] letter, Crypto crypto, byte[] key) 
-				throws InvalidKeyException, BadPaddingException, DataBrokenException {
-			return resolve(crypto.decrypt(letter, key));
-		}
-		
 		private LetterWrapper() {}
 	}
 	
@@ -1341,6 +4129,21 @@ public class SecureDelivery {
 		public final static int HEAD_START = 8;
 		public final static int HEAD_LENGTH = 17;
 		
+		/*
+		 * Compact packets of connected session, if it is negotiated.
+		 * | CHECKSUM | CONNECTION ID | OPERATION |    TAG    | LETTER |
+		 *     4B           2B            1B       1B ~ 10B
+		 * Checksum is the low 32 bits of checksum of the head from connection id to tag, 
+		 * connection id is folded from session id, and tag is a unsigned varint.
+		 */
+		public final static int COMPACT_CHECKSUM_START = 0;
+		public final static int CONNECTION_ID_START = 4;
+		public final static int COMPACT_OPERATION_START = 6;
+		public final static int COMPACT_TAG_START = 7;
+		
+		public final static int COMPACT_HEAD_START = 4;
+		public final static int MIN_COMPACT_LENGTH = 8;
+		
 		public final Head head;
 		public final byte[] letter;
 		
@@ -1354,39 +4157,54 @@ public class SecureDelivery {
 		}
 		
 		public byte[] wrap() {
+			return wrap(ChecksumStrategy.CRC64);
+		}
+		
+		public byte[] wrap(ChecksumStrategy checksum) {
 			byte[] bytes = new byte[letter.length + LETTER_START];
-			
-			ByteWrapper.toBytes(head.sessionId, bytes, SESSION_ID_START);
-			ByteWrapper.toBytes(head.operation, bytes, OPERATION_START);
-			ByteWrapper.toBytes(head.tag, bytes, TAG_START);
-			
-			long headSum = CRC64.checksum(bytes, HEAD_START, LETTER_START);
-			ByteWrapper.toBytes(headSum, bytes, HEAD_CRC_START);
-			
-			System.arraycopy(letter, 0, bytes, LETTER_START, letter.length);
+			wrap(ByteBuffer.wrap(bytes), checksum);
 			return bytes;
 		}
 		
+		/**
+		 * Write the packet at position of a heap buffer, and move position over it.<br>
+		 * 
+		 * @param buffer The buffer, which should have LETTER_START + letter.length bytes remaining
+		 * @param checksum The checksum of the head
+		 */
+		public void wrap(ByteBuffer buffer, ChecksumStrategy checksum) {
+			head.wrap(buffer, checksum);
+			buffer.put(letter);
+		}
+		
+		/**
+		 * Write the packet with compact head at position of a heap buffer, and move position over it.<br>
+		 * 
+		 * @param buffer The buffer, which should have head.getCompactLength() + letter.length bytes remaining
+		 * @param checksum The checksum of the head
+		 */
+		public void wrapCompact(ByteBuffer buffer, ChecksumStrategy checksum) {
+			head.wrapCompact(buffer, checksum);
+			buffer.put(letter);
+		}
+		
+		/**
+		 * Fold a session id into connection id of 16 bits.<br>
+		 */
+		public static int toConnectionId(long sessionId) {
+			return (int) (sessionId ^ (sessionId >>> 16) ^ (sessionId >>> 32) ^ (sessionId >>> 48)) & 0xFFFF;
+		}
+		
 		public static Packet resolve(byte[] bytes) throws DataBrokenException {
-			if(bytes.length < LETTER_START) {
-				throw new DataBrokenException();
-			}
-			
-			long headSum = ByteWrapper.fromBytes(bytes, HEAD_CRC_START, OutputType.LONG);
-			if(!CRC64.isDataComplete(headSum, bytes, HEAD_START, LETTER_START)) {
+			return resolve(bytes, ChecksumStrategy.CRC64);
+		}
+		
+		public static Packet resolve(byte[] bytes, ChecksumStrategy checksum) throws DataBrokenException {
+			PacketView view = new PacketView();
+			if(!view.resolve(bytes, checksum)) {
 				throw new DataBrokenException();
 			}
-			
-			Head head = new Head(
-					ByteWrapper.fromBytes(bytes, SESSION_ID_START, OutputType.LONG), 
-					ByteWrapper.fromBytes(bytes, OPERATION_START, OutputType.BYTE),
-					ByteWrapper.fromBytes(bytes, TAG_START, OutputType.LONG)
-					);
-			
-			byte[] letter = new byte[bytes.length - LETTER_START];
-			System.arraycopy(bytes, LETTER_START, letter, 0, letter.length);
-			
-			return new Packet(head, letter);
+			return view.toPacket();
 		}
 		
 		public final static class Head {
@@ -1399,6 +4217,230 @@ public class SecureDelivery {
 				this.operation = operation;
 				this.tag = tag;
 			}
+			
+			/**
+			 * Form the head as it is on the packet, without head CRC.<br>
+			 * 
+			 * @return The head of HEAD_LENGTH bytes
+			 */
+			public byte[] toBytes() {
+				byte[] bytes = new byte[HEAD_LENGTH];
+				ByteWrapper.putLong(sessionId, bytes, SESSION_ID_START - HEAD_START);
+				bytes[OPERATION_START - HEAD_START] = operation;
+				ByteWrapper.putLong(tag, bytes, TAG_START - HEAD_START);
+				return bytes;
+			}
+			
+			/**
+			 * Write the head and its checksum at position of a heap buffer, and move 
+			 * position to where the letter starts, so that the letter can be written in place.<br>
+			 * 
+			 * @param buffer The buffer
+			 * @param checksum The checksum of the head
+			 */
+			public void wrap(ByteBuffer buffer, ChecksumStrategy checksum) {
+				int start = buffer.position();
+				ByteWrapper.putLong(sessionId, buffer, start + SESSION_ID_START);
+				buffer.put(start + OPERATION_START, operation);
+				ByteWrapper.putLong(tag, buffer, start + TAG_START);
+				
+				int headStart = buffer.arrayOffset() + start + HEAD_START;
+				long headSum = checksum.checksum(buffer.array(), headStart, headStart + HEAD_LENGTH);
+				ByteWrapper.putLong(headSum, buffer, start + HEAD_CRC_START);
+				
+				buffer.position(start + LETTER_START);
+			}
+			
+			/**
+			 * Length of the compact head with its checksum.<br>
+			 */
+			public int getCompactLength() {
+				return COMPACT_TAG_START + ByteWrapper.varLongLength(tag);
+			}
+			
+			/**
+			 * Write the compact head and its checksum at position of a heap buffer, and move 
+			 * position to where the letter starts.<br>
+			 * 
+			 * @param buffer The buffer
+			 * @param checksum The checksum of the head
+			 */
+			public void wrapCompact(ByteBuffer buffer, ChecksumStrategy checksum) {
+				int start = buffer.position();
+				int base = buffer.arrayOffset() + start;
+				ByteWrapper.putShort((short) toConnectionId(sessionId), buffer, start + CONNECTION_ID_START);
+				buffer.put(start + COMPACT_OPERATION_START, operation);
+				int letterStart = COMPACT_TAG_START + ByteWrapper.putVarLong(tag, buffer.array(), base + COMPACT_TAG_START);
+				
+				long headSum = checksum.checksum(buffer.array(), base + COMPACT_HEAD_START, base + letterStart);
+				ByteWrapper.putInt((int) headSum, buffer, start + COMPACT_CHECKSUM_START);
+				
+				buffer.position(start + letterStart);
+			}
+		}
+		
+	}
+	
+	
+	/**
+	 * A reusable view over a received packet, which reads the head as primitives and leaves 
+	 * the letter in place as a range of the packet, so that a packet is checked and dispatched 
+	 * without allocation.<br>
+	 * <br>
+	 * The view is only valid until it resolves another packet, the letter should be copied 
+	 * if it is kept.<br>
+	 */
+	public final static class PacketView {
+		
+		private byte[] bytes = EMPTY_BYTE_ARRAY;
+		private int headOffset;
+		private int headLength;
+		private int letterOffset;
+		private int letterLength;
+		
+		private long sessionId;
+		private byte operation;
+		private long tag;
+		
+		private byte[] copied = EMPTY_BYTE_ARRAY; // Reused for buffers that are not backed by array.
+		
+		public boolean resolve(byte[] bytes, ChecksumStrategy checksum) {
+			return resolve(bytes, 0, bytes.length, checksum);
+		}
+		
+		/**
+		 * Check head of a packet of bytes[offset] to bytes[offset + length - 1], and view it if 
+		 * it is complete, otherwise the view is not changed.<br>
+		 * 
+		 * @return Whether the head is complete
+		 */
+		public boolean resolve(byte[] bytes, int offset, int length, ChecksumStrategy checksum) {
+			if(length < Packet.LETTER_START) return false;
+			
+			long headSum = ByteWrapper.getLong(bytes, offset + Packet.HEAD_CRC_START);
+			int headOffset = offset + Packet.HEAD_START;
+			if(!checksum.isDataComplete(headSum, bytes, headOffset, headOffset + Packet.HEAD_LENGTH)) return false;
+			
+			this.bytes = bytes;
+			this.headOffset = headOffset;
+			headLength = Packet.HEAD_LENGTH;
+			letterOffset = offset + Packet.LETTER_START;
+			letterLength = length - Packet.LETTER_START;
+			sessionId = ByteWrapper.getLong(bytes, offset + Packet.SESSION_ID_START);
+			operation = bytes[offset + Packet.OPERATION_START];
+			tag = ByteWrapper.getLong(bytes, offset + Packet.TAG_START);
+			return true;
+		}
+		
+		/**
+		 * Check compact head of a packet of bytes[offset] to bytes[offset + length - 1], and view 
+		 * it as a packet of the session if it is complete and of the connection id of the session, 
+		 * otherwise the view is not changed.<br>
+		 * 
+		 * @param sessionId Id of the session that the packet is expected to be of
+		 * @return Whether the head is complete and of the session
+		 */
+		public boolean resolveCompact(byte[] bytes, int offset, int length, long sessionId, ChecksumStrategy checksum) {
+			if(length < Packet.MIN_COMPACT_LENGTH) return false;
+			
+			int connectionId = ByteWrapper.getShort(bytes, offset + Packet.CONNECTION_ID_START) & 0xFFFF;
+			if(connectionId != Packet.toConnectionId(sessionId)) return false;
+			
+			int tagOffset = offset + Packet.COMPACT_TAG_START;
+			int tagLength = ByteWrapper.varLongLength(bytes, tagOffset, offset + length);
+			if(tagLength < 0) return false;
+			
+			int headOffset = offset + Packet.COMPACT_HEAD_START;
+			int letterOffset = tagOffset + tagLength;
+			int headSum = ByteWrapper.getInt(bytes, offset + Packet.COMPACT_CHECKSUM_START);
+			if((int) checksum.checksum(bytes, headOffset, letterOffset) != headSum) return false;
+			
+			this.bytes = bytes;
+			this.headOffset = headOffset;
+			headLength = letterOffset - headOffset;
+			this.letterOffset = letterOffset;
+			letterLength = offset + length - letterOffset;
+			this.sessionId = sessionId;
+			operation = bytes[offset + Packet.COMPACT_OPERATION_START];
+			tag = ByteWrapper.getVarLong(bytes, tagOffset);
+			return true;
+		}
+		
+		/**
+		 * Check head of a packet from position to limit of the buffer, and view it if it is 
+		 * complete. Position of the buffer is not moved.<br>
+		 * <br>
+		 * A buffer that is not backed by array is copied into the view, which is emptied if 
+		 * the head is broken.<br>
+		 * 
+		 * @return Whether the head is complete
+		 */
+		public boolean resolve(ByteBuffer buffer, ChecksumStrategy checksum) {
+			if(buffer.hasArray()) {
+				return resolve(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), checksum);
+			}
+			int length = buffer.remaining();
+			if(copied.length < length) copied = new byte[length];
+			buffer.duplicate().get(copied, 0, length);
+			if(resolve(copied, 0, length, checksum)) return true;
+			
+			if(bytes == copied) { // Overwritten.
+				bytes = EMPTY_BYTE_ARRAY;
+				headOffset = headLength = letterOffset = letterLength = 0;
+			}
+			return false;
+		}
+		
+		public long sessionId() {
+			return sessionId;
+		}
+		
+		public byte operation() {
+			return operation;
+		}
+		
+		public long tag() {
+			return tag;
+		}
+		
+		/**
+		 * The array that the packet is in, which is not copied.<br>
+		 */
+		public byte[] bytes() {
+			return bytes;
+		}
+		
+		/**
+		 * Index of the head without head checksum.<br>
+		 */
+		public int headOffset() {
+			return headOffset;
+		}
+		
+		/**
+		 * Length of the head without head checksum, which is HEAD_LENGTH unless the head is compact.<br>
+		 */
+		public int headLength() {
+			return headLength;
+		}
+		
+		public boolean isCompact() {
+			return headLength != Packet.HEAD_LENGTH;
+		}
+		
+		public int letterOffset() {
+			return letterOffset;
+		}
+		
+		public int letterLength() {
+			return letterLength;
+		}
+		
+		/**
+		 * Copy the viewed packet out.<br>
+		 */
+		public Packet toPacket() {
+			return new Packet(sessionId, operation, tag, Arrays.copyOfRange(bytes, letterOffset, letterOffset + letterLength));
 		}
 		
 	}
@@ -1418,6 +4460,11 @@ public class SecureDelivery {
 		public final SingleProfile<Integer> connectRequestResends = 
 				new SingleProfile<Integer>(new ResendsConstrain(3), 3);
 		
+		public final SingleProfile<Integer> resumeSessionTimeout = 
+				new SingleProfile<Integer>(new TimeoutConstrain(3000), 3000);
+		public final SingleProfile<Integer> resumeSessionResends = 
+				new SingleProfile<Integer>(new ResendsConstrain(1), 1);
+		
 		public final SingleProfile<Integer> publicKeyOfferWaitTimeout = 
 				new SingleProfile<Integer>(new TimeoutConstrain(600000), 600000);
 		
@@ -1449,6 +4496,25 @@ public class SecureDelivery {
 		public final SingleProfile<Integer> keepAliveDelay = 
 				new SingleProfile<Integer>(new TimeoutConstrain(5000), 5000);
 		
+		public final SingleProfile<Integer> rekeyInterval = 
+				new SingleProfile<Integer>(new TimeoutConstrain(3600000), 3600000);
+		public final SingleProfile<Integer> rekeyOverlap = 
+				new SingleProfile<Integer>(new TimeoutConstrain(10000), 10000);
+		public final SingleProfile<Integer> rekeyTimeout = 
+				new SingleProfile<Integer>(new TimeoutConstrain(5000), 5000);
+		public final SingleProfile<Integer> rekeyResends = 
+				new SingleProfile<Integer>(new ResendsConstrain(3), 3);
+		
+		public final SingleProfile<Integer> reassemblyTimeout = 
+				new SingleProfile<Integer>(new TimeoutConstrain(10000), 10000);
+		
+		public final SingleProfile<Integer> retransmitTimeout = 
+				new SingleProfile<Integer>(new TimeoutConstrain(1000), 1000); // Until round trip is measured.
+		public final SingleProfile<Integer> maxRetransmitTimeout = 
+				new SingleProfile<Integer>(new TimeoutConstrain(60000), 60000);
+		public final SingleProfile<Integer> retransmitResends = 
+				new SingleProfile<Integer>(new ResendsConstrain(5), 5);
+		
 		public final SingleProfile<Integer> brokenPreRequestReports = 
 				new SingleProfile<Integer>(new ResendsConstrain(20), 20);
 		
@@ -1514,6 +4580,150 @@ public class SecureDelivery {
 		
 	}
 	
+	/**
+	 * Options of how data is delivered, which are negotiated on connect, thus they should be 
+	 * set before connecting.<br>
+	 */
+	public final static class DeliveryProfile {
+		
+		/**
+		 * Whether to deflate data before encryption, if another side also enables it.<br>
+		 */
+		public final TimeoutProfile.SingleProfile<Boolean> compression = 
+				new TimeoutProfile.SingleProfile<Boolean>(new DefaultConstrain<Boolean>(false), false);
+		
+		/**
+		 * Data that is shorter than it is not compressed.<br>
+		 */
+		public final TimeoutProfile.SingleProfile<Integer> compressionThreshold = 
+				new TimeoutProfile.SingleProfile<Integer>(new SizeConstrain(128), 128);
+		
+		/**
+		 * A preset dictionary of deflate, which can be shared by all SecureDelivery of a server. It is 
+		 * used if another side has the same one, which is checked by its Adler32 on connect.<br>
+		 */
+		public final TimeoutProfile.SingleProfile<byte[]> compressionDictionary = 
+				new TimeoutProfile.SingleProfile<byte[]>(new DefaultConstrain<byte[]>(null), null);
+		
+		/**
+		 * Milliseconds that data is gathered for before it is sent in a batch, 0 to send data 
+		 * one by one. Batches are sent only if another side can receive them.<br>
+		 */
+		public final TimeoutProfile.SingleProfile<Integer> batchWindow = 
+				new TimeoutProfile.SingleProfile<Integer>(new SizeConstrain(0), 0);
+		
+		/**
+		 * Bytes of gathered data that a batch is sent once it reaches, before the flush window ends.<br>
+		 */
+		public final TimeoutProfile.SingleProfile<Integer> batchBudget = 
+				new TimeoutProfile.SingleProfile<Integer>(new SizeConstrain(1024), 1024);
+		
+		/**
+		 * Milliseconds that confirmations of received data are held for, so that they are sent 
+		 * in ranges with outgoing data or keep alive, 0 to confirm data one by one.<br>
+		 */
+		public final TimeoutProfile.SingleProfile<Integer> confirmDelay = 
+				new TimeoutProfile.SingleProfile<Integer>(new SizeConstrain(10), 10);
+		
+		/**
+		 * Bytes that a sent data packet should not be longer than, 0 for no limit. Larger data is 
+		 * sent in fragments if another side can join them, or in one packet if not.<br>
+		 */
+		public final TimeoutProfile.SingleProfile<Integer> maxFrameSize = 
+				new TimeoutProfile.SingleProfile<Integer>(new SizeConstrain(0), 0);
+		
+		/**
+		 * Bytes of received fragments that are held at most, with 8 bytes for every fragment 
+		 * that is expected, data that goes beyond is broken.<br>
+		 */
+		public final TimeoutProfile.SingleProfile<Integer> reassemblyBudget = 
+				new TimeoutProfile.SingleProfile<Integer>(new SizeConstrain(1 << 22), 1 << 22);
+		
+		/**
+		 * Whether data is kept and resent until it is confirmed, if another side can drop 
+		 * data that is received already. Data that is not confirmed after all resends is posted 
+		 * as lost, see SecureReceiver.postLost(long).<br>
+		 */
+		public final TimeoutProfile.SingleProfile<Boolean> reliable = 
+				new TimeoutProfile.SingleProfile<Boolean>(new DefaultConstrain<Boolean>(false), false);
+		
+		/**
+		 * How many reliably sent data are kept at most, data beyond is lost at once.<br>
+		 */
+		public final TimeoutProfile.SingleProfile<Integer> retransmitBufferSize = 
+				new TimeoutProfile.SingleProfile<Integer>(new SizeConstrain(1024), 1024);
+		
+		/**
+		 * Whether data in flight is limited by a congestion window and credit of another side, 
+		 * if it is negotiated. Data beyond is queued, and is sent as confirms come.<br>
+		 * <br>
+		 * Credit is what is left of the reassembly budget of another side.<br>
+		 */
+		public final TimeoutProfile.SingleProfile<Boolean> flowControl = 
+				new TimeoutProfile.SingleProfile<Boolean>(new DefaultConstrain<Boolean>(true), true);
+		
+		/**
+		 * How many data are queued at most, data beyond is lost at once.<br>
+		 */
+		public final TimeoutProfile.SingleProfile<Integer> sendQueueSize = 
+				new TimeoutProfile.SingleProfile<Integer>(new SizeConstrain(4096), 4096);
+		
+		/**
+		 * Data packets in a group of forward error correction, k of Reed Solomon, 0 to disable.<br>
+		 * <br>
+		 * Both sides should enable it, and the less k and m of both sides are taken.<br>
+		 */
+		public final TimeoutProfile.SingleProfile<Integer> fecDataShards = 
+				new TimeoutProfile.SingleProfile<Integer>(new SizeConstrain(0), 0);
+		
+		/**
+		 * Parity packets that are sent after every group, m of Reed Solomon, 0 to disable.<br>
+		 * As many data packets of a group as them can be rebuilt if they are lost or broken, 
+		 * without asking another side.<br>
+		 */
+		public final TimeoutProfile.SingleProfile<Integer> fecParityShards = 
+				new TimeoutProfile.SingleProfile<Integer>(new SizeConstrain(0), 0);
+		
+		/**
+		 * How long in milliseconds a group that is not full waits before its parity is sent.<br>
+		 */
+		public final TimeoutProfile.SingleProfile<Integer> fecWindow = 
+				new TimeoutProfile.SingleProfile<Integer>(new SizeConstrain(20), 20);
+		
+		private final static class DefaultConstrain<T> implements TimeoutProfile.Constrain<T> {
+			
+			public final T defaultValue;
+			
+			public DefaultConstrain(T defaultValue) {
+				this.defaultValue = defaultValue;
+			}
+			
+			@Override
+			public T apply(T value) {
+				return value == null ? defaultValue : value;
+			}
+			
+		}
+		
+		private final static class SizeConstrain implements TimeoutProfile.Constrain<Integer> {
+			
+			public final int defaultSize;
+			
+			public SizeConstrain(int defaultSize) {
+				this.defaultSize = defaultSize;
+			}
+			
+			@Override
+			public Integer apply(Integer value) {
+				if(value == null) value = defaultSize;
+				if(value < 0) value = 0;
+				return value;
+			}
+			
+		}
+		
+	}
+	
 	public final static class NoConnectionException extends RuntimeException {
 		
 		private static final long serialVersionUID = 1499031180680426223L;
@@ -34,6 +34,20 @@ public interface SecureReceiver {
 	 */
 	public void postBroken(long tag);
 	
+	/**
+	 * When a data that is sent reliably is not confirmed after all resends, or is not 
+	 * confirmed before the connection ends.<br>
+	 * Or when a data is not sent at all, for the queue of flow control is full or the 
+	 * connection ends before it is sent.<br>
+	 * <br>
+	 * By default it is taken as broken.<br>
+	 * <br>
+	 * @param tag The tag of data
+	 */
+	public default void postLost(long tag) {
+		postBroken(tag);
+	}
+	
 	/**
 	 * When another SecureDelivery try to connect to you.<br>
 	 * <br>
@@ -0,0 +1,143 @@
+package ink.aquar.scp.v1;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ink.aquar.scp.crypto.SymmetricCrypto;
+
+/**
+ * Session tickets that acceptor issues to its requesters once connected, so that a requester 
+ * can resume a session by the ticket on reconnect, without another asymmetric handshake.<br>
+ * <br>
+ * The cache is bounded, the oldest tickets are dropped if it is full, and tickets expire after 
+ * the lifetime. A ticket is taken out once it is presented with a valid proof, so that it is used only once.<br>
+ * <br>
+ * A cache can be shared by many SecureDelivery, a requester can resume on any of them.<br>
+ * 
+ * @see SecureDelivery#setTicketCache(TicketCache)
+ * 
+ * @author Aquarink Studio
+ * @author Kevin Iry
+ *
+ */
+public class TicketCache {
+	
+	public final static int TICKET_ID_LENGTH = 16;
+	
+	private final static SecureRandom RANDOM = new SecureRandom();
+	
+	private final int capacity;
+	
+	public final long lifetime;
+	
+	private final Map<ByteBuffer, Ticket> tickets = new LinkedHashMap<>(); // In order of expiry.
+	
+	/**
+	 * 
+	 * @param capacity How many tickets can be kept
+	 * @param lifetime Milliseconds that a ticket can be used in after issued
+	 */
+	public TicketCache(int capacity, long lifetime) {
+		if(capacity <= 0) throw new IllegalArgumentException("Capacity should be positive.");
+		if(lifetime <= 0) throw new IllegalArgumentException("Lifetime should be positive.");
+		this.capacity = capacity;
+		this.lifetime = lifetime;
+	}
+	
+	/**
+	 * Generate a random ticket id.<br>
+	 */
+	static byte[] generateId() {
+		byte[] id = new byte[TICKET_ID_LENGTH];
+		RANDOM.nextBytes(id);
+		return id;
+	}
+	
+	/**
+	 * Create a ticket and keep it until it is taken or expired.<br>
+	 */
+	synchronized Ticket issue(byte[] id, byte[] secret, SymmetricCrypto crypto, long negotiation, int keyLength) {
+		long now = System.currentTimeMillis();
+		removeExpired(now);
+		
+		Ticket ticket = new Ticket(id, secret, crypto, negotiation, keyLength, now + lifetime);
+		tickets.put(ByteBuffer.wrap(id), ticket);
+		
+		if(tickets.size() > capacity) {
+			Iterator<Ticket> iterator = tickets.values().iterator();
+			iterator.next();
+			iterator.remove();
+		}
+		return ticket;
+	}
+	
+	/**
+	 * Take out the ticket if it is verified. A ticket that fails is kept, so that it can not be 
+	 * burnt by anyone who only sees its id.<br>
+	 * 
+	 * @return The ticket, or null if it is unknown, taken, expired or not verified
+	 */
+	synchronized Ticket take(byte[] id, Verifier verifier) {
+		ByteBuffer key = ByteBuffer.wrap(id);
+		Ticket ticket = tickets.get(key);
+		if(ticket == null) return null;
+		if(ticket.isExpired(System.currentTimeMillis())) {
+			tickets.remove(key);
+			return null;
+		}
+		if(!verifier.verify(ticket)) return null;
+		tickets.remove(key);
+		return ticket;
+	}
+	
+	public synchronized int size() {
+		return tickets.size();
+	}
+	
+	private void removeExpired(long now) {
+		Iterator<Ticket> iterator = tickets.values().iterator();
+		while(iterator.hasNext() && iterator.next().isExpired(now)) {
+			iterator.remove();
+		}
+	}
+	
+	/**
+	 * Proof of a presented ticket, which is checked before the ticket is taken out.<br>
+	 */
+	interface Verifier {
+		
+		boolean verify(Ticket ticket);
+		
+	}
+	
+	/**
+	 * A ticket, which is kept by acceptor in cache, and by requester after received.<br>
+	 */
+	final static class Ticket {
+		
+		public final byte[] id;
+		public final byte[] secret; // Resumption secret, derived from the session key.
+		public final SymmetricCrypto crypto;
+		public final long negotiation;
+		public final int keyLength;
+		public final long expiry;
+		
+		Ticket(byte[] id, byte[] secret, SymmetricCrypto crypto, long negotiation, int keyLength, long expiry) {
+			this.id = id;
+			this.secret = secret;
+			this.crypto = crypto;
+			this.negotiation = negotiation;
+			this.keyLength = keyLength;
+			this.expiry = expiry;
+		}
+		
+		public boolean isExpired(long now) {
+			return now >= expiry;
+		}
+		
+	}
+
+}
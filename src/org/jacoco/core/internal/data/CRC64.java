@@ -11,6 +11,10 @@
  *******************************************************************************/
 package org.jacoco.core.internal.data;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
 /**
  * CRC64 checksum calculator based on the polynom specified in ISO 3309. The
  * implementation is based on the following publications:
@@ -19,6 +23,11 @@ package org.jacoco.core.internal.data;
  * <li>http://en.wikipedia.org/wiki/Cyclic_redundancy_check</li>
  * <li>http://www.geocities.com/SiliconValley/Pines/8659/crc.htm</li>
  * </ul>
+ * 
+ * Data is processed 8 bytes per step by slicing-by-8 tables, which gives the
+ * same checksum as processing byte by byte. As the checksum starts from 0 and
+ * is not inverted at the end, a checksum can be continued by
+ * {@link #update(long, byte[], int, int)} over several ranges.
  */
 public final class CRC64 {
 
@@ -26,6 +35,14 @@ public final class CRC64 {
 
     private static final long[] LOOKUPTABLE;
 
+    private static final VarHandle LITTLE_ENDIAN_LONG = MethodHandles
+            .byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /*
+     * SLICES[k][i] is the checksum of byte i followed by k zero bytes.
+     */
+    private static final long[][] SLICES;
+
     static {
         LOOKUPTABLE = new long[0x100];
         for (int i = 0; i < 0x100; i++) {
@@ -39,6 +56,15 @@ public final class CRC64 {
             }
             LOOKUPTABLE[i] = v;
         }
+        SLICES = new long[8][];
+        SLICES[0] = LOOKUPTABLE;
+        for (int k = 1; k < 8; k++) {
+            SLICES[k] = new long[0x100];
+            for (int i = 0; i < 0x100; i++) {
+                final long v = SLICES[k - 1][i];
+                SLICES[k][i] = (v >>> 8) ^ LOOKUPTABLE[(int) v & 0xff];
+            }
+        }
     }
 
     /**
@@ -49,29 +75,83 @@ public final class CRC64 {
      * @return checksum value
      */
     public static long checksum(final byte[] data) {
-        long sum = 0;
-        for (final byte b : data) {
-            final int lookupidx = ((int) sum ^ b) & 0xff;
-            sum = (sum >>> 8) ^ LOOKUPTABLE[lookupidx];
-        }
-        return sum;
+        return update(0, data, 0, data.length);
     }
-    
+
     public static long checksum(final byte[] data, int start, int end) {
-    	if(start<0) start = 0;
-    	if(end > data.length) end = data.length;
-    	long sum = 0;
-        for (int i=start;i<end;i++) {
+    	return update(0, data, start, end);
+    }
+
+    /**
+     * Continues a checksum over data[start] to data[end - 1], so that a checksum
+     * of ranges in order equals to the checksum of their concatenation.
+     * 
+     * @param sum
+     *            checksum of the previous ranges, 0 for none
+     * @param data
+     *            data to calculate checksum for
+     * @param start
+     *            first index of the range
+     * @param end
+     *            index after the last of the range
+     * @return checksum value
+     */
+    public static long update(long sum, final byte[] data, int start, int end) {
+        if (start < 0) start = 0;
+        if (end > data.length) end = data.length;
+        final long[] t0 = SLICES[0], t1 = SLICES[1], t2 = SLICES[2], t3 = SLICES[3];
+        final long[] t4 = SLICES[4], t5 = SLICES[5], t6 = SLICES[6], t7 = SLICES[7];
+        int i = start;
+        for (final int limit = end - 7; i < limit; i += 8) {
+            final long v = sum ^ (long) LITTLE_ENDIAN_LONG.get(data, i);
+            sum = t7[(int) v & 0xff]
+                    ^ t6[(int) (v >>> 8) & 0xff]
+                    ^ t5[(int) (v >>> 16) & 0xff]
+                    ^ t4[(int) (v >>> 24) & 0xff]
+                    ^ t3[(int) (v >>> 32) & 0xff]
+                    ^ t2[(int) (v >>> 40) & 0xff]
+                    ^ t1[(int) (v >>> 48) & 0xff]
+                    ^ t0[(int) (v >>> 56)];
+        }
+        for (; i < end; i++) {
             final int lookupidx = ((int) sum ^ data[i]) & 0xff;
-            sum = (sum >>> 8) ^ LOOKUPTABLE[lookupidx];
+            sum = (sum >>> 8) ^ t0[lookupidx];
         }
         return sum;
     }
-    
+
     public static boolean isDataComplete(long sum, byte[] data, int start, int end) {
-		long realSum = CRC64.checksum(data, start, end);
-		return sum == realSum;
-	}
+        return checksum(data, start, end) == sum;
+    }
+
+    /**
+     * A streaming checksum, which is updated by ranges one by one.
+     */
+    public static final class Digest implements java.util.zip.Checksum {
+
+        private long sum;
+
+        @Override
+        public void update(int b) {
+            sum = (sum >>> 8) ^ LOOKUPTABLE[((int) sum ^ b) & 0xff];
+        }
+
+        @Override
+        public void update(byte[] b, int off, int len) {
+            sum = CRC64.update(sum, b, off, off + len);
+        }
+
+        @Override
+        public long getValue() {
+            return sum;
+        }
+
+        @Override
+        public void reset() {
+            sum = 0;
+        }
+	
+    }
 
     private CRC64() {
     }